@@ -16,7 +16,6 @@
 
 package com.inventist.solowheel.xtreme;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
@@ -33,7 +32,6 @@ import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.preference.PreferenceManager;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.View;
 
 public class BatteryGauge extends View {
@@ -55,6 +53,26 @@ public class BatteryGauge extends View {
 
 	private int fullValue = 0;
 
+	// System.nanoTime() of the first setFullPercent() since the last draw
+	private long invalidatedNanos;
+
+	// Everything drawn, laid out once for each size by updateGeometry()
+	private final GaugeGeometry geometry = new GaugeGeometry();
+	private final Path[] segmentPaths = new Path[GaugeGeometry.SEGMENT_COUNT];
+	private final int[] segmentLitColors = new int[GaugeGeometry.SEGMENT_COUNT];
+	private final int[] segmentUnlitColors = new int[GaugeGeometry.SEGMENT_COUNT];
+	private final Path markerPath = new Path();
+	private final float[] markerPoints = new float[6];
+	private Bitmap batteryImage;
+	private Rect batterySrc;
+	private final Rect batteryDest = new Rect();
+
+	// The percentage's text, and the value it was formatted for
+	private final char[] valueText = new char[4];
+	private int valueTextLength;
+	private int valueTextPercent = -1;
+	private final Rect textBounds = new Rect();
+
 	private String title = "Battery Level";
 	private RectF titleRect;
 
@@ -85,7 +103,7 @@ public class BatteryGauge extends View {
 				// fetch defaults from attr.xml
 				valueDigits = a.getInteger(R.styleable.BatteryGauge_valueDigits_charge, 0);
 				valueFontSize = a.getInteger(R.styleable.BatteryGauge_valueFontSize_charge, 40);
-				fullValue = a.getInteger(R.styleable.BatteryGauge_value_charge_percent, 0);
+				fullValue = GaugeGeometry.getLevel(a.getInteger(R.styleable.BatteryGauge_value_charge_percent, 0));
 				valueColor = a.getInteger(R.styleable.BatteryGauge_valueColor_charge, 0xffffff);
 
 				titleFontSize = a.getInteger(R.styleable.BatteryGauge_titleFontSize_charge, 18);
@@ -158,6 +176,21 @@ public class BatteryGauge extends View {
 
 		needlePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
 		needlePaint.setColor(Color.BLACK);
+
+		// Red at empty to green at full, faint above the level
+		float scale = 255.0f / (GaugeGeometry.SEGMENT_COUNT - 1);
+		for (int i = 0; i < GaugeGeometry.SEGMENT_COUNT; i++) {
+			int red = 255 - (int) (i * scale);
+			int green = (int) (i * scale);
+			segmentLitColors[i] = Color.argb(0xFF, red, green, 0);
+			segmentUnlitColors[i] = Color.argb(0x10, red, green, 0);
+			segmentPaths[i] = new Path();
+		}
+
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+		batteryImage = BitmapFactory.decodeResource(getResources(), R.drawable.battery, options);
+		batterySrc = new Rect(0, 0, batteryImage.getWidth() - 1, batteryImage.getHeight() - 1);
 	}
 
 
@@ -169,203 +202,102 @@ public class BatteryGauge extends View {
 //				dp, getResources().getDisplayMetrics());
 	}
 
-	@SuppressLint("DrawAllocation")
 	@Override
 	protected void onDraw(Canvas canvas) {
+		// Nothing below returns early, and a throw ends the process anyway.
+		boolean traced = SystemTrace.beginSection("BatteryGauge.onDraw");
 		super.onDraw(canvas);
 
-		RectF controlRect = new RectF(0.0f, 0.0f, getWidth(), getHeight());
-
-		// vertically center the gauge in the control
-		int centerY = (int) ((controlRect.bottom - controlRect.top) / 2);
-
-		float rightWidth = 0; // for the -100 text
-
-		float gaugeWidth = controlRect.width() - rightWidth;
-		float gaugeHeight = gaugeWidth;
+		updateGeometry();
+		float centerX = geometry.getCenterX();
+		float centerY = geometry.getCenterY();
 
-        // maintain aspect
-        if (gaugeHeight > gaugeWidth)
-            gaugeHeight = gaugeWidth;
-        else if (gaugeWidth > gaugeHeight)
-            gaugeWidth = gaugeHeight;
-
-		int centerX = (int) (gaugeWidth / 2);
+		if (valueTextPercent != fullValue) {
+			valueTextPercent = fullValue;
+			valueTextLength = formatPercent(fullValue, valueText);
+		}
+		valuePaint.getTextBounds(valueText, 0, valueTextLength, textBounds);
+		canvas.drawText(valueText, 0, valueTextLength, centerX,
+				centerY - (textBounds.bottom + textBounds.top) / 2.0f, valuePaint);
 
-		int gaugeWidth2 = (int) gaugeWidth / 2;
-		RectF gaugeRect = new RectF(
-				centerX - gaugeWidth2, centerY - gaugeWidth2,
-				centerX + gaugeWidth2, centerY + gaugeWidth2);
+        canvas.drawBitmap(batteryImage, batterySrc, batteryDest, valuePaint);
 
-		String textVal = fullValue + "%";
+        DrawLedSegments(canvas);
+        DrawTickMark(canvas);
 
-		// get the value height
-		final android.graphics.Rect TextBounds = new android.graphics.Rect();
-		valuePaint.getTextBounds(textVal, 0, textVal.length(), TextBounds);
+        if (invalidatedNanos != 0) {
+            PipelineLatency.recordSince(PipelineLatency.Stage.draw, invalidatedNanos);
+            invalidatedNanos = 0;
+        }
+        SystemTrace.endSection(traced);
+   }
 
-		DrawCenteredText(canvas, textVal, centerX, centerY, valuePaint);
+    // Lays the gauge out for the view's size.  Does nothing until the size changes, so draws
+    // only read what was computed here.
+    private void updateGeometry() {
+        // The gauge is as tall as the view is wide, vertically centred.
+        float gaugeWidth = getWidth();
+        float gaugeHeight = gaugeWidth;
+        int centerX = (int) (gaugeWidth / 2);
+        int centerY = getHeight() / 2;
 
         float pad = dpToPixels(1);
-
-		RectF arcRect = new RectF(gaugeRect.left + pad, gaugeRect.top + pad, gaugeRect.right - pad, gaugeRect.bottom - pad);
-
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
-
-        Bitmap batteryImage = BitmapFactory.decodeResource(getResources(),
-                R.drawable.battery, options);
+        float gap = dpToPixels(10);
+        float outerRadius = (int) gaugeWidth / 2 - pad - gap;
+        if (!geometry.update(centerX, centerY, outerRadius, dpToPixels(40), (int) dpToPixels(20)))
+            return;
+
+        float[] points = geometry.getSegmentPoints();
+        for (int i = 0; i < GaugeGeometry.SEGMENT_COUNT; i++) {
+            int p = i * GaugeGeometry.POINTS_PER_SEGMENT * 2;
+            Path path = segmentPaths[i];
+            path.rewind();
+            path.moveTo(points[p], points[p + 1]);
+            for (int k = 1; k < GaugeGeometry.POINTS_PER_SEGMENT; k++) {
+                path.lineTo(points[p + k * 2], points[p + k * 2 + 1]);
+            }
+            path.close();
+        }
 
         float battImageScale = (gaugeWidth / 6) / gaugeWidth;
         float battWidth = gaugeWidth * battImageScale;
         float battHeight = gaugeHeight * battImageScale;
         float battLeft = centerX - (battWidth / 2);
         float battTop = centerY + (gaugeHeight / 7) - (battHeight / 2);
-
-        Rect src = new Rect(0,0,batteryImage.getWidth()-1, batteryImage.getHeight()-1);
-        Rect dest = new Rect((int)battLeft, (int)battTop, (int)(battLeft + battWidth),
-                (int)(battTop + battHeight));
-        canvas.drawBitmap(batteryImage, src, dest, valuePaint);
-
-        LedSegmentData ledSegmentData = new LedSegmentData(canvas, centerX, centerY, arcRect).invoke();
-        float segmentAngle = ledSegmentData.getSegmentArcSpan();
-        Path ptsSegments = ledSegmentData.getPtsSegments();
-        float innerRadius = ledSegmentData.getInnerRadius();
-
-        DrawLedSegments(canvas, centerX, centerY, ptsSegments, segmentAngle);
-        DrawTickMark(canvas, centerY, centerX, segmentAngle, innerRadius);
-   }
-
-    private class LedSegmentData {
-        private Canvas canvas;
-        private int centerY;
-        private int centerX;
-        private RectF arcRect;
-        private float innerRadius;
-        private Path ptsSegments;
-        private float segmentArcSpan;
-
-        public LedSegmentData(Canvas canvas, int centerX, int centerY, RectF arcRect) {
-            this.canvas = canvas;
-            this.centerY = centerY;
-            this.centerX = centerX;
-            this.arcRect = arcRect;
-        }
-
-        public float getInnerRadius() {
-            return innerRadius;
-        }
-
-        public Path getPtsSegments() {
-            return ptsSegments;
-        }
-
-        public float getSegmentArcSpan() {
-            return segmentArcSpan;
-        }
-
-        public LedSegmentData invoke() {
-            ptsSegments = new Path();
-            float arcSpan = 270.f;
-            float segmentWidth = dpToPixels(40);
-            float gap = dpToPixels(10);
-
-            RectF arcRectChargeOuter = new RectF(arcRect.left + gap, arcRect.top + gap, arcRect.right - gap, arcRect.bottom - gap);
-
-            RectF arcRectChargeInner = new RectF(arcRect.left + gap + segmentWidth, arcRect.top + gap + segmentWidth, arcRect.right - gap - segmentWidth, arcRect.bottom - gap - segmentWidth);
-
-            float outerRadius = arcRectChargeOuter.right - centerX;
-            innerRadius = arcRectChargeInner.right - centerX;
-
-            //float segmentArcSpanFull = arcSpan / 100.0f;
-            //segmentArcSpan = (arcSpan - (segmentArcSpanFull / 2)) / 100;
-            segmentArcSpan = arcSpan / 100.0f;
-
-            float segmentArcRad2 = (float)Math.toRadians(segmentArcSpan / 2);
-
-            int innerOffsetX = (int)(Math.cos(segmentArcRad2) * innerRadius);
-            int innerOffsetY = (int)(Math.sin(segmentArcRad2) * innerRadius);
-
-            int outerOffsetX = (int)(Math.cos(segmentArcRad2) * outerRadius);
-            int outerOffsetY = (int)(Math.sin(segmentArcRad2) * outerRadius);
-
-            int X1 = centerX + innerOffsetX;
-            int Y1 = centerY + innerOffsetY;
-//            int X2 = centerX + innerOffsetX;
-//            int Y2 = centerY - innerOffsetY;
-            int X3 = centerX + outerOffsetX;
-            int Y3 = centerY - outerOffsetY;
-//            int X4 = centerX + outerOffsetX;
-//            int Y4 = centerY + outerOffsetY;
-
-            ptsSegments.moveTo(X1, Y1);
-            ptsSegments.arcTo(arcRectChargeInner, (segmentArcSpan / 2), -segmentArcSpan);
-            ptsSegments.lineTo(X3, Y3);
-            ptsSegments.arcTo(arcRectChargeOuter, -(segmentArcSpan / 2), segmentArcSpan);
-            ptsSegments.lineTo(X1, Y1);
-
-            ptsSegments.close();
-            return this;
-        }
+        batteryDest.set((int) battLeft, (int) battTop, (int) (battLeft + battWidth),
+                (int) (battTop + battHeight));
     }
 
-    private void DrawLedSegments(Canvas canvas, int centerX, int centerY,
-                                 Path ptsSegments, float segmentAngle) {
-
-        canvas.save();
-
-        final int numSegments = 100;
-        int red, green, blue;
-        int alpha;
-        float scale = (255.0f/numSegments);
-
-        Log.d(TAG, "");
-
-        for(int i=numSegments; i >= 0; i--)
-        {
-            if(i > fullValue)
-                alpha = 0x10;
-            else
-                alpha = 0xFF;
-
-            red = 255 - (int)(i * scale);
-            green = (int)(i * scale);
-            blue = 0;
-
-//            Log.d(TAG, String.format("i=%d rga=[%2x][%2x]%2x", i, red, green, alpha));
-
-            arcPaintBatteryFill.setColor(Color.argb(alpha, red, green, blue));
-            canvas.drawPath(ptsSegments, arcPaintBatteryFill);
-
-            canvas.drawPath(ptsSegments, arcPaintBatteryStroke);
-
-			canvas.rotate(-segmentAngle, centerX, centerY);
-		}
-        canvas.restore();
+    // Every segment from 100 down, lit up to the level.
+    private void DrawLedSegments(Canvas canvas) {
+        for (int i = GaugeGeometry.SEGMENT_COUNT - 1; i >= 0; i--) {
+            arcPaintBatteryFill.setColor(i > fullValue ? segmentUnlitColors[i] : segmentLitColors[i]);
+            canvas.drawPath(segmentPaths[i], arcPaintBatteryFill);
+            canvas.drawPath(segmentPaths[i], arcPaintBatteryStroke);
+        }
     }
 
-    private void DrawTickMark(Canvas canvas, int centerY, int centerX, float segmentAngle, float innerRadius) {
+    private void DrawTickMark(Canvas canvas) {
         // put a carat at the full level so it makes sense visually
+        geometry.getMarker(fullValue, markerPoints);
+        markerPath.rewind();
+        markerPath.moveTo(markerPoints[0], markerPoints[1]);
+        markerPath.lineTo(markerPoints[2], markerPoints[3]);
+        markerPath.lineTo(markerPoints[4], markerPoints[5]);
+        markerPath.close();
+
+        canvas.drawPath(markerPath, needlePaint);
+    }
 
-        // get a point on the arc based on an angle
-        Integer triangleHeight = (int)dpToPixels(20);
-        Integer triangleHeight2 = (int)(triangleHeight / 2);
-
-		float arrowAng = 360 - (segmentAngle * fullValue);
-
-        // draw triangle marker
-        Path pts = new Path(); // draw a triangle
-        pts.moveTo(centerX - triangleHeight2, centerY - triangleHeight);
-        pts.lineTo(centerX + triangleHeight2, centerY - triangleHeight);
-        pts.lineTo(centerX, centerY);
-        pts.lineTo(centerX - triangleHeight2, centerY - triangleHeight);
-
-        canvas.save(Canvas.MATRIX_SAVE_FLAG);
-
-        canvas.translate(0, innerRadius);
-        canvas.rotate(-arrowAng, centerX, centerY - innerRadius);
-
-        canvas.drawPath(pts, needlePaint);
-        canvas.restore();
+    // Writes a percentage, for example "87%".
+    private static int formatPercent(int percent, char[] out) {
+        int length = percent >= 100 ? 3 : percent >= 10 ? 2 : 1;
+        for (int i = length - 1; i >= 0; i--) {
+            out[i] = (char) ('0' + percent % 10);
+            percent /= 10;
+        }
+        out[length++] = '%';
+        return length;
     }
 
     public static void DrawCenteredText
@@ -390,14 +322,10 @@ public class BatteryGauge extends View {
      }
 
 	public void setFullPercent(int value) {
+		fullValue = GaugeGeometry.getLevel(value);
 
-		if (value < 0)
-			value = 0;
-		else if (value > 100)
-			value = 100;
-		
-		fullValue = value;
-		
+		if (invalidatedNanos == 0)
+			invalidatedNanos = System.nanoTime();
 		invalidate(); // forces onDraw() to be called.
 		requestLayout();
 	}
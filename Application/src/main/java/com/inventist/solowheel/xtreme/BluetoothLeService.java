@@ -16,51 +16,123 @@
 
 package com.inventist.solowheel.xtreme;
 
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
 import android.os.Binder;
-import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
-import android.text.TextUtils;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
 import android.util.Log;
 
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.wearable.MessageApi;
-import com.google.android.gms.wearable.Node;
-import com.google.android.gms.wearable.NodeApi;
-import com.google.android.gms.wearable.Wearable;
-
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
- * Service for managing connection and data communication with a GATT server hosted on a
- * given Bluetooth LE device.
+ * Service for managing connection and data communication with the GATT servers hosted on one
+ * or more Xtremes.  The primary wheel is the one shown on the gauges; further wheels can be
+ * connected for the dashboard, up to {@link #MAX_WHEELS}.
  */
 public class BluetoothLeService extends Service {
     private final static String TAG = "XtremeService"; // BluetoothLeService.class.getSimpleName();
 
+    // Most phones can't hold more LE connections than this at once.
+    public static final int MAX_WHEELS = 7;
+    private static final int WORKER_THREADS = 2;
+
     private BluetoothManager mBluetoothManager;
     private BluetoothAdapter mBluetoothAdapter;
-    private String mBluetoothDeviceAddress;
-    private BluetoothGatt mBluetoothGatt;
-    private int mConnectionState = STATE_DISCONNECTED;
-    private long mLastWatchUpdateTime = 0;
-    private GoogleApiClient mGoogleApiClient;
 
-    private static final int STATE_DISCONNECTED = 0;
-    private static final int STATE_CONNECTING = 1;
-    private static final int STATE_CONNECTED = 2;
+    // The primary wheel's readings for the watch
+    private WearLink mWearLink;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private GattLayoutCache mGattLayoutCache;
+    private boolean mScreenReceiverRegistered;
+    private boolean mScreenOn = true;
+    private boolean mGaugesForeground;
+    private boolean mRiding;
+    private long mLastRideNotificationTime;
+
+    // Trip and lifetime counters of the primary wheel
+    private OdometerStore mOdometer;
+    private final RideOdometer.Totals mNotificationTrip = new RideOdometer.Totals();
+
+    // Overspeed, low battery and lost link alerts on the primary wheel.  A link dropped after
+    // disconnect() was asked for is no alert.
+    private RideAlerts mAlerts;
+    private volatile boolean mDisconnectRequested;
+
+    // Every wheel, keyed by address; the primary one is the wheel on the gauges.
+    private final HashMap<String, WheelConnection> mWheels = new HashMap<String, WheelConnection>();
+    private volatile WheelConnection mPrimary;
+
+    // Addresses of the wheels the dashboard added, which stay connected when they stop being
+    // the primary one.  Guarded by mWheels.
+    private final HashSet<String> mDashboardWheels = new HashSet<String>();
+
+    // Shared by the decoders of all the wheels.
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(WORKER_THREADS);
+
+    // The primary wheel's latest reading, for the gauges
+    // With systrace markers on, each delivery to the gauges is a slice from its post to the end
+    // of displayData().  The slot has at most one delivery outstanding, so one cookie will do.
+    private static final String TRACE_DELIVERY = "delivery";
+
+    private final TelemetrySlot mTelemetry = new TelemetrySlot(new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            if (SystemTrace.isEnabled()) {
+                SystemTrace.beginAsync(TRACE_DELIVERY, 0);
+                mHandler.post(runnable);
+                mHandler.post(mEndDeliverySlice);
+            } else {
+                mHandler.post(runnable);
+            }
+        }
+    });
+
+    private final Runnable mEndDeliverySlice = new Runnable() {
+        @Override
+        public void run() {
+            SystemTrace.endAsync(TRACE_DELIVERY, 0);
+        }
+    };
+
+    private final BroadcastReceiver mScreenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mScreenOn = Intent.ACTION_SCREEN_ON.equals(intent.getAction());
+            for (WheelConnection wheel : getWheels()) {
+                wheel.setScreenOn(mScreenOn);
+            }
+        }
+    };
+
+    private static final int RIDE_NOTIFICATION_ID = 1;
+    private static final long RIDE_NOTIFICATION_INTERVAL_MS = 5000;
 
     public final static String ACTION_GATT_CONNECTED =
             "com.inventist.solowheel.xtreme.ACTION_GATT_CONNECTED";
@@ -70,6 +142,8 @@ public class BluetoothLeService extends Service {
             "com.inventist.solowheel.xtreme.ACTION_GATT_SERVICES_DISCOVERED";
     public final static String ACTION_DATA_AVAILABLE =
             "com.inventist.solowheel.xtreme.ACTION_DATA_AVAILABLE";
+    public final static String ACTION_END_RIDE =
+            "com.inventist.solowheel.xtreme.ACTION_END_RIDE";
     public final static String EXTRA_DATA =
             "com.inventist.solowheel.xtreme.EXTRA_DATA";
     public final static String EXTRA_DATA_SPEED =
@@ -83,71 +157,82 @@ public class BluetoothLeService extends Service {
     public final static String EXTRA_DATA_BAD_FIRMWARE =
             "com.inventist.solowheel.xtreme.EXTRA_DATA_BAD_FIRMWARE";
 
+    // for Solowheel, the only service we care about is the one with the serial port
+    public final static UUID SOLOWHEEL_SERVICE_UUID =
+            UUID.fromString("0000fff0-0000-1000-8000-00805f9b34fb");
+    public final static UUID SOLOWHEEL_DATAPORT_UUID =
+            UUID.fromString("0000fff7-0000-1000-8000-00805f9b34fb");
+
     public enum connectionErrors
     {
         noErrors,
         badFirmware
     }
 
-    // Implements callback methods for GATT events that the app cares about.  For example,
-    // connection change and services discovered.
-    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+    // Events of every wheel.  Only the primary wheel, the one on the gauges, is reported to the
+    // Activities, the ride notification and the watch; the others are polled by the dashboard.
+    // Readings go to the gauges through mTelemetry rather than a broadcast per frame.
+    private final WheelConnection.Listener mWheelListener = new WheelConnection.Listener() {
         @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            String intentAction;
-            if (mConnectionState == BluetoothProfile.STATE_CONNECTING &&
-                    newState == BluetoothProfile.STATE_CONNECTED)
-            {
-                Log.i(TAG, "Connected to GATT server.");
-
-                intentAction = ACTION_GATT_CONNECTED;
-                mConnectionState = STATE_CONNECTED;
-                broadcastUpdate(intentAction);
-
-                // Attempts to discover services after successful connection.
-                mBluetoothGatt.discoverServices();
-
-                initGoogleApiClient();
+        public void onConnected(WheelConnection wheel) {
+            if (wheel == mPrimary) {
+                StartupTimer.mark(StartupTimer.Milestone.connected);
+                mAlerts.onConnected();
+                broadcastUpdate(ACTION_GATT_CONNECTED);
             }
-            else if (mConnectionState == BluetoothProfile.STATE_CONNECTED &&
-                    newState == BluetoothProfile.STATE_DISCONNECTED)
-            {
-                Log.i(TAG, "Disconnected from GATT server.");
-
-                intentAction = ACTION_GATT_DISCONNECTED;
-                mConnectionState = STATE_DISCONNECTED;
-                broadcastUpdate(intentAction);
-
-                SendWearMessage(0.0, 0.0);
+            startRide();
+        }
 
-                disconnectGoogleClient();
+        @Override
+        public void onDisconnected(WheelConnection wheel, boolean wasConnected) {
+            // A wheel with unsupported firmware is forgotten, it can't be used.
+            if (wheel.hasBadFirmware()) {
+                synchronized (mWheels) {
+                    mWheels.remove(wheel.getAddress());
+                    mDashboardWheels.remove(wheel.getAddress());
+                }
+            }
+            if (wheel == mPrimary) {
+                mTelemetry.clear();
+                mOdometer.pause();
+                mAlerts.onDisconnected(mDisconnectRequested || !wasConnected || wheel.hasBadFirmware());
+                broadcastUpdate(ACTION_GATT_DISCONNECTED);
+
+                if (wasConnected)
+                    mWearLink.endRide(usesMph());
+                if (wheel.hasBadFirmware())
+                    mPrimary = null;
             }
+            if (getConnectedCount() == 0)
+                stopRide();
         }
 
         @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                Log.w(TAG, "GATT_SUCCESS");
-
+        public void onServicesDiscovered(WheelConnection wheel) {
+            if (wheel == mPrimary)
                 broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED);
-            } else {
-                Log.w(TAG, "onServicesDiscovered received: " + status);
-            }
         }
 
         @Override
-        public void onCharacteristicRead(BluetoothGatt gatt,
-                                         BluetoothGattCharacteristic characteristic,
-                                         int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);
+        public void onData(WheelConnection wheel, connectionErrors error, boolean forward,
+                           double speedMPH, double percent, double batteryVolts) {
+            if (wheel != mPrimary)
+                return;
+
+            if (error == connectionErrors.badFirmware) {
+                final Intent intent = new Intent(ACTION_DATA_AVAILABLE);
+                intent.putExtra(EXTRA_DATA_BAD_FIRMWARE, true);
+                sendBroadcast(intent);
+                return;
             }
-        }
 
-        @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt,
-                                            BluetoothGattCharacteristic characteristic) {
-            broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);
+            SystemTrace.counter("speedMphTenths", (int) Math.round(speedMPH * 10));
+            SystemTrace.counter("batteryPercent", (int) percent);
+            long now = System.nanoTime();
+            mTelemetry.publish(speedMPH, percent, batteryVolts, forward, now);
+            mAlerts.onSample(speedMPH, percent, wheel.getFrameReceivedNanos());
+            mOdometer.onSample(speedMPH, percent, now);
+            updateRideAndWatch(speedMPH, percent);
         }
     };
 
@@ -156,154 +241,93 @@ public class BluetoothLeService extends Service {
         sendBroadcast(intent);
     }
 
-    private void broadcastUpdate(final String action,
-                                 final BluetoothGattCharacteristic characteristic) {
-        final Intent intent = new Intent(action);
-
-        final byte[] data = characteristic.getValue();
-
-        if ((data != null) && (data.length > 0)){
-            Log.d(TAG, "Data=" + data);
-
-            String s = new String(data);
-            String[] swValues = s.split(",");
-            if (swValues != null)
-            {
-                switch (swValues.length)
-                {
-                case 3:
-                    // This is a guard for an unsupported firmware version that doesn't send correct data.
-                    // The logic assumption here is the correct firmware will always send a non-zero battery voltage.
-                    if (swValues[1] == "00000")
-                    {
-                        broadcastXtremeData(intent, connectionErrors.badFirmware, "", 0.0, 0.0, 0.0);
-
-                        disconnectGoogleClient();
-                        disconnect();
-                        close();
-                        return; // do not fall through
-                    }
-
-                    // If the last field doesn't look like the direction, ignore the message
-                    String direction = swValues[2].trim();
-                    boolean isValid = false;
-                    if (!TextUtils.isEmpty(direction))
-                    {
-                        try
-                        {
-                            Integer i = Integer.parseInt(direction);
-                            isValid = ((i == 0) || (i == 1));
-                        }
-                        catch(Exception ex) {}
-                    }
-                    if (isValid)
-                    {
-                        Double speedMPH = 0.0;
-                        Double percent = 0.0;
-                        Double batteryDouble = 0.0;
-
-                        String speed = swValues[0].trim();
-
-                        if (!TextUtils.isEmpty(speed))
-                        {
-                            try {
-                                Double speedCmPerSecond = Double.parseDouble(speed);
-                                Double fudgeFactor = .80;
-                                speedCmPerSecond *= fudgeFactor;
-
-                                Double speedCmPerHour = speedCmPerSecond * 60 * 60;
-                                Double speedKmPerHour = speedCmPerHour / 100000;
-                                speedMPH = speedKmPerHour * 0.6214;
-                            }
-                            catch(Exception ex) {}
-                        }
-
-                        String batteryUnformatted = swValues[1].trim();
-
-                        if (!TextUtils.isEmpty(batteryUnformatted))
-                        {
-                            try {
-                                String volts = batteryUnformatted.substring(0, batteryUnformatted.length() - 1);
-                                char[] voltsArray = batteryUnformatted.toCharArray();
-                                char digit = voltsArray[voltsArray.length - 1];
-                                String battery = volts + "." + digit;
-
-                                Double full = 58.0;
-
-                                // Mine vibrated at 46.8v when I ran it down completely.
-                                Double empty = 47.0;
-
-                                Double fullRange = full - empty;
-                                batteryDouble = Double.parseDouble(battery);
-
-                                Double actualRange = batteryDouble - empty;
-                                actualRange = actualRange < 0 ? 0 : actualRange;  // don't allow negative
-
-                                percent = ((actualRange * 100) / fullRange);
-                                if (percent.compareTo(100.0) > 0)
-                                    percent = 100.0;
-                                else if (percent.compareTo(0.0) < 0)
-                                    percent = 0.0;
-                            }
-                            catch(Exception ex) {}
-                        }
-
-                        broadcastXtremeData(intent, connectionErrors.noErrors, direction, speedMPH, percent, batteryDouble);
-                        break;
-                    }
-                }
-            }
+    private void updateRideAndWatch(double speedMPH, double percent) {
+        long now = SystemClock.elapsedRealtime();
+        if (now - mLastRideNotificationTime > RIDE_NOTIFICATION_INTERVAL_MS) {
+            mLastRideNotificationTime = now;
+            updateRideNotification(speedMPH, percent);
         }
+
+        mWearLink.onReading(speedMPH, percent, usesMph());
     }
 
-    private void broadcastXtremeData(Intent intent, connectionErrors error,
-                                     String direction, Double speedMPH, Double percent, Double batteryDouble) {
+    /**
+     * Makes the service a started, foreground service for the length of a ride, so the link keeps
+     * running while the app is in the background or an Activity is recreated.
+     */
+    private void startRide() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mRiding)
+                    return;
+                mRiding = true;
+
+                startService(new Intent(BluetoothLeService.this, BluetoothLeService.class));
+                startForeground(RIDE_NOTIFICATION_ID,
+                        buildRideNotification(getString(R.string.connected)));
+            }
+        });
+    }
 
-        intent.putExtra(EXTRA_DATA_CHARGE_PERCENT, new Double(percent));
-        intent.putExtra(EXTRA_DATA_CHARGE_VOLTS, new Double(batteryDouble));
-        intent.putExtra(EXTRA_DATA_DIRECTION, new Boolean(direction.equals("00001") ? true : false));
-        intent.putExtra(EXTRA_DATA_SPEED, new Double(speedMPH));
-        intent.putExtra(EXTRA_DATA_BAD_FIRMWARE, error == connectionErrors.badFirmware);
+    private void stopRide() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mRiding)
+                    return;
+                mRiding = false;
 
-        sendBroadcast(intent);
+                stopForeground(true);
+                stopSelf();
+            }
+        });
+    }
 
-        // Wear support
-        SendWearMessage(speedMPH, percent);
-    }
-
-    private void SendWearMessage(Double speedMPH, Double percent) {
-        if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
-            long now = System.currentTimeMillis();
-            if (now - mLastWatchUpdateTime > 1000) {
-                mLastWatchUpdateTime = now;
-
-                Locale loc = this.getResources().getConfiguration().locale;
-                boolean useMph = (loc.getISO3Country().equalsIgnoreCase("usa") || loc.getISO3Country().equalsIgnoreCase("mmr"));
-
-                final String message = String.format(
-                        "%d", percent.intValue()) + "," +
-                        String.format("%.1f", speedMPH) + "," +
-                        (useMph ? "MPH" : "KPH");
-
-                Thread t = new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            NodeApi.GetConnectedNodesResult nodes = Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).await();
-
-                            for (Node node : nodes.getNodes()) {
-                                MessageApi.SendMessageResult result =
-                                        Wearable.MessageApi.sendMessage(mGoogleApiClient, node.getId(), "/solowheelxtreme", message.getBytes()).await();
-                            }
-                            Log.v(TAG, "Wear message sent: " + message);
-                        } catch (Exception e) {
-                            Log.e(TAG, e.getMessage());
-                        }
-                    }
-                });
-                t.start();
+    private void updateRideNotification(final double speedMPH, final double percent) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mRiding)
+                    return;
+
+                boolean useMph = usesMph();
+                String reading = getString(R.string.ride_notification_text, (int) percent,
+                        WheelUnits.toDisplaySpeed(speedMPH, useMph), WheelUnits.getSpeedUnits(useMph));
+                mOdometer.getTrip(mNotificationTrip);
+                String text = getString(R.string.ride_notification_trip, reading,
+                        WheelUnits.toDisplayDistance(mNotificationTrip.miles, useMph),
+                        WheelUnits.getDistanceUnits(useMph));
+
+                NotificationManager notificationManager =
+                        (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+                notificationManager.notify(RIDE_NOTIFICATION_ID, buildRideNotification(text));
             }
-        }
+        });
+    }
+
+    private Notification buildRideNotification(String text) {
+        WheelConnection primary = mPrimary;
+        Intent gaugesIntent = new Intent(this, XtremeGaugesActivity.class);
+        if (primary != null)
+            gaugesIntent.putExtra(XtremeGaugesActivity.EXTRAS_DEVICE_ADDRESS, primary.getAddress());
+        gaugesIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+
+        Intent endRideIntent = new Intent(this, BluetoothLeService.class);
+        endRideIntent.setAction(ACTION_END_RIDE);
+
+        return new Notification.Builder(this)
+                .setSmallIcon(R.drawable.ic_launcher)
+                .setContentTitle(getString(R.string.ride_notification_title))
+                .setContentText(text)
+                .setContentIntent(PendingIntent.getActivity(this, 0, gaugesIntent,
+                        PendingIntent.FLAG_UPDATE_CURRENT))
+                .addAction(0, getString(R.string.menu_disconnect),
+                        PendingIntent.getService(this, 0, endRideIntent, PendingIntent.FLAG_UPDATE_CURRENT))
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setShowWhen(false)
+                .build();
     }
 
     public class LocalBinder extends Binder {
@@ -312,6 +336,19 @@ public class BluetoothLeService extends Service {
         }
     }
 
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Every Activity binds the service before it starts scanning or connecting.
+        TraceRing.setEnabled((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
+
+        // Reads back the last checkpoint in the background.
+        mOdometer = OdometerStore.getInstance(this);
+        mAlerts = new RideAlerts(this);
+        mWearLink = new WearLink(this);
+    }
+
     @Override
     public IBinder onBind(Intent intent)
     {
@@ -323,13 +360,108 @@ public class BluetoothLeService extends Service {
     public boolean onUnbind(Intent intent) {
         Log.w(TAG, "onUnbind");
 
-        // After using a given device, you should make sure that BluetoothGatt.close() is called
-        // such that resources are cleaned up properly.  In this particular example, close() is
-        // invoked when the UI is disconnected from the Service.
-        close();
+        // The link outlives the Activities during a ride; it is closed in onDestroy, once the
+        // ride is over and nothing is bound.
         return super.onUnbind(intent);
     }
 
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_END_RIDE.equals(intent.getAction())) {
+            Log.i(TAG, "End ride from notification");
+            if (mRiding)
+                disconnect();
+            else
+                stopSelf();
+        }
+
+        // A restarted service would have no link to resume.
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        Log.w(TAG, "onDestroy");
+
+        close();
+        mExecutor.shutdown();
+
+        if (mScreenReceiverRegistered) {
+            unregisterReceiver(mScreenReceiver);
+            mScreenReceiverRegistered = false;
+        }
+        SettingsStore.getInstance(this).flush();
+        mOdometer.flush();
+        mAlerts.release();
+        mWearLink.release(usesMph());
+        super.onDestroy();
+    }
+
+    /**
+     * Dumps the pipeline latency and the state of every wheel for {@code adb shell dumpsys
+     * activity service com.inventist.solowheel.xtreme/.BluetoothLeService}.
+     *
+     * With the arguments {@code trace on|off|clear} turns the trace ring on or off or empties
+     * it, with {@code trace save} writes it to trace.txt in the app's files, and with just
+     * {@code trace} prints it.  With {@code systrace on|off} turns the systrace markers on or
+     * off, for a capture.  With {@code odometer reset} starts a new trip.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (args != null && args.length > 0 && "trace".equals(args[0])) {
+            dumpTrace(writer, args.length > 1 ? args[1] : "");
+            return;
+        }
+        if (args != null && args.length > 1 && "systrace".equals(args[0])) {
+            SystemTrace.setEnabled("on".equals(args[1]));
+            writer.println("Systrace markers " + (SystemTrace.isEnabled() ? "on" : "off"));
+            return;
+        }
+        if (args != null && args.length > 1 && "odometer".equals(args[0]) && "reset".equals(args[1])) {
+            resetTrip();
+            writer.println("Trip reset");
+            return;
+        }
+
+        PipelineLatency.dump(writer);
+        writer.println(String.format(Locale.US, "Telemetry: published=%d delivered=%d conflated=%d",
+                mTelemetry.getPublishedCount(), mTelemetry.getDeliveredCount(),
+                mTelemetry.getConflatedCount()));
+        mOdometer.dump(writer);
+        mAlerts.dump(writer);
+
+        writer.println("Wheels:");
+        WheelConnection primary = mPrimary;
+        for (WheelConnection wheel : getWheels()) {
+            writer.println(String.format(Locale.US, "  %s%s state=%d frames=%d rejected=%d cpu=%.3f%%",
+                    wheel.getAddress(), wheel == primary ? " (primary)" : "",
+                    wheel.getConnectionState(), wheel.getFrameCount(), wheel.getRejectedCount(),
+                    wheel.getCpuPercent()));
+            writer.print("    ");
+            writer.println(wheel.getLinkQualityReport());
+        }
+    }
+
+    private void dumpTrace(PrintWriter writer, String command) {
+        if ("on".equals(command)) {
+            TraceRing.setEnabled(true);
+        } else if ("off".equals(command)) {
+            TraceRing.setEnabled(false);
+        } else if ("clear".equals(command)) {
+            TraceRing.clear();
+        } else if ("save".equals(command)) {
+            File file = new File(getFilesDir(), "trace.txt");
+            try {
+                TraceRing.writeTo(file);
+                writer.println("Trace written to " + file);
+            } catch (IOException e) {
+                writer.println("Unable to write " + file + ": " + e.getMessage());
+            }
+        } else {
+            TraceRing.dump(writer);
+        }
+    }
+
     private final IBinder mBinder = new LocalBinder();
 
     /**
@@ -354,11 +486,27 @@ public class BluetoothLeService extends Service {
             return false;
         }
 
+        if (mGattLayoutCache == null) {
+            mGattLayoutCache = new GattLayoutCache(this);
+        }
+
+        if (!mScreenReceiverRegistered) {
+            PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+            mScreenOn = powerManager.isScreenOn();
+
+            IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+            filter.addAction(Intent.ACTION_SCREEN_OFF);
+            registerReceiver(mScreenReceiver, filter);
+            mScreenReceiverRegistered = true;
+        }
+
         return true;
     }
 
     /**
-     * Connects to the GATT server hosted on the Bluetooth LE device.
+     * Connects to the GATT server hosted on the Bluetooth LE device, and makes it the primary
+     * wheel.  The previous primary wheel is disconnected and forgotten, unless the dashboard
+     * added it.
      *
      * @param address The device address of the destination device.
      *
@@ -368,164 +516,295 @@ public class BluetoothLeService extends Service {
      *         callback.
      */
     public boolean connect(final String address) {
-        Log.i(TAG, "connect: state: " + mConnectionState);
+        Log.i(TAG, "connect: " + address);
 
         if (mBluetoothAdapter == null || address == null) {
             Log.w(TAG, "BluetoothAdapter not initialized or unspecified address.");
             return false;
         }
 
-        // Previously connected device.  Try to reconnect.
-        if (mBluetoothDeviceAddress != null && address.equals(mBluetoothDeviceAddress)
-                && mBluetoothGatt != null) {
-            Log.d(TAG, "Trying to use an existing mBluetoothGatt for connection.");
-            if (mBluetoothGatt.connect()) {
-                mConnectionState = STATE_CONNECTING;
-                return true;
-            } else {
-                return false;
+        WheelConnection wheel = getOrCreateWheel(address);
+        if (wheel == null)
+            return false;
+
+        WheelConnection previous = mPrimary;
+        if (previous != wheel) {
+            wheel.setForeground(mGaugesForeground);
+            mPrimary = wheel;
+            mTelemetry.clear();
+            mOdometer.pause();
+            mAlerts.onDisconnected(true);
+
+            // A wheel the dashboard added stays on it.  Any other one, such as the last wheel
+            // connected directly while the scan ran, would otherwise stay connected unseen and
+            // keep the ride going.
+            if (previous != null) {
+                if (isDashboardWheel(previous))
+                    previous.setForeground(false);
+                else
+                    removeWheel(previous.getAddress());
             }
         }
+        mDisconnectRequested = false;
+
+        if (wheel.isConnected()) {
+            // Already connected, e.g. by the scan screen's direct connect or before the
+            // caller was recreated; tell it, along with the latest reading.
+            Log.d(TAG, "Already connected.");
+            broadcastUpdate(ACTION_GATT_CONNECTED);
+            mTelemetry.redeliver();
+            mAlerts.onConnected();
+            return true;
+        }
+        return wheel.connect(mBluetoothAdapter);
+    }
 
-        final BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
-        if (device == null) {
-            Log.w(TAG, "Device not found.  Unable to connect.");
+    /**
+     * Connects to another wheel for the dashboard, alongside the primary one.
+     *
+     * @return false if the wheel can't be connected, or {@link #MAX_WHEELS} are already in use.
+     */
+    public boolean connectWheel(final String address) {
+        if (mBluetoothAdapter == null || address == null) {
+            Log.w(TAG, "BluetoothAdapter not initialized or unspecified address.");
             return false;
         }
-        // We want to directly connect to the device, so we are setting the autoConnect
-        // parameter to false.
-        mBluetoothGatt = device.connectGatt(this, false, mGattCallback);
-        Log.d(TAG, "Trying to create a new connection.");
-        mBluetoothDeviceAddress = address;
-        mConnectionState = STATE_CONNECTING;
-        return true;
+
+        WheelConnection wheel = getOrCreateWheel(address);
+        if (wheel == null)
+            return false;
+        synchronized (mWheels) {
+            mDashboardWheels.add(address);
+        }
+        return wheel.isConnected() || wheel.connect(mBluetoothAdapter);
     }
 
     /**
-     * Disconnects an existing connection or cancel a pending connection. The disconnection result
-     * is reported asynchronously through the
-     * {@code BluetoothGattCallback#onConnectionStateChange(android.bluetooth.BluetoothGatt, int, int)}
-     * callback.
+     * Disconnects and forgets a wheel.
      */
-    public void disconnect() {
-        Log.i(TAG, "disconnect: " + mConnectionState);
-
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
-            Log.w(TAG, "BluetoothAdapter not initialized");
+    public void removeWheel(final String address) {
+        WheelConnection wheel;
+        synchronized (mWheels) {
+            wheel = mWheels.remove(address);
+            mDashboardWheels.remove(address);
+        }
+        if (wheel == null)
             return;
+
+        if (wheel == mPrimary) {
+            mPrimary = null;
+            mAlerts.onDisconnected(true);
         }
-        mBluetoothGatt.disconnect();
+        wheel.disconnect();
+        wheel.close();
+        if (getConnectedCount() == 0)
+            stopRide();
     }
 
     /**
-     * After using a given BLE device, the app must call this method to ensure resources are
-     * released properly.
+     * Adds a simulated wheel to the dashboard, fed by {@link WheelSimulator}.
      */
-    public void close() {
-        Log.i(TAG, "close");
-
-        if (mBluetoothGatt == null) {
-            return;
+    WheelConnection addSimulatedWheel(final String address) {
+        WheelConnection wheel = getOrCreateWheel(address);
+        if (wheel != null) {
+            synchronized (mWheels) {
+                mDashboardWheels.add(address);
+            }
+            wheel.setSimulatedConnected(true);
         }
-        mBluetoothGatt.close();
-        mBluetoothGatt = null;
+        return wheel;
     }
 
-    private void disconnectGoogleClient()
-    {
-        Log.i(TAG, "disconnectGoogleClient");
+    /**
+     * @return A snapshot of every wheel, connected or not.
+     */
+    public List<WheelConnection> getWheels() {
+        synchronized (mWheels) {
+            return new ArrayList<WheelConnection>(mWheels.values());
+        }
+    }
 
-        if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
-            final String message = "0,0, ";
-            NodeApi.GetConnectedNodesResult nodes = Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).await();
+    private WheelConnection getOrCreateWheel(final String address) {
+        synchronized (mWheels) {
+            WheelConnection wheel = mWheels.get(address);
+            if (wheel == null) {
+                if (mWheels.size() >= MAX_WHEELS) {
+                    Log.w(TAG, "Already connected to " + MAX_WHEELS + " wheels");
+                    return null;
+                }
 
-            for (Node node : nodes.getNodes()) {
-                MessageApi.SendMessageResult result =
-                        Wearable.MessageApi.sendMessage(mGoogleApiClient, node.getId(), "/solowheelxtreme", message.getBytes()).await();
+                wheel = new WheelConnection(this, address, mHandler, mExecutor,
+                        mGattLayoutCache, mWheelListener);
+                wheel.setScreenOn(mScreenOn);
+                mWheels.put(address, wheel);
             }
-
-            mGoogleApiClient.disconnect();
+            return wheel;
         }
+    }
 
-        mGoogleApiClient = null;
+    private boolean isDashboardWheel(WheelConnection wheel) {
+        synchronized (mWheels) {
+            return mDashboardWheels.contains(wheel.getAddress());
+        }
     }
 
-    private void initGoogleApiClient() {
-        if (mGoogleApiClient != null && mGoogleApiClient.isConnected())
-        {
-            Log.i(TAG, "Google API client already connected");
+    private int getConnectedCount() {
+        int count = 0;
+        for (WheelConnection wheel : getWheels()) {
+            if (wheel.isConnected())
+                count++;
         }
-        else
-        {
-            if (mGoogleApiClient == null)
-            {
-                mGoogleApiClient = new GoogleApiClient.Builder(this)
-                        .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
-                            @Override
-                            public void onConnected(Bundle bundle) {
-                                Log.i(TAG, "Google API client connected");
+        return count;
+    }
 
-                            }
+    /**
+     * Disconnects an existing connection or cancel a pending connection to the primary wheel.
+     * The disconnection result is reported asynchronously through the
+     * {@code BluetoothGattCallback#onConnectionStateChange(android.bluetooth.BluetoothGatt, int, int)}
+     * callback.
+     */
+    public void disconnect() {
+        Log.i(TAG, "disconnect");
 
-                            @Override
-                            public void onConnectionSuspended(int i) {
+        WheelConnection primary = mPrimary;
+        if (mBluetoothAdapter == null || primary == null) {
+            Log.w(TAG, "BluetoothAdapter not initialized");
+            return;
+        }
+        mDisconnectRequested = true;
+        primary.disconnect();
+    }
 
-                            }
-                        })
-                        .addOnConnectionFailedListener(new GoogleApiClient.OnConnectionFailedListener() {
-                            @Override
-                            public void onConnectionFailed(ConnectionResult connectionResult) {
-                                Log.i(TAG, "Google API onConnectionFailed: " + connectionResult);
-                            }
-                        })
-                        .addApi(Wearable.API)
-                        .build();
-            }
+    /**
+     * After using the wheels, the app must call this method to ensure resources are
+     * released properly.
+     */
+    public void close() {
+        Log.i(TAG, "close");
 
-            if (!mGoogleApiClient.isConnected())
-                mGoogleApiClient.connect();
+        List<WheelConnection> wheels;
+        synchronized (mWheels) {
+            wheels = new ArrayList<WheelConnection>(mWheels.values());
+            mWheels.clear();
+            mDashboardWheels.clear();
+        }
+        for (WheelConnection wheel : wheels) {
+            wheel.close();
         }
+        mPrimary = null;
+    }
+
+    private boolean usesMph() {
+        Locale loc = getResources().getConfiguration().locale;
+        return WheelUnits.usesMph(loc.getISO3Country());
     }
 
     /**
      * Request a read on a given {@code BluetoothGattCharacteristic}. The read result is reported
      * asynchronously through the {@code BluetoothGattCallback#onCharacteristicRead(android.bluetooth.BluetoothGatt, android.bluetooth.BluetoothGattCharacteristic, int)}
-     * callback.
+     * callback.  The read is queued behind any GATT operation that is still outstanding.
      *
      * @param characteristic The characteristic to read from.
      */
     public void readCharacteristic(BluetoothGattCharacteristic characteristic) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
+        WheelConnection primary = mPrimary;
+        if (mBluetoothAdapter == null || primary == null) {
             Log.w(TAG, "BluetoothAdapter not initialized");
             return;
         }
-        mBluetoothGatt.readCharacteristic(characteristic);
+        primary.readCharacteristic(characteristic);
     }
 
     /**
-     * Enables or disables notification on a give characteristic.
+     * Enables or disables notification on a give characteristic.  Besides the local
+     * registration, this queues a write of the Client Characteristic Configuration descriptor;
+     * without it the peripheral is never told to send notifications.
      *
      * @param characteristic Characteristic to act on.
      * @param enabled If true, enable notification.  False otherwise.
      */
     public void setCharacteristicNotification(BluetoothGattCharacteristic characteristic,
                                               boolean enabled) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
+        WheelConnection primary = mPrimary;
+        if (mBluetoothAdapter == null || primary == null) {
             Log.w(TAG, "BluetoothAdapter not initialized");
             return;
         }
-        mBluetoothGatt.setCharacteristicNotification(characteristic, enabled);
+        primary.setCharacteristicNotification(characteristic, enabled);
     }
 
     /**
-     * Retrieves a list of supported GATT services on the connected device. This should be
-     * invoked only after {@code BluetoothGatt#discoverServices()} completes successfully.
+     * Request a larger ATT MTU.  The result is reported asynchronously through
+     * {@code BluetoothGattCallback#onMtuChanged(android.bluetooth.BluetoothGatt, int, int)}.
+     * Ignored prior to Android 5.0.
      *
-     * @return A {@code List} of supported services.
+     * @param mtu The requested MTU in bytes.
      */
-    public List<BluetoothGattService> getSupportedGattServices() {
-        if (mBluetoothGatt == null) return null;
+    public void requestMtu(int mtu) {
+        WheelConnection primary = mPrimary;
+        if (mBluetoothAdapter == null || primary == null) {
+            Log.w(TAG, "BluetoothAdapter not initialized");
+            return;
+        }
+        primary.requestMtu(mtu);
+    }
 
-        return mBluetoothGatt.getServices();
+    /**
+     * Request a connection interval class, one of the {@code BluetoothGatt.CONNECTION_PRIORITY_*}
+     * constants.  Ignored prior to Android 5.0.
+     *
+     * @param priority The requested connection priority.
+     */
+    public void requestConnectionPriority(int priority) {
+        WheelConnection primary = mPrimary;
+        if (mBluetoothAdapter == null || primary == null) {
+            Log.w(TAG, "BluetoothAdapter not initialized");
+            return;
+        }
+        primary.requestConnectionPriority(priority);
+    }
+
+    /**
+     * Tells the connection policy whether the gauges are on screen.  The link runs at high
+     * priority while they are.
+     *
+     * @param foreground True from the gauges' onResume, false from onPause.
+     */
+    public void setGaugesForeground(boolean foreground) {
+        mGaugesForeground = foreground;
+        WheelConnection primary = mPrimary;
+        if (primary != null)
+            primary.setForeground(foreground);
+    }
+
+    /**
+     * The ride alerts' engine, for setting their thresholds.
+     */
+    public AlertEngine getAlertEngine() {
+        return mAlerts.getEngine();
+    }
+
+    /**
+     * Starts a new trip.  The lifetime counters carry on.
+     */
+    public void resetTrip() {
+        mOdometer.resetTrip();
+    }
+
+    /**
+     * Fills in the trip and lifetime distance, ride time and battery used, counted from every
+     * reading of the primary wheel and kept across restarts.
+     */
+    public void getOdometer(RideOdometer.Totals trip, RideOdometer.Totals lifetime) {
+        mOdometer.getTrip(trip);
+        mOdometer.getLifetime(lifetime);
+    }
+
+    /**
+     * Sets the receiver of the primary wheel's readings, on the main thread, or removes it when
+     * passed null.  Readings that arrive faster than it takes them are conflated.
+     */
+    public void setTelemetryConsumer(TelemetrySlot.Consumer consumer) {
+        mTelemetry.setConsumer(consumer);
     }
-}
+}
\ No newline at end of file
@@ -21,21 +21,17 @@ import android.app.Activity;
 import android.app.ListActivity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.le.BluetoothLeScanner;
-import android.bluetooth.le.ScanCallback;
-import android.bluetooth.le.ScanFilter;
-import android.bluetooth.le.ScanResult;
-import android.bluetooth.le.ScanSettings;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
-import android.database.DataSetObserver;
-import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -49,7 +45,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
 
 /**
  * Activity for scanning and displaying available Bluetooth LE devices.
@@ -63,23 +59,67 @@ public class DeviceScanActivity extends ListActivity {
 
     private LeDeviceListAdapter mLeDeviceListAdapter;
     private BluetoothAdapter mBluetoothAdapter;
-
-    private BluetoothAdapter.LeScanCallback mLeScanCallback;
-
-    // Android 5.0 or above BLE support only (not backwards compatible)
-    private ScanSettings settings;
-    private BluetoothLeScanner mLeScanner50;
-    private List<ScanFilter> filters;
-    private BluetoothGatt mGatt;
-    private ScanCallback mScanCallback50;
+    private XtremeScanner mScanner;
 
     private boolean mScanning;
     private Handler mHandler;
     private String lastMacAddress;
 
+    // The last wheel is connected to directly while the scan runs; whichever finds it first
+    // launches the gauges.
+    private BluetoothLeService mBluetoothLeService;
+    private boolean mDirectConnectPending;
+    private boolean mGaugesLaunched;
+
+    private final ServiceConnection mServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName componentName, IBinder service) {
+            Log.i(TAG, "DeviceScan onServiceConnected");
+
+            mBluetoothLeService = ((BluetoothLeService.LocalBinder) service).getService();
+            if (!mBluetoothLeService.initialize()) {
+                Log.e(TAG, "Unable to initialize Bluetooth");
+                mBluetoothLeService = null;
+                return;
+            }
+            StartupTimer.mark(StartupTimer.Milestone.serviceBound);
+            startDirectConnect();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName componentName) {
+            Log.i(TAG, "DeviceScan onServiceDisconnected");
+            mBluetoothLeService = null;
+        }
+    };
+
+    private final BroadcastReceiver mGattUpdateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final String action = intent.getAction();
+            if (BluetoothLeService.ACTION_GATT_CONNECTED.equals(action)) {
+                if (mDirectConnectPending && !mGaugesLaunched) {
+                    Log.i(TAG, "Direct connect won, launching gauges");
+
+                    StartupTimer.setConnectPath("direct");
+                    displayGauges(mBluetoothAdapter.getRemoteDevice(lastMacAddress));
+                }
+            } else if (BluetoothLeService.ACTION_GATT_DISCONNECTED.equals(action)) {
+                // The direct attempt failed, the scan is still running.
+                mDirectConnectPending = false;
+            }
+        }
+    };
+
+    private final Runnable mSettingsLoaded = new Runnable() {
+        @Override
+        public void run() {
+            lastMacAddress = getLastMacAddress();
+            startDirectConnect();
+        }
+    };
+
     private static final int REQUEST_ENABLE_BT = 1;
-    // Stops scanning after 5 minutes.
-    private static final long SCAN_PERIOD = 5 * 60 * 1000;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -88,6 +128,7 @@ public class DeviceScanActivity extends ListActivity {
         super.onCreate(savedInstanceState);
         getActionBar().setTitle(R.string.title_devices);
         mHandler = new Handler();
+        StartupTimer.markFirstFrameDrawn(this);
 
         // Use this check to determine whether BLE is supported on the device.  Then you can
         // selectively disable BLE-related features.
@@ -109,58 +150,21 @@ public class DeviceScanActivity extends ListActivity {
             return;
         }
 
-        // The newer BLE APIs are only supported in 5.0 or above.
-        if (Build.VERSION.SDK_INT >= 21 && mScanCallback50 == null) {
-            mScanCallback50 = new ScanCallback() {
-
-                @Override
-                public void onScanResult(int callbackType, ScanResult result) {
-                    Log.i("callbackType", String.valueOf(callbackType));
-                    Log.i("result", result.toString());
-
-                    if (mScanning) {
-                        BluetoothDevice btDevice = result.getDevice();
-
-
-                        //connectToDevice50(btDevice);
-
-                        addDeviceToList(btDevice, result.getRssi());
-                    }
-                }
-
-                @Override
-                public void onBatchScanResults(List<ScanResult> results) {
-                    for (ScanResult sr : results) {
-                        Log.i("ScanResult - Results", sr.toString());
-                    }
-                }
-
-                @Override
-                public void onScanFailed(int errorCode) {
-                    Log.e("Scan Failed", "Error Code: " + errorCode);
-                }
-            };
-
-        }
-        else  // prior to Android 5.0
-        {
-            mLeScanCallback =
-                new BluetoothAdapter.LeScanCallback() {
-
-                    @Override
-                    public void onLeScan(final BluetoothDevice btDevice, final int rssi, byte[] scanRecord) {
-                        runOnUiThread(new Runnable() {
+        Intent gattServiceIntent = new Intent(this, BluetoothLeService.class);
+        bindService(gattServiceIntent, mServiceConnection, BIND_AUTO_CREATE);
 
-                            @Override
-                            public void run() {
-
-                                addDeviceToList(btDevice, rssi);
-                            }
-                        });
-                    }
-                };
+        mScanner = new XtremeScanner(mBluetoothAdapter, new XtremeScanner.Listener() {
+            @Override
+            public void onDeviceFound(BluetoothDevice device, int rssi) {
+                addDeviceToList(device, rssi);
+            }
 
-        }
+            @Override
+            public void onScanStopped() {
+                mScanning = false;
+                invalidateOptionsMenu();
+            }
+        });
     }
 
     private void addDeviceToList(BluetoothDevice btDevice, int rssi) {
@@ -168,32 +172,22 @@ public class DeviceScanActivity extends ListActivity {
         final String deviceAddress = btDevice.getAddress();
 
         if (!TextUtils.isEmpty(deviceName) && !TextUtils.isEmpty(deviceAddress)) {
-            Log.v(TAG, "onLeScan device found: " + deviceName);
+            TraceRing.event(TraceRing.Event.scanResult, rssi, deviceAddress.hashCode());
 
-            // only look for Solowheel devices
-            if (deviceName.equals("EXTREME")) {
+            // only look for Solowheel devices; the controller has already filtered on 5.0 and above
+            if (deviceName.equals(XtremeScanner.XTREME_DEVICE_NAME)) {
                 // Log.i(TAG, "rssi = " + rssi);
 
-                boolean found = false;
-                for (DeviceContainer listDevice : mLeDeviceListAdapter.mLeDevices) {
-                    if (deviceAddress.equals(listDevice.device.getAddress())) {
-                        found = true;
+                mLeDeviceListAdapter.updateDevice(btDevice, rssi);
 
-                        listDevice.rssi = rssi;
-                        mLeDeviceListAdapter.refresh();
-                    }
-                }
-                if (!found) {
-                    Log.v(TAG, "XTREME found");
-                    mLeDeviceListAdapter.addDevice(btDevice, rssi);
-                    mLeDeviceListAdapter.refresh();
-                }
-
-                int devNum = checkLastMacAddress();
-                if (devNum != -1) {
+                if (deviceAddress.equals(lastMacAddress)) {
                     Log.v(TAG, "Last Address! Launching gauges");
 
-                    displayGauges(devNum);
+                    // Any direct connection in progress is to this same wheel, so the gauges
+                    // pick it up instead of starting another one.
+                    StartupTimer.setConnectPath("scan");
+
+                    displayGauges(btDevice);
                     return;
                 }
             }
@@ -231,6 +225,10 @@ public class DeviceScanActivity extends ListActivity {
                 lastMacAddress = "0";
                 saveMacAddress("1");
                 break;
+            case R.id.menu_dashboard:
+                scanLeDevice(false);
+                startActivity(new Intent(this, WheelDashboardActivity.class));
+                break;
         }
         return true;
     }
@@ -241,20 +239,21 @@ public class DeviceScanActivity extends ListActivity {
 
         super.onResume();
 
+        // Set once the settings are loaded; until then the scan launches nothing by itself.
+        lastMacAddress = null;
+        SettingsStore.getInstance(this).whenLoaded(mSettingsLoaded);
+        mGaugesLaunched = false;
+        mDirectConnectPending = false;
+        registerReceiver(mGattUpdateReceiver, makeGattUpdateIntentFilter());
+
         // Ensures Bluetooth is enabled on the device.  If Bluetooth is not currently enabled,
         // fire an intent to display a dialog asking the user to grant permission to enable it.
         if (mBluetoothAdapter == null || !mBluetoothAdapter.isEnabled()) {
             Intent enableBtIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
             startActivityForResult(enableBtIntent, REQUEST_ENABLE_BT);
         } else {
-            if (Build.VERSION.SDK_INT >= 21) {
-                mLeScanner50 = mBluetoothAdapter.getBluetoothLeScanner();
-                settings = new ScanSettings.Builder()
-                        .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
-                        .build();
-                filters = new ArrayList<ScanFilter>();
-            }
             scanLeDevice(true);
+            startDirectConnect();
         }
 
 
@@ -270,15 +269,6 @@ public class DeviceScanActivity extends ListActivity {
         // Initializes list view adapter.
         mLeDeviceListAdapter = new LeDeviceListAdapter();
         setListAdapter(mLeDeviceListAdapter);
-
-        lastMacAddress = getLastMacAddress();
-
-        mLeDeviceListAdapter.registerDataSetObserver(new DataSetObserver() {
-            @Override
-            public void onChanged() {
-                super.onChanged();
-            }
-        });
     }
 
     @Override
@@ -298,9 +288,9 @@ public class DeviceScanActivity extends ListActivity {
         super.onDestroy();
         scanLeDevice(false);
 
-        if (mGatt != null) {
-            mGatt.close();
-            mGatt = null;
+        if (mBluetoothAdapter != null) {
+            unbindService(mServiceConnection);
+            mBluetoothLeService = null;
         }
     }
 
@@ -309,17 +299,20 @@ public class DeviceScanActivity extends ListActivity {
         Log.i(TAG, "DeviceScan onPause");
 
         super.onPause();
+
+        SettingsStore.getInstance(this).removeLoadedCallback(mSettingsLoaded);
+        unregisterReceiver(mGattUpdateReceiver);
     }
 
     @Override
     protected void onListItemClick(ListView l, View v, int position, long id) {
-        displayGauges(position);
+        displayGauges(mLeDeviceListAdapter.getDevice(position));
     }
 
-    private void displayGauges(int position) {
-        final BluetoothDevice device = mLeDeviceListAdapter.getDevice(position);
-        if (device == null) return;
+    private void displayGauges(final BluetoothDevice device) {
+        if (device == null || mGaugesLaunched) return;
 
+        mGaugesLaunched = true;
         scanLeDevice(false);
 
         final String newMacAddress = device.getAddress();
@@ -336,27 +329,32 @@ public class DeviceScanActivity extends ListActivity {
     }
 
     public void saveMacAddress(String macAddress) {
-        SharedPreferences settings = getSharedPreferences(SHARED_PREF_NAME, 0);
-        SharedPreferences.Editor editor = settings.edit();
-        editor.putString(LAST_MAC_ADDRESS, macAddress);
-        editor.commit();
+        SettingsStore.getInstance(this).setLastMacAddress(macAddress);
     }
 
     public String getLastMacAddress() {
-        SharedPreferences settings = getSharedPreferences(SHARED_PREF_NAME, 0);
-        return settings.getString(LAST_MAC_ADDRESS, "");
+        return SettingsStore.getInstance(this).getLastMacAddress();
     }
 
-    private int checkLastMacAddress() {
-        int numDevices = mLeDeviceListAdapter.getCount();
-        for (int i = 0; i < numDevices; i++) {
-            BluetoothDevice device = mLeDeviceListAdapter.getDevice(i);
-            if (device.getAddress().equals(lastMacAddress))
-            {
-                return i;
-            }
+    /**
+     * Starts connecting to the last used wheel without waiting for the scan to see it.
+     */
+    private void startDirectConnect() {
+        if (mBluetoothLeService == null || mDirectConnectPending || mGaugesLaunched
+                || mBluetoothAdapter == null || !mBluetoothAdapter.isEnabled()
+                || !BluetoothAdapter.checkBluetoothAddress(lastMacAddress)) {
+            return;
         }
-        return -1;
+
+        Log.i(TAG, "Direct connect to " + lastMacAddress);
+        mDirectConnectPending = mBluetoothLeService.connect(lastMacAddress);
+    }
+
+    private static IntentFilter makeGattUpdateIntentFilter() {
+        final IntentFilter intentFilter = new IntentFilter();
+        intentFilter.addAction(BluetoothLeService.ACTION_GATT_CONNECTED);
+        intentFilter.addAction(BluetoothLeService.ACTION_GATT_DISCONNECTED);
+        return intentFilter;
     }
 
     private void scanLeDevice(final boolean enable) {
@@ -368,22 +366,14 @@ public class DeviceScanActivity extends ListActivity {
             {
                 Log.i(TAG, "scanLeDevice: Start scan");
 
-                if (Build.VERSION.SDK_INT < 21) {
-                    mBluetoothAdapter.startLeScan(mLeScanCallback);
-                } else {
-                    mLeScanner50.startScan(filters, settings, mScanCallback50);
-                }
+                mScanner.start();
                 mScanning = true;
             }
         } else {
             if (mScanning) {
                 Log.i(TAG, "scanLeDevice: Stop scan");
 
-                if (Build.VERSION.SDK_INT < 21) {
-                    mBluetoothAdapter.stopLeScan(mLeScanCallback);
-                } else {
-                    mLeScanner50.stopScan(mScanCallback50);
-                }
+                mScanner.stop();
                 mScanning = false;
             }
         }
@@ -393,10 +383,13 @@ public class DeviceScanActivity extends ListActivity {
 
     class DeviceContainer {
         int rssi;
+        float smoothedRssi;
+        int position;
         BluetoothDevice device;
 
         DeviceContainer(BluetoothDevice device, int rssi) {
             this.rssi = rssi;
+            this.smoothedRssi = rssi;
             this.device = device;
         }
     }
@@ -407,22 +400,79 @@ public class DeviceScanActivity extends ListActivity {
         TextView deviceRssi;
     }
 
-    // Adapter for holding devices found through scanning.
+    // Adapter for holding devices found through scanning.  Devices are keyed by address and kept
+    // sorted by smoothed signal strength, strongest first.  Scan results can arrive many times a
+    // second per wheel, so the list view is refreshed at most every REFRESH_INTERVAL ms.
     private class LeDeviceListAdapter extends BaseAdapter {
+        private static final long REFRESH_INTERVAL = 250;
+
+        // Weight of a new reading in the RSSI moving average
+        private static final float RSSI_ALPHA = 0.25f;
 
         private ArrayList<DeviceContainer> mLeDevices;
+        private HashMap<String, DeviceContainer> mLeDevicesByAddress;
         private LayoutInflater mInflator;
+        private boolean mRefreshPending;
+
+        private final Runnable mRefreshRunnable = new Runnable() {
+            @Override
+            public void run() {
+                mRefreshPending = false;
+                notifyDataSetChanged();
+            }
+        };
 
         public LeDeviceListAdapter() {
             super();
             mLeDevices = new ArrayList<DeviceContainer>();
+            mLeDevicesByAddress = new HashMap<String, DeviceContainer>();
             mInflator = DeviceScanActivity.this.getLayoutInflater();
         }
 
-        public void addDevice(BluetoothDevice device, int rssi) {
-            if(!mLeDevices.contains(device)) {
-                mLeDevices.add(new DeviceContainer(device, rssi));
-                notifyDataSetChanged();
+        public void updateDevice(BluetoothDevice device, int rssi) {
+            DeviceContainer container = mLeDevicesByAddress.get(device.getAddress());
+            if (container == null) {
+                Log.v(TAG, "XTREME found");
+
+                container = new DeviceContainer(device, rssi);
+                container.position = mLeDevices.size();
+                mLeDevices.add(container);
+                mLeDevicesByAddress.put(device.getAddress(), container);
+            } else {
+                container.rssi = rssi;
+                container.smoothedRssi += RSSI_ALPHA * (rssi - container.smoothedRssi);
+            }
+
+            reposition(container);
+            scheduleRefresh();
+        }
+
+        // Only the updated entry can be out of order, so move it up or down to its place.
+        private void reposition(DeviceContainer container) {
+            int i = container.position;
+            while (i > 0 && mLeDevices.get(i - 1).smoothedRssi < container.smoothedRssi) {
+                swap(i, i - 1);
+                i--;
+            }
+            while (i < mLeDevices.size() - 1 && mLeDevices.get(i + 1).smoothedRssi > container.smoothedRssi) {
+                swap(i, i + 1);
+                i++;
+            }
+        }
+
+        private void swap(int i, int j) {
+            DeviceContainer a = mLeDevices.get(i);
+            DeviceContainer b = mLeDevices.get(j);
+            mLeDevices.set(i, b);
+            mLeDevices.set(j, a);
+            a.position = j;
+            b.position = i;
+        }
+
+        private void scheduleRefresh() {
+            if (!mRefreshPending) {
+                mRefreshPending = true;
+                mHandler.postDelayed(mRefreshRunnable, REFRESH_INTERVAL);
             }
         }
 
@@ -431,11 +481,10 @@ public class DeviceScanActivity extends ListActivity {
         }
 
         public void clear() {
+            mHandler.removeCallbacks(mRefreshRunnable);
+            mRefreshPending = false;
             mLeDevices.clear();
-            notifyDataSetChanged();
-        }
-
-        public void refresh() {
+            mLeDevicesByAddress.clear();
             notifyDataSetChanged();
         }
 
@@ -472,7 +521,7 @@ public class DeviceScanActivity extends ListActivity {
             BluetoothDevice device = mLeDevices.get(i).device;
             final String deviceName = device.getName();
             if (deviceName != null && deviceName.length() > 0)
-                if (deviceName.equals("EXTREME"))
+                if (deviceName.equals(XtremeScanner.XTREME_DEVICE_NAME))
                     viewHolder.deviceName.setText("XTREME");  // workaround for firmware broadcast
                 else
                     viewHolder.deviceName.setText(deviceName);
@@ -481,26 +530,8 @@ public class DeviceScanActivity extends ListActivity {
             viewHolder.deviceAddress.setText(device.getAddress());
             viewHolder.deviceRssi.setText(mLeDevices.get(i).rssi + " dBm");
 
-            int bondState = device.getBondState();
-            int contents = device.describeContents();
-
             return view;
         }
-
-        private ArrayList<DataSetObserver> observers = new ArrayList<DataSetObserver>();
-
-//        @Override
-//        public void registerDataSetObserver(DataSetObserver observer) {
-//            super.registerDataSetObserver(observer);
-//        }
-//
-//        @Override
-//        public void notifyDataSetChanged() {
-//            super.notifyDataSetChanged();
-//            for (DataSetObserver observer : observers) {
-//                observer.onChanged();
-//            }
-//        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Remembers the layout of the Solowheel serial port service for each wheel, keyed by MAC address.
+ *
+ * On a reconnect the data port is looked up directly by UUID and its layout compared with the
+ * stored one; only when the wheel is new, or the layout changed (a Soloware update, for
+ * example), are all the discovered services walked again and the entry rewritten.
+ */
+public class GattLayoutCache {
+    private final static String TAG = "XtremeGattCache";
+
+    private final static String CACHE_PREF_NAME = DeviceScanActivity.SHARED_PREF_NAME + ".gatt";
+
+    private final SharedPreferences mPrefs;
+
+    // Connect to first notification times, in ms, for hits and misses
+    private int mHitCount;
+    private long mHitTotal;
+    private int mMissCount;
+    private long mMissTotal;
+
+    public GattLayoutCache(Context context) {
+        mPrefs = context.getSharedPreferences(CACHE_PREF_NAME, 0);
+    }
+
+    /**
+     * Finds the Solowheel data port on a connection whose services have been discovered.
+     *
+     * @return The data port, null if the device doesn't have one, and whether the stored layout
+     *         could be used.
+     */
+    public Lookup lookup(BluetoothGatt gatt) {
+        final String address = gatt.getDevice().getAddress();
+        final String cachedLayout = mPrefs.getString(address, null);
+
+        if (cachedLayout != null) {
+            BluetoothGattService service = gatt.getService(BluetoothLeService.SOLOWHEEL_SERVICE_UUID);
+            if (service != null) {
+                BluetoothGattCharacteristic dataPort =
+                        service.getCharacteristic(BluetoothLeService.SOLOWHEEL_DATAPORT_UUID);
+                if (dataPort != null && cachedLayout.equals(describe(service))) {
+                    return new Lookup(dataPort, true);
+                }
+            }
+            Log.i(TAG, "Service layout changed for " + address);
+        }
+
+        // Unknown wheel or changed layout, walk everything that was discovered.
+        List<BluetoothGattService> services = gatt.getServices();
+        if (services != null) {
+            for (BluetoothGattService service : services) {
+                if (!BluetoothLeService.SOLOWHEEL_SERVICE_UUID.equals(service.getUuid()))
+                    continue;
+
+                for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                    if (BluetoothLeService.SOLOWHEEL_DATAPORT_UUID.equals(characteristic.getUuid())) {
+                        mPrefs.edit().putString(address, describe(service)).apply();
+                        return new Lookup(characteristic, false);
+                    }
+                }
+            }
+        }
+
+        mPrefs.edit().remove(address).apply();
+        return new Lookup(null, false);
+    }
+
+    /**
+     * Records how long it took from the GATT connection to the first notification.  May be
+     * called from the callbacks of several wheels at once.
+     */
+    public synchronized void recordFirstNotification(boolean cacheHit, long elapsedMs) {
+        if (cacheHit) {
+            mHitCount++;
+            mHitTotal += elapsedMs;
+        } else {
+            mMissCount++;
+            mMissTotal += elapsedMs;
+        }
+
+        Log.i(TAG, "Connect to first notification: " + elapsedMs + "ms (cache " +
+                (cacheHit ? "hit" : "miss") + "), average hit=" +
+                (mHitCount == 0 ? 0 : mHitTotal / mHitCount) + "ms miss=" +
+                (mMissCount == 0 ? 0 : mMissTotal / mMissCount) + "ms");
+    }
+
+    private static String describe(BluetoothGattService service) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(service.getInstanceId());
+        for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+            sb.append(';').append(characteristic.getUuid())
+                    .append('/').append(characteristic.getInstanceId())
+                    .append('/').append(characteristic.getProperties());
+        }
+        return sb.toString();
+    }
+
+    public static class Lookup {
+        final BluetoothGattCharacteristic dataPort;
+        final boolean cacheHit;
+
+        Lookup(BluetoothGattCharacteristic dataPort, boolean cacheHit) {
+            this.dataPort = dataPort;
+            this.cacheHit = cacheHit;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+
+/**
+ * Runs GATT operations one at a time.  The Android stack silently drops a request that is
+ * issued while another one is still outstanding, so every read, descriptor write, RSSI, MTU
+ * and connection priority request goes through this queue.  An operation is completed from the
+ * matching {@code BluetoothGattCallback} method, or abandoned when its timeout expires, and
+ * the next one is started.
+ *
+ * A completion is matched by operation type and by the UUID of the characteristic it is
+ * about.  The callback of an operation that timed out may still arrive later; if it comes
+ * within one timeout of the expiry it is dropped rather than taken for the completion of a
+ * newer operation of the same type and UUID.  See {@link LateCompletions}.
+ *
+ * All queue state is owned by the thread of the {@code Handler} passed in; the public methods
+ * may be called from any thread, including the binder threads the GATT callbacks run on.
+ */
+public class GattOperationQueue {
+    private final static String TAG = "XtremeGattQueue";
+
+    public final static UUID CLIENT_CHARACTERISTIC_CONFIG =
+            UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    private static final long DEFAULT_TIMEOUT_MS = 2000;
+
+    public enum OperationType
+    {
+        readCharacteristic,
+        writeDescriptor,
+        readRemoteRssi,
+        requestMtu,
+        requestConnectionPriority
+    }
+
+    private final Handler mHandler;
+    private final ArrayDeque<Operation> mOperations = new ArrayDeque<Operation>();
+    private BluetoothGatt mBluetoothGatt;
+    private Operation mCurrent;
+
+    // Operations that timed out, whose callbacks may still arrive
+    private final LateCompletions mTimedOut = new LateCompletions(DEFAULT_TIMEOUT_MS);
+
+    // Latency bookkeeping, indexed by OperationType.ordinal()
+    private final int[] mCompletedCount = new int[OperationType.values().length];
+    private final int[] mTimeoutCount = new int[OperationType.values().length];
+    private final long[] mTotalLatency = new long[OperationType.values().length];
+    private final long[] mMaxLatency = new long[OperationType.values().length];
+
+    private final Runnable mTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mCurrent != null) {
+                Log.w(TAG, mCurrent.type + " timed out after " + mCurrent.timeout + " ms");
+                mTimeoutCount[mCurrent.type.ordinal()]++;
+                mTimedOut.onTimedOut(mCurrent.type.ordinal(), mCurrent.target, mCurrent.startTime,
+                        SystemClock.elapsedRealtime());
+                mCurrent = null;
+            }
+            next();
+        }
+    };
+
+    public GattOperationQueue(Handler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * Attaches the queue to a newly created {@code BluetoothGatt}, or detaches it when passed null,
+     * dropping anything still queued for the previous one.
+     */
+    public void setBluetoothGatt(final BluetoothGatt gatt) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                reset();
+                mBluetoothGatt = gatt;
+            }
+        });
+    }
+
+    /**
+     * Drops the running operation and everything queued behind it.  Call this when the link goes
+     * down; no callback will arrive for an operation that was in flight.
+     */
+    public void clear() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                reset();
+            }
+        });
+    }
+
+    public void readCharacteristic(final BluetoothGattCharacteristic characteristic) {
+        enqueue(new Operation(OperationType.readCharacteristic, characteristic.getUuid(),
+                DEFAULT_TIMEOUT_MS) {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                return gatt.readCharacteristic(characteristic);
+            }
+        });
+    }
+
+    public void writeDescriptor(final BluetoothGattDescriptor descriptor, final byte[] value) {
+        enqueue(new Operation(OperationType.writeDescriptor, getTarget(descriptor),
+                DEFAULT_TIMEOUT_MS) {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                // The descriptor object is shared, so only set its value once it is our turn.
+                descriptor.setValue(value);
+                return gatt.writeDescriptor(descriptor);
+            }
+        });
+    }
+
+    /**
+     * Turns notifications on or off locally and writes the Client Characteristic Configuration
+     * descriptor so that the peripheral actually starts (or stops) sending them.
+     *
+     * @return false if the characteristic has no configuration descriptor.
+     */
+    public boolean setCharacteristicNotification(final BluetoothGattCharacteristic characteristic,
+                                                 final boolean enabled) {
+        final BluetoothGattDescriptor descriptor =
+                characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG);
+        if (descriptor == null) {
+            Log.w(TAG, "No CCCD on " + characteristic.getUuid());
+            return false;
+        }
+
+        enqueue(new Operation(OperationType.writeDescriptor, characteristic.getUuid(),
+                DEFAULT_TIMEOUT_MS) {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                if (!gatt.setCharacteristicNotification(characteristic, enabled))
+                    return false;
+
+                descriptor.setValue(enabled ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE
+                        : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+                return gatt.writeDescriptor(descriptor);
+            }
+        });
+        return true;
+    }
+
+    public void readRemoteRssi() {
+        enqueue(new Operation(OperationType.readRemoteRssi, null, DEFAULT_TIMEOUT_MS) {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                return gatt.readRemoteRssi();
+            }
+        });
+    }
+
+    @TargetApi(21)
+    public void requestMtu(final int mtu) {
+        enqueue(new Operation(OperationType.requestMtu, null, DEFAULT_TIMEOUT_MS) {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                return gatt.requestMtu(mtu);
+            }
+        });
+    }
+
+    /**
+     * There is no callback for a connection priority request, so the operation is complete as
+     * soon as the stack accepts it.
+     */
+    @TargetApi(21)
+    public void requestConnectionPriority(final int priority) {
+        enqueue(new Operation(OperationType.requestConnectionPriority, null, DEFAULT_TIMEOUT_MS) {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                if (gatt.requestConnectionPriority(priority)) {
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onComplete(OperationType.requestConnectionPriority, null,
+                                    BluetoothGatt.GATT_SUCCESS);
+                        }
+                    });
+                    return true;
+                }
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Called from the {@code BluetoothGattCallback} method matching {@code type}.  Completions
+     * that do not belong to the running operation are ignored.
+     *
+     * @param target The UUID of the characteristic read, or of the one whose descriptor was
+     *               written, as given by {@link #getTarget}; null for the other types.
+     */
+    public void complete(final OperationType type, final UUID target, final int status) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                onComplete(type, target, status);
+            }
+        });
+    }
+
+    /**
+     * @return The UUID a descriptor write is matched by, that of the descriptor's
+     *         characteristic, as every configuration descriptor has the same UUID.
+     */
+    public static UUID getTarget(BluetoothGattDescriptor descriptor) {
+        BluetoothGattCharacteristic characteristic = descriptor.getCharacteristic();
+        return characteristic != null ? characteristic.getUuid() : descriptor.getUuid();
+    }
+
+    /**
+     * @return One line per operation type with its count, average and worst latency.
+     */
+    public String getLatencyReport() {
+        StringBuilder sb = new StringBuilder();
+        for (OperationType type : OperationType.values()) {
+            int i = type.ordinal();
+            sb.append(type).append(": n=").append(mCompletedCount[i])
+                    .append(" avg=").append(mCompletedCount[i] == 0 ? 0 : mTotalLatency[i] / mCompletedCount[i])
+                    .append("ms max=").append(mMaxLatency[i])
+                    .append("ms timeouts=").append(mTimeoutCount[i])
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void enqueue(final Operation operation) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mOperations.add(operation);
+                if (mCurrent == null)
+                    next();
+            }
+        });
+    }
+
+    private void onComplete(OperationType type, UUID target, int status) {
+        // The stack answers in order, so a late callback comes before that of a newer request.
+        if (mTimedOut.isLate(type.ordinal(), target, SystemClock.elapsedRealtime())) {
+            Log.w(TAG, "Dropped the late completion of " + type);
+            return;
+        }
+        if (mCurrent == null || !mCurrent.matches(type, target))
+            return;
+
+        mHandler.removeCallbacks(mTimeoutRunnable);
+
+        long latency = SystemClock.elapsedRealtime() - mCurrent.startTime;
+        int i = type.ordinal();
+        mCompletedCount[i]++;
+        mTotalLatency[i] += latency;
+        if (latency > mMaxLatency[i])
+            mMaxLatency[i] = latency;
+
+        TraceRing.event(TraceRing.Event.gattOpComplete, i, latency);
+        if (status != BluetoothGatt.GATT_SUCCESS)
+            Log.w(TAG, type + " failed: status=" + status + " latency=" + latency + "ms");
+
+        mCurrent = null;
+        next();
+    }
+
+    private void next() {
+        while (mCurrent == null && !mOperations.isEmpty()) {
+            Operation operation = mOperations.poll();
+            if (mBluetoothGatt == null) {
+                continue;
+            }
+
+            operation.startTime = SystemClock.elapsedRealtime();
+            mCurrent = operation;
+            if (operation.execute(mBluetoothGatt)) {
+                mHandler.postDelayed(mTimeoutRunnable, operation.timeout);
+            } else {
+                Log.w(TAG, operation.type + " was rejected by the stack");
+                mCurrent = null;
+            }
+        }
+    }
+
+    private void reset() {
+        mHandler.removeCallbacks(mTimeoutRunnable);
+        mOperations.clear();
+        mTimedOut.clear();
+        mCurrent = null;
+    }
+
+    private abstract static class Operation {
+        final OperationType type;
+        final UUID target;
+        final long timeout;
+        long startTime;
+
+        Operation(OperationType type, UUID target, long timeout) {
+            this.type = type;
+            this.target = target;
+            this.timeout = timeout;
+        }
+
+        boolean matches(OperationType type, UUID target) {
+            return this.type == type && (this.target == null ? target == null : this.target.equals(target));
+        }
+
+        abstract boolean execute(BluetoothGatt gatt);
+    }
+}
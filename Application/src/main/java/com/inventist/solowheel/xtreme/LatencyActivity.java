@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.Handler;
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * Debug screen with the p50, p99 and max latency of each pipeline stage, refreshed every
+ * second.  Reached by a long press on the gauges' battery gauge; a tap resets the histograms.
+ */
+public class LatencyActivity extends Activity {
+
+    private static final long REFRESH_INTERVAL = 1000;
+
+    private final Handler mHandler = new Handler();
+    private TextView mReport;
+
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mReport.setText(PipelineLatency.getReport());
+            mHandler.postDelayed(this, REFRESH_INTERVAL);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_latency);
+
+        mReport = (TextView) findViewById(R.id.latency_report);
+        mReport.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                PipelineLatency.reset();
+                mReport.setText(PipelineLatency.getReport());
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mHandler.post(mRefreshRunnable);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mHandler.removeCallbacks(mRefreshRunnable);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The trip and lifetime {@link RideOdometer}, persisted in {@link CheckpointFile}s in the
+ * app's files.
+ *
+ * Readings are counted in memory on the decode pool.  The first reading counted after a
+ * checkpoint schedules the next one on a background thread {@link #CHECKPOINT_INTERVAL_MS}
+ * later, so a ride costs at most one write every few seconds and a crash loses at most that
+ * much of it.  A lost link or the end of the service writes a checkpoint straight away.
+ * The last checkpoint is read back on the same thread when the store is created.
+ */
+public class OdometerStore {
+    private final static String TAG = "XtremeOdometer";
+
+    public static final long CHECKPOINT_INTERVAL_MS = 5000;
+
+    private static final String FILE_NAME = "odometer";
+
+    private static OdometerStore sInstance;
+
+    private final Context mContext;
+    private final RideOdometer mOdometer = new RideOdometer();
+    private final Handler mWriteHandler;
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    private final long mCreatedTime = SystemClock.elapsedRealtime();
+
+    // Owned by the write thread
+    private final byte[] mPayload = new byte[RideOdometer.PAYLOAD_LENGTH];
+    private volatile CheckpointFile mFile;
+
+    private final Runnable mCheckpointRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Cleared first, so a reading counted from here on schedules another checkpoint.
+            mScheduled.set(false);
+            writeCheckpoint();
+        }
+    };
+
+    public static synchronized OdometerStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new OdometerStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private OdometerStore(Context context) {
+        mContext = context;
+
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mWriteHandler = new Handler(thread.getLooper());
+
+        mWriteHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                CheckpointFile file = new CheckpointFile(mContext.getFilesDir(), FILE_NAME,
+                        RideOdometer.PAYLOAD_LENGTH);
+                if (file.read(mPayload)) {
+                    mOdometer.restore(mPayload);
+                } else {
+                    Log.i(TAG, "No odometer checkpoint");
+                }
+                mFile = file;
+            }
+        });
+    }
+
+    /**
+     * Counts a reading of the primary wheel.  Called from the decode pool for every frame.
+     */
+    public void onSample(double speedMPH, double percent, long nowNanos) {
+        if (mOdometer.onSample(speedMPH, percent, nowNanos) && mScheduled.compareAndSet(false, true))
+            mWriteHandler.postDelayed(mCheckpointRunnable, CHECKPOINT_INTERVAL_MS);
+    }
+
+    /**
+     * Stops counting time until the next reading, for a lost link or a different wheel, and
+     * writes a checkpoint now.
+     */
+    public void pause() {
+        mOdometer.pause();
+        checkpoint();
+    }
+
+    public void resetTrip() {
+        mOdometer.resetTrip();
+        checkpoint();
+    }
+
+    public void getTrip(RideOdometer.Totals out) {
+        mOdometer.getTrip(out);
+    }
+
+    public void getLifetime(RideOdometer.Totals out) {
+        mOdometer.getLifetime(out);
+    }
+
+    /**
+     * Writes a checkpoint now, without waiting for it.
+     */
+    public void checkpoint() {
+        mWriteHandler.removeCallbacks(mCheckpointRunnable);
+        mScheduled.set(true);
+        mWriteHandler.post(mCheckpointRunnable);
+    }
+
+    /**
+     * Writes a checkpoint now and waits for it to reach the disk.  Meant for shutdown, as it
+     * blocks the caller.  It queues behind the load, so a store flushed right after it was
+     * created still has a file to write.
+     */
+    public void flush() {
+        final CountDownLatch done = new CountDownLatch(1);
+        mWriteHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mWriteHandler.removeCallbacks(mCheckpointRunnable);
+                mScheduled.set(false);
+                writeCheckpoint();
+                done.countDown();
+            }
+        });
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Prints the counters and the checkpoint writes, for the service's dump.
+     */
+    public void dump(PrintWriter writer) {
+        RideOdometer.Totals trip = new RideOdometer.Totals();
+        RideOdometer.Totals lifetime = new RideOdometer.Totals();
+        mOdometer.getTrip(trip);
+        mOdometer.getLifetime(lifetime);
+
+        writer.println("Odometer:");
+        dumpTotals(writer, "trip", trip);
+        dumpTotals(writer, "lifetime", lifetime);
+
+        CheckpointFile file = mFile;
+        if (file == null) {
+            writer.println("  checkpoint not read yet");
+            return;
+        }
+        double hours = Math.max(SystemClock.elapsedRealtime() - mCreatedTime, 1) / 3600000.0;
+        writer.println(String.format(Locale.US, "  checkpoints: writes=%d failed=%d writes/hour=%.1f",
+                file.getWriteCount(), file.getFailedCount(), file.getWriteCount() / hours));
+    }
+
+    private static void dumpTotals(PrintWriter writer, String name, RideOdometer.Totals totals) {
+        writer.println(String.format(Locale.US, "  %s: miles=%.2f ride=%ds battery used=%.1f%%",
+                name, totals.miles, TimeUnit.NANOSECONDS.toSeconds(totals.rideNanos),
+                totals.batteryUsedPercent));
+    }
+
+    private void writeCheckpoint() {
+        CheckpointFile file = mFile;
+        if (file == null || !mOdometer.isDirty())
+            return;
+
+        mOdometer.save(mPayload);
+        try {
+            file.write(mPayload);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write odometer checkpoint: " + e.getMessage());
+        }
+    }
+}
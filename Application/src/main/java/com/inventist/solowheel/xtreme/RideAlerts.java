@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.ToneGenerator;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.Vibrator;
+import android.util.Log;
+
+import java.io.PrintWriter;
+
+/**
+ * Vibrates and beeps for the {@link AlertEngine}'s alerts on the primary wheel.
+ *
+ * The alerts go off on the thread that raised them, the decode pool for a reading, with no
+ * hop through the UI thread or a broadcast: the vibration patterns are built once and the tone
+ * generator is opened once, so raising an alert costs the two calls to the system services.
+ * The time from the notification to those calls is recorded as
+ * {@link PipelineLatency.Stage#alert}.
+ *
+ * While the primary wheel is connected a watchdog thread checks the link every
+ * {@link #LINK_CHECK_INTERVAL_MS}, so a link that goes quiet is noticed long before the
+ * connection times out.
+ */
+public class RideAlerts implements AlertEngine.Listener {
+    private final static String TAG = "XtremeAlerts";
+
+    public static final long LINK_CHECK_INTERVAL_MS = 250;
+
+    // Vibration patterns, off and on times in ms, and tones, by AlertEngine.Alert ordinal
+    private static final long[][] PATTERNS = {
+            { 0, 120, 80, 120, 80, 120 },   // overspeed
+            { 0, 400, 200, 400 },           // lowBattery
+            { 0, 800 }                      // linkLost
+    };
+    private static final int[] TONES = {
+            ToneGenerator.TONE_PROP_BEEP2,
+            ToneGenerator.TONE_CDMA_LOW_L,
+            ToneGenerator.TONE_SUP_ERROR
+    };
+    private static final int TONE_DURATION_MS = 600;
+
+    private final AlertEngine mEngine = new AlertEngine(this);
+    private final Vibrator mVibrator;
+    private ToneGenerator mToneGenerator;
+    private final Handler mWatchdogHandler;
+    private volatile boolean mWatching;
+
+    private final Runnable mLinkCheckRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mWatching)
+                return;
+            mEngine.checkLink(System.nanoTime());
+            mWatchdogHandler.postDelayed(this, LINK_CHECK_INTERVAL_MS);
+        }
+    };
+
+    public RideAlerts(Context context) {
+        mVibrator = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
+        try {
+            mToneGenerator = new ToneGenerator(AudioManager.STREAM_ALARM, ToneGenerator.MAX_VOLUME);
+        } catch (RuntimeException e) {
+            // The audio system can refuse; the alerts still vibrate.
+            Log.w(TAG, "Unable to open a tone generator: " + e.getMessage());
+        }
+
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_FOREGROUND);
+        thread.start();
+        mWatchdogHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * The engine, for setting its thresholds.
+     */
+    public AlertEngine getEngine() {
+        return mEngine;
+    }
+
+    /**
+     * Evaluates a reading of the primary wheel.  Called from the decode pool for every frame.
+     *
+     * @param receivedNanos When the frame arrived.
+     */
+    public void onSample(double speedMPH, double percent, long receivedNanos) {
+        mEngine.onSample(speedMPH, percent, receivedNanos);
+    }
+
+    /**
+     * Starts watching the link, once the primary wheel is connected.
+     */
+    public void onConnected() {
+        if (mWatching)
+            return;
+        mWatching = true;
+        mWatchdogHandler.postDelayed(mLinkCheckRunnable, LINK_CHECK_INTERVAL_MS);
+    }
+
+    /**
+     * Stops watching the link.
+     *
+     * @param expected Whether the rider ended the ride or switched wheels, which clears the
+     *                 alerts, rather than the link dropping, which raises a lost link.
+     */
+    public void onDisconnected(boolean expected) {
+        mWatching = false;
+        mWatchdogHandler.removeCallbacks(mLinkCheckRunnable);
+        if (expected)
+            mEngine.reset(System.nanoTime());
+        else
+            mEngine.onLinkLost(System.nanoTime());
+    }
+
+    public void release() {
+        mWatching = false;
+        mWatchdogHandler.removeCallbacks(mLinkCheckRunnable);
+        mWatchdogHandler.getLooper().quit();
+        if (mToneGenerator != null) {
+            mToneGenerator.release();
+            mToneGenerator = null;
+        }
+    }
+
+    @Override
+    public void onAlert(AlertEngine.Alert alert, boolean raised, long sinceNanos) {
+        TraceRing.event(TraceRing.Event.alert, alert.ordinal(), raised ? 1 : 0);
+        if (!raised)
+            return;
+
+        if (mVibrator != null)
+            mVibrator.vibrate(PATTERNS[alert.ordinal()], -1);
+        ToneGenerator toneGenerator = mToneGenerator;
+        if (toneGenerator != null)
+            toneGenerator.startTone(TONES[alert.ordinal()], TONE_DURATION_MS);
+
+        // A lost link has no frame behind it; its time is when the watchdog noticed.
+        PipelineLatency.recordSince(alert == AlertEngine.Alert.linkLost
+                ? PipelineLatency.Stage.linkAlert : PipelineLatency.Stage.alert, sinceNanos);
+    }
+
+    public void dump(PrintWriter writer) {
+        mEngine.dump(writer);
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.StrictMode;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * The app settings stored in {@link DeviceScanActivity#SHARED_PREF_NAME}.
+ *
+ * Reads come from an in-memory snapshot.  Writes update the snapshot straight away and are
+ * written to disk on a background thread after {@link #WRITE_DELAY_MS}, so several changes in
+ * quick succession cost a single write.  Nothing here touches the disk or waits for it on the
+ * calling thread.
+ *
+ * The snapshot is loaded on the background thread, starting when {@link XtremeApplication}
+ * creates the store.  Until it has loaded the getters return the defaults, so a screen that
+ * needs the stored values reads them from {@link #whenLoaded}.  A value set before the load
+ * finishes is kept over the stored one.
+ */
+public class SettingsStore {
+    private final static String TAG = "XtremeSettings";
+
+    private static final long WRITE_DELAY_MS = 250;
+
+    private static SettingsStore sInstance;
+
+    private final Handler mWriteHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Owned by the write thread, once loaded
+    private SharedPreferences mPrefs;
+
+    // Snapshot, guarded by this
+    private boolean mLoaded;
+    private final ArrayList<Runnable> mLoadedCallbacks = new ArrayList<Runnable>();
+    private String mLastMacAddress = "";
+    private boolean mLastMacAddressSet;
+    private boolean mEulaAccepted;
+    private boolean mEulaAcceptedSet;
+    private boolean mDirty;
+    private int mWriteCount;
+    private int mCoalescedCount;
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            write();
+        }
+    };
+
+    public static synchronized SettingsStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SettingsStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * In debuggable builds, kills the app on any disk access made on the calling thread.  Called
+     * on the main thread before any Activity starts, so that a change that brings I/O back onto
+     * the connect or ride paths fails the first time it is run.
+     */
+    public static void enableStrictMode(Context context) {
+        if ((context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0)
+            return;
+
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .penaltyLog()
+                .penaltyDeath()
+                .build());
+    }
+
+    private SettingsStore(final Context context) {
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mWriteHandler = new Handler(thread.getLooper());
+
+        mWriteHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                load(context);
+            }
+        });
+    }
+
+    /**
+     * Runs {@code callback} on the main thread once the snapshot has loaded: straight away if it
+     * has, otherwise as soon as it does.  Call this from the main thread.
+     */
+    public void whenLoaded(Runnable callback) {
+        synchronized (this) {
+            if (!mLoaded) {
+                mLoadedCallbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    /**
+     * Cancels a callback passed to {@link #whenLoaded} that hasn't run yet, for a screen that is
+     * going away.
+     */
+    public void removeLoadedCallback(Runnable callback) {
+        synchronized (this) {
+            mLoadedCallbacks.remove(callback);
+        }
+        mMainHandler.removeCallbacks(callback);
+    }
+
+    public synchronized boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * @return The last wheel connected to, "" until the snapshot has loaded.
+     */
+    public synchronized String getLastMacAddress() {
+        return mLastMacAddress;
+    }
+
+    public synchronized void setLastMacAddress(String macAddress) {
+        mLastMacAddressSet = true;
+        if (macAddress.equals(mLastMacAddress))
+            return;
+        mLastMacAddress = macAddress;
+        scheduleWrite();
+    }
+
+    /**
+     * @return Whether the EULA was accepted, false until the snapshot has loaded.
+     */
+    public synchronized boolean getEulaAccepted() {
+        return mEulaAccepted;
+    }
+
+    public synchronized void setEulaAccepted(boolean accepted) {
+        mEulaAcceptedSet = true;
+        if (accepted == mEulaAccepted)
+            return;
+        mEulaAccepted = accepted;
+        scheduleWrite();
+    }
+
+    /**
+     * Writes any pending changes now and waits for them to reach the disk.  Meant for shutdown,
+     * as it blocks the caller.
+     */
+    public void flush() {
+        final CountDownLatch done = new CountDownLatch(1);
+
+        // Behind the load, if it is still queued, so the snapshot is complete.
+        mWriteHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mWriteHandler.removeCallbacks(mWriteRunnable);
+                write();
+                done.countDown();
+            }
+        });
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void load(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(DeviceScanActivity.SHARED_PREF_NAME, 0);
+        String lastMacAddress = prefs.getString(DeviceScanActivity.LAST_MAC_ADDRESS, "");
+        boolean eulaAccepted = prefs.getBoolean(SplashActivity.EULA_ACCEPTED_KEY, false);
+
+        ArrayList<Runnable> callbacks;
+        synchronized (this) {
+            mPrefs = prefs;
+            if (!mLastMacAddressSet)
+                mLastMacAddress = lastMacAddress;
+            if (!mEulaAcceptedSet)
+                mEulaAccepted = eulaAccepted;
+            mLoaded = true;
+            callbacks = new ArrayList<Runnable>(mLoadedCallbacks);
+            mLoadedCallbacks.clear();
+        }
+        for (Runnable callback : callbacks) {
+            mMainHandler.post(callback);
+        }
+    }
+
+    private void scheduleWrite() {
+        if (mDirty) {
+            mCoalescedCount++;
+        } else {
+            mDirty = true;
+            mWriteHandler.postDelayed(mWriteRunnable, WRITE_DELAY_MS);
+        }
+    }
+
+    private void write() {
+        String lastMacAddress;
+        boolean eulaAccepted;
+        synchronized (this) {
+            if (!mDirty)
+                return;
+            mDirty = false;
+            mWriteCount++;
+            lastMacAddress = mLastMacAddress;
+            eulaAccepted = mEulaAccepted;
+        }
+
+        SharedPreferences.Editor editor = mPrefs.edit();
+        editor.putString(DeviceScanActivity.LAST_MAC_ADDRESS, lastMacAddress);
+        editor.putBoolean(SplashActivity.EULA_ACCEPTED_KEY, eulaAccepted);
+        if (!editor.commit()) {
+            Log.e(TAG, "Unable to write settings");
+        }
+
+        Log.i(TAG, "Settings written: writes=" + mWriteCount + " coalesced=" + mCoalescedCount);
+    }
+}
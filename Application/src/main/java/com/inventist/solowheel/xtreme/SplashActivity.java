@@ -17,9 +17,11 @@
 package com.inventist.solowheel.xtreme;
 
 import android.app.Activity;
+import android.content.ComponentName;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.view.View;
 import android.widget.Button;
 import android.widget.RelativeLayout;
@@ -29,18 +31,65 @@ public class SplashActivity extends Activity {
 
     public static DeviceScanActivity deviceScanActivity;
 
+    private BluetoothLeService mBluetoothLeService;
+
+    // Starts the service while the splash is up, so the scan screen finds it already running.
+    private final ServiceConnection mServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName componentName, IBinder service) {
+            mBluetoothLeService = ((BluetoothLeService.LocalBinder) service).getService();
+            mBluetoothLeService.initialize();
+            StartupTimer.mark(StartupTimer.Milestone.serviceBound);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName componentName) {
+            mBluetoothLeService = null;
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTimer.mark(StartupTimer.Milestone.processStart);
+
         super.onCreate(savedInstanceState);
 
         setContentView(R.layout.activity_splash);
+        StartupTimer.markFirstFrameDrawn(this);
+
+        Intent gattServiceIntent = new Intent(this, BluetoothLeService.class);
+        bindService(gattServiceIntent, mServiceConnection, BIND_AUTO_CREATE);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        unbindService(mServiceConnection);
+        mBluetoothLeService = null;
+    }
+
+    // The EULA screen or the scan, once the settings are loaded
+    private final Runnable mSettingsLoaded = new Runnable() {
+        @Override
+        public void run() {
+            if (!isFinishing())
+                showEulaOrSkip();
+        }
+    };
+
     @Override
     protected void onResume() {
         super.onResume();
+        SettingsStore.getInstance(this).whenLoaded(mSettingsLoaded);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        SettingsStore.getInstance(this).removeLoadedCallback(mSettingsLoaded);
+    }
 
+    private void showEulaOrSkip() {
         if (getEualAccepted()) {
             skipEula();
         }
@@ -70,14 +119,10 @@ public class SplashActivity extends Activity {
     public final static String EULA_ACCEPTED_KEY = "eulaAccepted";
 
     public void setEualAccepted() {
-        SharedPreferences settings = getSharedPreferences(DeviceScanActivity.SHARED_PREF_NAME, 0);
-        SharedPreferences.Editor editor = settings.edit();
-        editor.putBoolean(EULA_ACCEPTED_KEY, true);
-        editor.commit();
+        SettingsStore.getInstance(this).setEulaAccepted(true);
     }
 
     public Boolean getEualAccepted() {
-        SharedPreferences settings = getSharedPreferences(DeviceScanActivity.SHARED_PREF_NAME, 0);
-        return settings.getBoolean(EULA_ACCEPTED_KEY, false);
+        return SettingsStore.getInstance(this).getEulaAccepted();
     }
 }
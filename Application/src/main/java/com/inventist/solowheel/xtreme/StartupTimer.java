@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+import android.app.Activity;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * Records the milestones of a cold start, from the process starting to the first telemetry
+ * frame on the gauges, which is the wait a rider sees every time the app is opened.
+ *
+ * Timestamps come from {@code SystemClock.elapsedRealtime()}, which is monotonic.  Only the
+ * first time each milestone is reached counts; the report is logged once the first telemetry
+ * arrives.
+ */
+public class StartupTimer {
+    private final static String TAG = "XtremeStartup";
+
+    public enum Milestone
+    {
+        processStart,
+        firstFrameDrawn,
+        serviceBound,
+        scanStarted,
+        connected,
+        firstTelemetry
+    }
+
+    private static final long[] sTimes = new long[Milestone.values().length];
+    private static String sConnectPath = "scan";
+
+    /**
+     * Records a milestone if it hasn't been reached yet.  Nothing is recorded unless the process
+     * start was seen, so warm starts don't produce a misleading report.
+     */
+    public static synchronized void mark(Milestone milestone) {
+        if (milestone != Milestone.processStart && sTimes[Milestone.processStart.ordinal()] == 0)
+            return;
+        if (sTimes[milestone.ordinal()] != 0)
+            return;
+
+        sTimes[milestone.ordinal()] = SystemClock.elapsedRealtime();
+
+        if (milestone == Milestone.firstTelemetry)
+            Log.i(TAG, getReport());
+    }
+
+    /**
+     * Records {@link Milestone#firstFrameDrawn} when the Activity's window is first drawn.
+     */
+    public static void markFirstFrameDrawn(Activity activity) {
+        final View decorView = activity.getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                mark(Milestone.firstFrameDrawn);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Records which path found the wheel first, "direct" or "scan".
+     */
+    public static synchronized void setConnectPath(String path) {
+        sConnectPath = path;
+    }
+
+    /**
+     * @return Each milestone reached, as time since process start and since the previous one.
+     */
+    public static synchronized String getReport() {
+        long start = sTimes[Milestone.processStart.ordinal()];
+        StringBuilder sb = new StringBuilder("Startup (connected via ").append(sConnectPath).append("):\n");
+
+        long previous = start;
+        for (Milestone milestone : Milestone.values()) {
+            long time = sTimes[milestone.ordinal()];
+            if (time == 0)
+                continue;
+
+            sb.append(milestone).append(": +").append(time - start)
+                    .append("ms (step ").append(time - previous).append("ms)\n");
+            previous = Math.max(previous, time);
+        }
+        return sb.toString();
+    }
+}
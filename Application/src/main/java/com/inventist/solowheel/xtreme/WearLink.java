@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the primary wheel's readings to the watch: one a second while the face is interactive,
+ * and only the changes that matter while it is in ambient mode or hidden, to save both radios.
+ *
+ * The Wearable client belongs to a thread of its own.  It is created on the first reading,
+ * connected, used and disconnected only there, so its blocking calls never hold up the decode
+ * pool or the main thread.  Readings are handed over through a single pending message; one
+ * that arrives while the last is still waiting replaces it.
+ */
+public class WearLink {
+    private final static String TAG = "XtremeWear";
+
+    private static final long WATCH_UPDATE_INTERVAL_MS = 1000;
+
+    // While the watch face is in ambient mode or hidden, the battery is only sent when it
+    // crosses one of these steps, and the speed when the wheel stops or starts.
+    private static final int WATCH_BATTERY_STEP = 5;
+
+    private static final long CONNECT_TIMEOUT_MS = 5000;
+
+    private final Context mContext;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    // The reading waiting for mSendRunnable and what the watch was last sent, guarded by
+    // mPending
+    private final WearMessage mPending = new WearMessage();
+    private long mPendingNanos;
+    private boolean mSendPending;
+    private long mLastUpdateTime;
+    private WatchState.Mode mLastMode = WatchState.Mode.interactive;
+    private int mLastBatteryStep = -1;
+    private boolean mLastMoving;
+
+    // Owned by mExecutor's thread
+    private GoogleApiClient mClient;
+    private final WearMessage mSending = new WearMessage();
+
+    private final Runnable mSendRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long decodedNanos;
+            synchronized (mPending) {
+                mSending.copyFrom(mPending);
+                decodedNanos = mPendingNanos;
+                mSendPending = false;
+            }
+
+            boolean traced = SystemTrace.beginSection("wearSend");
+            try {
+                if (send(mSending)) {
+                    PipelineLatency.recordSince(PipelineLatency.Stage.wearSend, decodedNanos);
+                    TraceRing.event(TraceRing.Event.wearSent, mSending.batteryPercent,
+                            mSending.speedTenths);
+                }
+            } finally {
+                SystemTrace.endSection(traced);
+            }
+        }
+    };
+
+    public WearLink(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Sends a reading if the watch needs it.  Called from the decode pool for every frame of the
+     * primary wheel.
+     */
+    public void onReading(double speedMPH, double percent, boolean mph) {
+        long now = System.currentTimeMillis();
+        WatchState.Mode mode = WatchState.getMode();
+        int batteryStep = (int) percent / WATCH_BATTERY_STEP;
+        boolean moving = speedMPH > 0;
+
+        boolean post;
+        synchronized (mPending) {
+            boolean send;
+            if (mode == WatchState.Mode.interactive) {
+                // Back to interactive, bring the watch up to date right away.
+                send = mLastMode != WatchState.Mode.interactive
+                        || now - mLastUpdateTime > WATCH_UPDATE_INTERVAL_MS;
+            } else {
+                send = batteryStep != mLastBatteryStep || moving != mLastMoving;
+            }
+            mLastMode = mode;
+            if (!send)
+                return;
+
+            mLastUpdateTime = now;
+            mLastBatteryStep = batteryStep;
+            mLastMoving = moving;
+            mPending.set((int) percent, WheelUnits.toDisplaySpeed(speedMPH, mph), mph);
+            mPendingNanos = System.nanoTime();
+            post = !mSendPending;
+            mSendPending = true;
+        }
+        if (post)
+            mExecutor.execute(mSendRunnable);
+    }
+
+    /**
+     * Clears the watch and lets the client go, at the end of a ride.  Returns straight away; the
+     * next reading starts a new client.
+     */
+    public void endRide(final boolean mph) {
+        synchronized (mPending) {
+            mLastMode = WatchState.Mode.interactive;
+            mLastBatteryStep = -1;
+            mLastMoving = false;
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Nothing was sent this ride.
+                if (mClient == null)
+                    return;
+
+                Log.i(TAG, "End of ride");
+                WearMessage cleared = new WearMessage();
+                cleared.set(0, 0, mph);
+                send(cleared);
+                if (mClient != null) {
+                    mClient.disconnect();
+                    mClient = null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Ends the ride, then stops the thread once it has.
+     */
+    public void release(boolean mph) {
+        endRide(mph);
+        mExecutor.shutdown();
+    }
+
+    // On mExecutor's thread
+    private boolean send(WearMessage message) {
+        GoogleApiClient client = connect();
+        if (client == null)
+            return false;
+
+        try {
+            byte[] data = message.toBytes();
+            NodeApi.GetConnectedNodesResult nodes = Wearable.NodeApi.getConnectedNodes(client).await();
+            for (Node node : nodes.getNodes()) {
+                Wearable.MessageApi.sendMessage(client, node.getId(), WearMessage.PATH, data).await();
+            }
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Unable to send to the watch: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // On mExecutor's thread
+    private GoogleApiClient connect() {
+        if (mClient == null) {
+            mClient = new GoogleApiClient.Builder(mContext)
+                    .addApi(Wearable.API)
+                    .build();
+        }
+        if (!mClient.isConnected()) {
+            ConnectionResult result = mClient.blockingConnect(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (!result.isSuccess()) {
+                Log.i(TAG, "Google API connection failed: " + result);
+                return null;
+            }
+            Log.i(TAG, "Google API client connected");
+        }
+        return mClient;
+    }
+}
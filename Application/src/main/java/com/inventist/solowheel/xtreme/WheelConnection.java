@@ -0,0 +1,598 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.os.Build;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The GATT connection to one wheel, with its own operation queue, connection policy, decoder
+ * state and health counters.
+ *
+ * Notifications arrive on a binder thread and are handed to the shared decode pool; the frames
+ * of one wheel are decoded in order, one at a time, so a wheel never holds more than one pool
+ * thread.  The latest reading and the counters can be read from any thread.
+ */
+public class WheelConnection {
+    private final static String TAG = "XtremeWheel";
+
+    public static final int STATE_DISCONNECTED = 0;
+    public static final int STATE_CONNECTING = 1;
+    public static final int STATE_CONNECTED = 2;
+
+    // Frames waiting beyond this are dropped, oldest first; the pool has fallen far behind.
+    private static final int FRAME_QUEUE_SIZE = 32;
+
+    // A notification's payload at the default MTU.  Slots grow for larger ones.
+    private static final int FRAME_SLOT_SIZE = 20;
+
+    private static final long RSSI_INTERVAL_MS = 5000;
+
+    // Frames in a row without a battery voltage before the firmware is taken to be unsupported,
+    // the registry's tolerance for a locked decoder that stops working
+    private static final int BAD_FIRMWARE_FRAMES = FrameDecoderRegistry.UNLOCK_FAILURES;
+
+    /**
+     * Receives the events of a connection.  Connection changes are reported on a binder thread,
+     * or the main thread for a wheel dropped for its firmware, and data on a decode pool thread.
+     */
+    public interface Listener {
+        void onConnected(WheelConnection wheel);
+
+        void onDisconnected(WheelConnection wheel, boolean wasConnected);
+
+        void onServicesDiscovered(WheelConnection wheel);
+
+        void onData(WheelConnection wheel, BluetoothLeService.connectionErrors error,
+                    boolean forward, double speedMPH, double percent, double batteryVolts);
+    }
+
+    private final Context mContext;
+    private final String mAddress;
+    private final Listener mListener;
+    private final GattLayoutCache mGattLayoutCache;
+    private final GattOperationQueue mGattQueue;
+    private final Handler mHandler;
+
+    private BluetoothGatt mBluetoothGatt;
+    private volatile int mConnectionState = STATE_DISCONNECTED;
+    private long mConnectedTime;
+    private boolean mAwaitingFirstNotification;
+    private boolean mLayoutCacheHit;
+
+    // Frames waiting for the decode pool
+    private final FrameQueue mFrameQueue;
+    private long mDecodeStart;
+    private long mFrameReceivedNanos;
+    private int mBadFirmwareFrames;
+    private volatile boolean mBadFirmware;
+
+    // Bumped each time the link comes up.  The decode thread resets its state when it sees a
+    // new value, so a record cut off by a dropped link isn't glued onto the next one.
+    private volatile int mLinkGeneration;
+    private int mDecodeGeneration;
+
+    // Used only by the decode pool thread draining this wheel's frames
+    private final FrameDecoderRegistry mDecoders = new FrameDecoderRegistry();
+    private final FrameDecoder.Sample mSample = new FrameDecoder.Sample();
+    private final FrameReassembler mReassembler = new FrameReassembler(
+            FrameReassembler.DEFAULT_CAPACITY, new FrameReassembler.Listener() {
+        @Override
+        public void onRecord(byte[] data, int offset, int length) {
+            decode(data, offset, length);
+        }
+
+        @Override
+        public void onDiscarded(int length) {
+            mLinkQuality.onMalformed(LinkQualityMonitor.MalformedReason.unterminated,
+                    SystemClock.elapsedRealtime());
+        }
+    });
+
+    // Latest reading and health, for the dashboard
+    private volatile double mSpeedMPH;
+    private volatile double mPercent;
+    private volatile long mLastFrameTime;
+    private volatile long mFrameCount;
+    private volatile long mDecodeCpuNanos;
+    private final LinkQualityMonitor mLinkQuality = new LinkQualityMonitor();
+    private final long mCreatedTime = SystemClock.elapsedRealtime();
+
+    private final ConnectionPolicy mConnectionPolicy = new ConnectionPolicy(new ConnectionPolicy.Transport() {
+        @Override
+        public void requestConnectionPriority(ConnectionPolicy.Priority priority) {
+            Log.i(TAG, mAddress + " connection priority: " + priority);
+
+            switch (priority) {
+                case high:
+                    WheelConnection.this.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+                    break;
+                case balanced:
+                    WheelConnection.this.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_BALANCED);
+                    break;
+                case lowPower:
+                    WheelConnection.this.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER);
+                    break;
+            }
+        }
+
+        @Override
+        public void requestMtu(int mtu) {
+            WheelConnection.this.requestMtu(mtu);
+        }
+    });
+
+    private final Runnable mRssiRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mBluetoothGatt == null || mConnectionState != STATE_CONNECTED)
+                return;
+            mGattQueue.readRemoteRssi();
+            mHandler.postDelayed(this, RSSI_INTERVAL_MS);
+        }
+    };
+
+    // Drops a wheel with unsupported firmware as though its link had gone down.  Posted to the
+    // main thread, where the GATT queue and the RSSI poll run.
+    private final Runnable mBadFirmwareRunnable = new Runnable() {
+        @Override
+        public void run() {
+            boolean wasConnected = mConnectionState == STATE_CONNECTED;
+            Log.w(TAG, "Unsupported firmware on " + mAddress + ", disconnecting");
+            disconnect();
+            close();
+            if (wasConnected)
+                onLinkDown();
+        }
+    };
+
+    // Implements callback methods for GATT events that the app cares about.  For example,
+    // connection change and services discovered.
+    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            boolean traced = SystemTrace.beginSection("onConnectionStateChange");
+            try {
+                if (mConnectionState == BluetoothProfile.STATE_CONNECTING &&
+                        newState == BluetoothProfile.STATE_CONNECTED)
+                {
+                    Log.i(TAG, "Connected to GATT server " + mAddress);
+
+                    mLinkGeneration++;
+                    mConnectionState = STATE_CONNECTED;
+                    mConnectedTime = SystemClock.elapsedRealtime();
+                    mAwaitingFirstNotification = true;
+                    mListener.onConnected(WheelConnection.this);
+
+                    // Attempts to discover services after successful connection.
+                    gatt.discoverServices();
+                }
+                else if (mConnectionState == BluetoothProfile.STATE_CONNECTED &&
+                        newState == BluetoothProfile.STATE_DISCONNECTED)
+                {
+                    Log.i(TAG, "Disconnected from GATT server " + mAddress);
+                    onLinkDown();
+                }
+                else if (mConnectionState == BluetoothProfile.STATE_CONNECTING &&
+                        newState == BluetoothProfile.STATE_DISCONNECTED)
+                {
+                    Log.i(TAG, "Connection attempt to " + mAddress + " failed: " + status);
+
+                    mConnectionState = STATE_DISCONNECTED;
+                    mGattQueue.clear();
+                    mListener.onDisconnected(WheelConnection.this, false);
+                }
+            } finally {
+                SystemTrace.endSection(traced);
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            boolean traced = SystemTrace.beginSection("onServicesDiscovered");
+            try {
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    Log.w(TAG, "GATT_SUCCESS");
+
+                    // Subscribe right here rather than waiting for the Activity to walk the services.
+                    GattLayoutCache.Lookup lookup = mGattLayoutCache.lookup(gatt);
+                    mLayoutCacheHit = lookup.cacheHit;
+                    if (lookup.dataPort != null) {
+                        // Even though this port supports read, we only need notify
+                        setCharacteristicNotification(lookup.dataPort, true);
+                        mConnectionPolicy.onConnected(SystemClock.elapsedRealtime());
+                        mHandler.removeCallbacks(mRssiRunnable);
+                        mHandler.postDelayed(mRssiRunnable, RSSI_INTERVAL_MS);
+                    } else {
+                        Log.w(TAG, "Solowheel data port not found");
+                    }
+
+                    mListener.onServicesDiscovered(WheelConnection.this);
+                } else {
+                    Log.w(TAG, "onServicesDiscovered received: " + status);
+                }
+            } finally {
+                SystemTrace.endSection(traced);
+            }
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt,
+                                         BluetoothGattCharacteristic characteristic,
+                                         int status) {
+            boolean traced = SystemTrace.beginSection("onCharacteristicRead");
+            try {
+                mGattQueue.complete(GattOperationQueue.OperationType.readCharacteristic,
+                        characteristic.getUuid(), status);
+
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    onFrame(characteristic.getValue(), System.nanoTime());
+                }
+            } finally {
+                SystemTrace.endSection(traced);
+            }
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt,
+                                      BluetoothGattDescriptor descriptor,
+                                      int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Log.w(TAG, "onDescriptorWrite received: " + status);
+            }
+            mGattQueue.complete(GattOperationQueue.OperationType.writeDescriptor,
+                    GattOperationQueue.getTarget(descriptor), status);
+        }
+
+        @Override
+        public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
+            mGattQueue.complete(GattOperationQueue.OperationType.readRemoteRssi, null, status);
+
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mLinkQuality.onRssi(rssi, SystemClock.elapsedRealtime());
+            }
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            Log.i(TAG, "onMtuChanged: " + mtu + " status: " + status);
+            mGattQueue.complete(GattOperationQueue.OperationType.requestMtu, null, status);
+            mConnectionPolicy.onMtuChanged(mtu, status == BluetoothGatt.GATT_SUCCESS);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt,
+                                            BluetoothGattCharacteristic characteristic) {
+            boolean traced = SystemTrace.beginSection("onCharacteristicChanged");
+            try {
+                long now = SystemClock.elapsedRealtime();
+                mConnectionPolicy.onNotification(now);
+
+                if (mAwaitingFirstNotification) {
+                    mAwaitingFirstNotification = false;
+                    mGattLayoutCache.recordFirstNotification(mLayoutCacheHit,
+                            now - mConnectedTime);
+                }
+                onFrame(characteristic.getValue(), System.nanoTime());
+            } finally {
+                SystemTrace.endSection(traced);
+            }
+        }
+    };
+
+    public WheelConnection(Context context, String address, Handler handler, Executor decodeExecutor,
+                           GattLayoutCache gattLayoutCache, Listener listener) {
+        mContext = context;
+        mAddress = address;
+        mListener = listener;
+        mFrameQueue = new FrameQueue(FRAME_QUEUE_SIZE, FRAME_SLOT_SIZE, decodeExecutor,
+                new FrameQueue.Sink() {
+            @Override
+            public void onFrame(byte[] data, int length, long receivedNanos) {
+                long start = Debug.threadCpuTimeNanos();
+                mDecodeStart = System.nanoTime();
+                mFrameReceivedNanos = receivedNanos;
+                int generation = mLinkGeneration;
+                if (generation != mDecodeGeneration) {
+                    mDecodeGeneration = generation;
+                    mReassembler.reset();
+                    mDecoders.reset();
+                    mBadFirmwareFrames = 0;
+                }
+                mReassembler.append(data, 0, length);
+                mDecodeCpuNanos += Debug.threadCpuTimeNanos() - start;
+            }
+        });
+        mGattLayoutCache = gattLayoutCache;
+        mHandler = handler;
+        mGattQueue = new GattOperationQueue(handler);
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public int getConnectionState() {
+        return mConnectionState;
+    }
+
+    public boolean isConnected() {
+        return mConnectionState == STATE_CONNECTED;
+    }
+
+    /**
+     * Connects to the wheel, reusing the existing {@code BluetoothGatt} if there is one.
+     *
+     * @return Return true if the connection is initiated successfully.
+     */
+    public boolean connect(BluetoothAdapter bluetoothAdapter) {
+        if (mConnectionState == STATE_CONNECTING) {
+            Log.d(TAG, "Connection already in progress.");
+            return true;
+        }
+
+        if (mBluetoothGatt != null) {
+            Log.d(TAG, "Trying to use an existing mBluetoothGatt for connection.");
+            if (mBluetoothGatt.connect()) {
+                mConnectionState = STATE_CONNECTING;
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        final BluetoothDevice device = bluetoothAdapter.getRemoteDevice(mAddress);
+        if (device == null) {
+            Log.w(TAG, "Device not found.  Unable to connect.");
+            return false;
+        }
+        // We want to directly connect to the device, so we are setting the autoConnect
+        // parameter to false.
+        mBluetoothGatt = device.connectGatt(mContext, false, mGattCallback);
+        mGattQueue.setBluetoothGatt(mBluetoothGatt);
+        Log.d(TAG, "Trying to create a new connection.");
+        mConnectionState = STATE_CONNECTING;
+        return true;
+    }
+
+    /**
+     * Disconnects an existing connection or cancel a pending connection.  The result is
+     * reported through {@link Listener#onDisconnected}.
+     */
+    public void disconnect() {
+        if (mBluetoothGatt == null) {
+            return;
+        }
+        mBluetoothGatt.disconnect();
+    }
+
+    /**
+     * Releases the {@code BluetoothGatt}.  No more events are reported for the connection.
+     */
+    public void close() {
+        if (mBluetoothGatt == null) {
+            return;
+        }
+        Log.i(TAG, "GATT operation latency for " + mAddress + ":\n" + mGattQueue.getLatencyReport());
+        mGattQueue.setBluetoothGatt(null);
+        mHandler.removeCallbacks(mRssiRunnable);
+        mBluetoothGatt.close();
+        mBluetoothGatt = null;
+        mConnectionState = STATE_DISCONNECTED;
+    }
+
+    public void readCharacteristic(BluetoothGattCharacteristic characteristic) {
+        if (mBluetoothGatt == null) {
+            Log.w(TAG, "Not connected");
+            return;
+        }
+        mGattQueue.readCharacteristic(characteristic);
+    }
+
+    public void setCharacteristicNotification(BluetoothGattCharacteristic characteristic,
+                                              boolean enabled) {
+        if (mBluetoothGatt == null) {
+            Log.w(TAG, "Not connected");
+            return;
+        }
+        if (!mGattQueue.setCharacteristicNotification(characteristic, enabled)) {
+            // No CCCD to write, the local registration is all we can do.
+            mBluetoothGatt.setCharacteristicNotification(characteristic, enabled);
+        }
+    }
+
+    public void requestMtu(int mtu) {
+        if (mBluetoothGatt == null) {
+            Log.w(TAG, "Not connected");
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= 21) {
+            mGattQueue.requestMtu(mtu);
+        }
+    }
+
+    public void requestConnectionPriority(int priority) {
+        if (mBluetoothGatt == null) {
+            Log.w(TAG, "Not connected");
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= 21) {
+            mGattQueue.requestConnectionPriority(priority);
+        }
+    }
+
+    public void setForeground(boolean foreground) {
+        mConnectionPolicy.setForeground(foreground, SystemClock.elapsedRealtime());
+    }
+
+    public void setScreenOn(boolean screenOn) {
+        mConnectionPolicy.setScreenOn(screenOn, SystemClock.elapsedRealtime());
+    }
+
+    public double getSpeedMPH() {
+        return mSpeedMPH;
+    }
+
+    public double getPercent() {
+        return mPercent;
+    }
+
+    /**
+     * @return The {@code SystemClock.elapsedRealtime()} of the last good frame, 0 if none yet.
+     */
+    public long getLastFrameTime() {
+        return mLastFrameTime;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return The {@code System.nanoTime()} the frame being decoded arrived.  Only meaningful
+     *         from {@link Listener#onData}.
+     */
+    long getFrameReceivedNanos() {
+        return mFrameReceivedNanos;
+    }
+
+    public long getRejectedCount() {
+        return mLinkQuality.getMalformedTotal();
+    }
+
+    /**
+     * Fills in the link quality over the last {@code seconds}.
+     */
+    public void getLinkQuality(int seconds, LinkQualityMonitor.Summary out) {
+        mLinkQuality.getSummary(SystemClock.elapsedRealtime(), seconds, out);
+    }
+
+    public String getLinkQualityReport() {
+        return mLinkQuality.getReport(SystemClock.elapsedRealtime(), LinkQualityMonitor.WINDOW_COUNT);
+    }
+
+    /**
+     * @return Decode CPU time as a percentage of one core, averaged since the connection was
+     *         created.
+     */
+    public double getCpuPercent() {
+        long elapsed = SystemClock.elapsedRealtime() - mCreatedTime;
+        return elapsed == 0 ? 0 : mDecodeCpuNanos / 10000.0 / elapsed;
+    }
+
+    /**
+     * Queues a frame for the decode pool.  Called with every notification, and by the simulated
+     * wheels.
+     *
+     * @param receivedNanos The {@code System.nanoTime()} the frame arrived.
+     */
+    void onFrame(byte[] value, long receivedNanos) {
+        if (value == null || value.length == 0)
+            return;
+
+        long now = SystemClock.elapsedRealtime();
+        mLinkQuality.onFrame(now);
+
+        // The characteristic's value is replaced by the next notification, so it's copied.
+        if (!mFrameQueue.offer(value, value.length, receivedNanos))
+            mLinkQuality.onMalformed(LinkQualityMonitor.MalformedReason.overflow, now);
+    }
+
+    /**
+     * @return true once the wheel has been dropped for sending no battery voltage.
+     */
+    public boolean hasBadFirmware() {
+        return mBadFirmware;
+    }
+
+    /**
+     * Marks a simulated wheel as connected, it has no GATT link.
+     */
+    void setSimulatedConnected(boolean connected) {
+        mConnectionState = connected ? STATE_CONNECTED : STATE_DISCONNECTED;
+    }
+
+    private void onLinkDown() {
+        mConnectionState = STATE_DISCONNECTED;
+        mGattQueue.clear();
+        mHandler.removeCallbacks(mRssiRunnable);
+        mConnectionPolicy.onDisconnected();
+        mLinkQuality.onDisconnected();
+        Log.i(TAG, "Connection policy:\n" + mConnectionPolicy.getReport());
+        Log.i(TAG, "Link quality: " + getLinkQualityReport());
+        mListener.onDisconnected(this, true);
+    }
+
+    private void decode(byte[] data, int offset, int length) {
+        long now = SystemClock.elapsedRealtime();
+        LinkQualityMonitor.MalformedReason reason =
+                mDecoders.decode(data, offset, length, mSample);
+        if (reason != null) {
+            mLinkQuality.onMalformed(reason, now);
+            TraceRing.event(TraceRing.Event.frameMalformed, reason.ordinal(), 0);
+        } else {
+            TraceRing.event(TraceRing.Event.frameDecoded, mSample.speedCmPerSecond,
+                    mSample.batteryDecivolts);
+        }
+
+        if (reason == LinkQualityMonitor.MalformedReason.badFirmware) {
+            // A glitch can zero the battery field of a frame or two; only a wheel that never
+            // sends a voltage is dropped.
+            if (++mBadFirmwareFrames == BAD_FIRMWARE_FRAMES) {
+                mBadFirmware = true;
+                mListener.onData(this, BluetoothLeService.connectionErrors.badFirmware, true, 0, 0, 0);
+                mHandler.post(mBadFirmwareRunnable);
+            }
+            return;
+        }
+        if (reason != null && reason != LinkQualityMonitor.MalformedReason.badValue)
+            return;
+        mBadFirmwareFrames = 0;
+
+        double speedMPH = WheelUnits.toMPH(mSample.speedCmPerSecond);
+        double batteryVolts = mSample.batteryDecivolts / 10.0;
+        double percent = WheelUnits.toPercent(batteryVolts);
+
+        mSpeedMPH = speedMPH;
+        mPercent = percent;
+        mLastFrameTime = now;
+        mFrameCount++;
+
+        mConnectionPolicy.onSpeed(speedMPH, mLastFrameTime);
+        PipelineLatency.recordSince(PipelineLatency.Stage.decode, mDecodeStart);
+        boolean traced = SystemTrace.beginSection("dispatch");
+        try {
+            mListener.onData(this, BluetoothLeService.connectionErrors.noErrors,
+                    mSample.direction == FrameDecoder.Sample.FORWARD, speedMPH, percent, batteryVolts);
+        } finally {
+            SystemTrace.endSection(traced);
+        }
+    }
+}
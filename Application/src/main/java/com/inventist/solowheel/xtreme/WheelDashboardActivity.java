@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+import android.app.ListActivity;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.pm.ApplicationInfo;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Lists the live speed and battery of every connected wheel, for group rides and demo days
+ * where one tablet watches several Xtremes.  Scanning connects every Xtreme it finds, up to
+ * {@link BluetoothLeService#MAX_WHEELS}.
+ *
+ * The wheels are polled from the service every {@link #REFRESH_INTERVAL} ms rather than
+ * broadcast, so the cost of the screen doesn't grow with the number of wheels times their
+ * notification rate.
+ */
+public class WheelDashboardActivity extends ListActivity {
+    private final static String TAG = "XtremeDashboard";
+
+    private static final long REFRESH_INTERVAL = 500;
+
+    // A wheel that hasn't sent a frame for this long is shown as stale.
+    private static final long STALE_MS = 2000;
+
+    // Span of the link quality shown for each wheel
+    private static final int LINK_QUALITY_SECONDS = 10;
+
+    private final Handler mHandler = new Handler();
+    private BluetoothLeService mBluetoothLeService;
+    private BluetoothAdapter mBluetoothAdapter;
+    private XtremeScanner mScanner;
+    private WheelSimulator mSimulator;
+    private WheelListAdapter mWheelListAdapter;
+    private boolean mDebuggable;
+
+    private final ServiceConnection mServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName componentName, IBinder service) {
+            Log.i(TAG, "Dashboard onServiceConnected");
+
+            mBluetoothLeService = ((BluetoothLeService.LocalBinder) service).getService();
+            if (!mBluetoothLeService.initialize()) {
+                Log.e(TAG, "Unable to initialize Bluetooth");
+                finish();
+                return;
+            }
+            mSimulator = new WheelSimulator(mBluetoothLeService);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName componentName) {
+            Log.i(TAG, "Dashboard onServiceDisconnected");
+            mBluetoothLeService = null;
+        }
+    };
+
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mBluetoothLeService != null)
+                mWheelListAdapter.setWheels(mBluetoothLeService.getWheels());
+            mHandler.postDelayed(this, REFRESH_INTERVAL);
+        }
+    };
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        getActionBar().setTitle(R.string.title_dashboard);
+
+        mDebuggable = (getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+
+        final BluetoothManager bluetoothManager =
+                (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
+        mBluetoothAdapter = bluetoothManager.getAdapter();
+
+        mScanner = new XtremeScanner(mBluetoothAdapter, new XtremeScanner.Listener() {
+            @Override
+            public void onDeviceFound(BluetoothDevice device, int rssi) {
+                if (mBluetoothLeService != null
+                        && XtremeScanner.XTREME_DEVICE_NAME.equals(device.getName())) {
+                    mBluetoothLeService.connectWheel(device.getAddress());
+                }
+            }
+
+            @Override
+            public void onScanStopped() {
+                invalidateOptionsMenu();
+            }
+        });
+
+        mWheelListAdapter = new WheelListAdapter();
+        setListAdapter(mWheelListAdapter);
+
+        Intent gattServiceIntent = new Intent(this, BluetoothLeService.class);
+        bindService(gattServiceIntent, mServiceConnection, BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mHandler.post(mRefreshRunnable);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mHandler.removeCallbacks(mRefreshRunnable);
+        mScanner.stop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        if (mSimulator != null)
+            mSimulator.stop();
+        unbindService(mServiceConnection);
+        mBluetoothLeService = null;
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.dashboard, menu);
+        menu.findItem(R.id.menu_scan).setVisible(!mScanner.isScanning());
+        menu.findItem(R.id.menu_stop).setVisible(mScanner.isScanning());
+        menu.findItem(R.id.menu_simulate).setVisible(mDebuggable);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.menu_scan:
+                mScanner.start();
+                break;
+            case R.id.menu_stop:
+                mScanner.stop();
+                break;
+            case R.id.menu_simulate:
+                if (mSimulator == null)
+                    break;
+                if (mSimulator.isRunning())
+                    mSimulator.stop();
+                else
+                    mSimulator.start(BluetoothLeService.MAX_WHEELS);
+                break;
+        }
+        invalidateOptionsMenu();
+        return true;
+    }
+
+    @Override
+    protected void onListItemClick(ListView l, View v, int position, long id) {
+        WheelConnection wheel = mWheelListAdapter.getWheel(position);
+        if (wheel == null || !BluetoothAdapter.checkBluetoothAddress(wheel.getAddress()))
+            return;
+
+        final Intent intent = new Intent(this, XtremeGaugesActivity.class);
+        intent.putExtra(XtremeGaugesActivity.EXTRAS_DEVICE_ADDRESS, wheel.getAddress());
+        startActivity(intent);
+    }
+
+    static class ViewHolder {
+        TextView wheelAddress;
+        TextView wheelReading;
+        TextView wheelHealth;
+    }
+
+    private class WheelListAdapter extends BaseAdapter {
+        private final ArrayList<WheelConnection> mWheels = new ArrayList<WheelConnection>();
+        private final LayoutInflater mInflator = getLayoutInflater();
+        private final boolean mUseMph;
+        private final LinkQualityMonitor.Summary mLinkQuality = new LinkQualityMonitor.Summary();
+
+        public WheelListAdapter() {
+            Locale loc = getResources().getConfiguration().locale;
+            mUseMph = WheelUnits.usesMph(loc.getISO3Country());
+        }
+
+        public void setWheels(List<WheelConnection> wheels) {
+            mWheels.clear();
+            mWheels.addAll(wheels);
+            notifyDataSetChanged();
+        }
+
+        public WheelConnection getWheel(int position) {
+            return (mWheels.size() > position ? mWheels.get(position) : null);
+        }
+
+        @Override
+        public int getCount() {
+            return mWheels.size();
+        }
+
+        @Override
+        public Object getItem(int i) {
+            return mWheels.get(i);
+        }
+
+        @Override
+        public long getItemId(int i) {
+            return i;
+        }
+
+        @Override
+        public View getView(int i, View view, ViewGroup viewGroup) {
+            ViewHolder viewHolder;
+            // General ListView optimization code.
+            if (view == null) {
+                view = mInflator.inflate(R.layout.listitem_device, null);
+                viewHolder = new ViewHolder();
+                viewHolder.wheelAddress = (TextView) view.findViewById(R.id.device_name);
+                viewHolder.wheelReading = (TextView) view.findViewById(R.id.device_address);
+                viewHolder.wheelHealth = (TextView) view.findViewById(R.id.device_rssi);
+                view.setTag(viewHolder);
+            } else {
+                viewHolder = (ViewHolder) view.getTag();
+            }
+
+            WheelConnection wheel = mWheels.get(i);
+            viewHolder.wheelAddress.setText(wheel.getAddress());
+
+            long lastFrame = wheel.getLastFrameTime();
+            if (!wheel.isConnected()) {
+                viewHolder.wheelReading.setText(R.string.disconnected);
+            } else if (lastFrame == 0 || SystemClock.elapsedRealtime() - lastFrame > STALE_MS) {
+                viewHolder.wheelReading.setText(R.string.no_data);
+            } else {
+                double speed = WheelUnits.toDisplaySpeed(wheel.getSpeedMPH(), mUseMph);
+                viewHolder.wheelReading.setText(getString(R.string.ride_notification_text,
+                        (int) wheel.getPercent(), speed, WheelUnits.getSpeedUnits(mUseMph)));
+            }
+
+            if (mDebuggable) {
+                wheel.getLinkQuality(LINK_QUALITY_SECONDS, mLinkQuality);
+                viewHolder.wheelHealth.setText(String.format(Locale.US,
+                        "%.1f fps, %.1f%% bad, %d gaps, %s, cpu %.2f%%",
+                        mLinkQuality.framesPerSecond, mLinkQuality.malformedRatio * 100,
+                        mLinkQuality.gaps, mLinkQuality.hasRssi ? mLinkQuality.rssi + " dBm" : "no rssi",
+                        wheel.getCpuPercent()));
+            } else {
+                viewHolder.wheelHealth.setText(null);
+            }
+
+            return view;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Simulated wheels for load testing the dashboard in debug builds.  Each one sends frames in
+ * the Xtreme's format, at the Xtreme's rate, through the same decode pool as a real wheel's
+ * notifications, so the per-wheel CPU figures on the dashboard apply to real wheels too.
+ */
+public class WheelSimulator {
+    private final static String TAG = "XtremeSimulator";
+
+    // The Xtreme notifies about ten times a second.
+    private static final long FRAME_INTERVAL_MS = 100;
+
+    private final BluetoothLeService mService;
+    private final Handler mHandler = new Handler();
+    private final ArrayList<WheelConnection> mWheels = new ArrayList<WheelConnection>();
+    private int mTick;
+
+    private final Runnable mFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            for (int i = 0; i < mWheels.size(); i++) {
+                mWheels.get(i).onFrame(makeFrame(i, mTick), System.nanoTime());
+            }
+            mTick++;
+            mHandler.postDelayed(this, FRAME_INTERVAL_MS);
+        }
+    };
+
+    public WheelSimulator(BluetoothLeService service) {
+        mService = service;
+    }
+
+    public boolean isRunning() {
+        return !mWheels.isEmpty();
+    }
+
+    /**
+     * Adds {@code count} simulated wheels, as many as there is room for.
+     */
+    public void start(int count) {
+        if (isRunning())
+            return;
+
+        for (int i = 0; i < count; i++) {
+            WheelConnection wheel = mService.addSimulatedWheel(String.format(Locale.US, "SIM-%02d", i + 1));
+            if (wheel == null)
+                break;
+            mWheels.add(wheel);
+        }
+
+        Log.i(TAG, "Simulating " + mWheels.size() + " wheels");
+        mTick = 0;
+        mHandler.post(mFrameRunnable);
+    }
+
+    public void stop() {
+        if (!isRunning())
+            return;
+
+        mHandler.removeCallbacks(mFrameRunnable);
+        Log.i(TAG, getReport());
+
+        for (WheelConnection wheel : mWheels) {
+            mService.removeWheel(wheel.getAddress());
+        }
+        mWheels.clear();
+    }
+
+    /**
+     * @return The frames decoded and decode CPU of every simulated wheel.
+     */
+    public String getReport() {
+        StringBuilder sb = new StringBuilder();
+        double total = 0;
+        for (WheelConnection wheel : mWheels) {
+            total += wheel.getCpuPercent();
+            sb.append(wheel.getAddress()).append(": frames=").append(wheel.getFrameCount())
+                    .append(String.format(Locale.US, " cpu=%.3f%%", wheel.getCpuPercent()))
+                    .append('\n');
+        }
+        sb.append(String.format(Locale.US, "%d wheels, cpu=%.3f%% total", mWheels.size(), total));
+        return sb.toString();
+    }
+
+    // Speed in cm/s, battery in tenths of a volt and direction, like the real thing.  Each
+    // wheel rides its own speed curve and drains slowly.
+    private static byte[] makeFrame(int wheel, int tick) {
+        int speed = (int) (400 + 300 * Math.sin((tick + wheel * 13) / 50.0));
+        int volts = 575 - ((tick / 100 + wheel * 7) % 100);
+        return String.format(Locale.US, "%05d,%05d,%05d", speed, volts, 1).getBytes();
+    }
+}
@@ -18,15 +18,12 @@ package com.inventist.solowheel.xtreme;
 
 import android.app.ActionBar;
 import android.app.Activity;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattService;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.ServiceConnection;
-import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.util.Log;
@@ -37,9 +34,6 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import java.text.DecimalFormat;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Locale;
 
 /**
@@ -57,14 +51,18 @@ public class XtremeGaugesActivity extends Activity {
     private String mDeviceName;
     private String mDeviceAddress;
     private BluetoothLeService mBluetoothLeService;
-    private ArrayList<ArrayList<BluetoothGattCharacteristic>> mGattCharacteristics = new ArrayList<>();
     private boolean mConnected = false;
-    private BluetoothGattCharacteristic mNotifyCharacteristic;
 
-    private final String LIST_NAME = "NAME";
-    private final String LIST_UUID = "UUID";
+    private double previousVoltage = 0d;
 
-    private Double previousVoltage = 0d;
+    // Looked up once, rather than with every reading
+    private BatteryGauge mBatteryGauge;
+    private TextView mSpeedView;
+    private boolean mUseMph;
+
+    // The speed on display, in tenths, and its text
+    private int mShownSpeedTenths = -1;
+    private final char[] mSpeedText = new char[16];
     private long mLastMessageReceived;
     private Thread mWatchDogThread;
     private boolean mKeepWatchDogTimer = true;
@@ -81,6 +79,10 @@ public class XtremeGaugesActivity extends Activity {
                 Log.e(TAG, "Unable to initialize Bluetooth");
                 finish();
             }
+            // The service binds after onResume the first time around.
+            mBluetoothLeService.setGaugesForeground(true);
+            mBluetoothLeService.setTelemetryConsumer(mTelemetryConsumer);
+
             // Automatically connects to the device upon successful start-up initialization.
             mBluetoothLeService.connect(mDeviceAddress);
         }
@@ -95,9 +97,8 @@ public class XtremeGaugesActivity extends Activity {
     // Handles various events fired by the Service.
     // ACTION_GATT_CONNECTED: connected to a GATT server.
     // ACTION_GATT_DISCONNECTED: disconnected from a GATT server.
-    // ACTION_GATT_SERVICES_DISCOVERED: discovered GATT services.
-    // ACTION_DATA_AVAILABLE: received data from the device.  This can be a result of read
-    //                        or notification operations.
+    // ACTION_DATA_AVAILABLE: the wheel's firmware is unsupported.  Readings arrive through
+    //                        mTelemetryConsumer instead.
     private final BroadcastReceiver mGattUpdateReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -115,37 +116,41 @@ public class XtremeGaugesActivity extends Activity {
 
                 finish(); // return to scanning activity
 
-            } else if (BluetoothLeService.ACTION_GATT_SERVICES_DISCOVERED.equals(action)) {
-                // Show all the supported services and characteristics on the user interface.
-                displayGattServices(mBluetoothLeService.getSupportedGattServices());
-
             } else if (BluetoothLeService.ACTION_DATA_AVAILABLE.equals(action)) {
-                mLastMessageReceived = System.currentTimeMillis();
-
-                //displayData(intent.getStringExtra(BluetoothLeService.EXTRA_DATA));
-
-                Double chargePercent = intent.getDoubleExtra(BluetoothLeService.EXTRA_DATA_CHARGE_PERCENT, 0);
-                Double chargeVolts = intent.getDoubleExtra(BluetoothLeService.EXTRA_DATA_CHARGE_VOLTS, 0);
-                Boolean direction = intent.getBooleanExtra(BluetoothLeService.EXTRA_DATA_DIRECTION, true);
-                Double speed = intent.getDoubleExtra(BluetoothLeService.EXTRA_DATA_SPEED, 0);
                 Boolean badFirmware = intent.getBooleanExtra(BluetoothLeService.EXTRA_DATA_BAD_FIRMWARE, false);
 
                 if (badFirmware)
                 {
                     Toast.makeText(getApplicationContext(), R.string.bad_firmware, Toast.LENGTH_LONG).show();
-                    SharedPreferences settings = getSharedPreferences(DeviceScanActivity.SHARED_PREF_NAME, 0);
-                    SharedPreferences.Editor editor = settings.edit();
-                    editor.putString(DeviceScanActivity.LAST_MAC_ADDRESS, "");
-                    editor.commit();
+                    SettingsStore.getInstance(XtremeGaugesActivity.this).setLastMacAddress("");
 
                     finish();
                 }
-                else
-                    displayData(chargePercent, chargeVolts, speed, direction);
             }
         }
     };
 
+    // The newest reading, once the UI thread is free; readings in between are skipped.
+    private final TelemetrySlot.Consumer mTelemetryConsumer = new TelemetrySlot.Consumer() {
+        @Override
+        public void onSample(TelemetrySlot.Sample sample) {
+            mLastMessageReceived = System.currentTimeMillis();
+
+            if (sample.decodedNanos != 0)
+                PipelineLatency.recordSince(PipelineLatency.Stage.dispatch, sample.decodedNanos);
+
+            long displayStart = System.nanoTime();
+            boolean traced = SystemTrace.beginSection("displayData");
+            try {
+                displayData(sample.percent, sample.batteryVolts, sample.speedMPH, sample.forward);
+            } finally {
+                SystemTrace.endSection(traced);
+            }
+            PipelineLatency.recordSince(PipelineLatency.Stage.display, displayStart);
+            StartupTimer.mark(StartupTimer.Milestone.firstTelemetry);
+        }
+    };
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         Log.i(TAG, "Gauges onCreate");
@@ -153,6 +158,12 @@ public class XtremeGaugesActivity extends Activity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_gauges);
 
+        Locale loc = getResources().getConfiguration().locale;
+        mUseMph = WheelUnits.usesMph(loc.getISO3Country());
+        mBatteryGauge = (BatteryGauge) findViewById(R.id.reading1);
+        mSpeedView = (TextView) findViewById(R.id.tvSpeed);
+        ((TextView) findViewById(R.id.tvSpeedUnits)).setText(WheelUnits.getSpeedUnits(mUseMph));
+
         final Intent intent = getIntent();
         mDeviceName = intent.getStringExtra(EXTRAS_DEVICE_NAME);
         mDeviceAddress = intent.getStringExtra(EXTRAS_DEVICE_ADDRESS);
@@ -162,6 +173,15 @@ public class XtremeGaugesActivity extends Activity {
             actionBar.setTitle(mDeviceAddress);
             actionBar.setDisplayHomeAsUpEnabled(true);
         }
+        // Hidden: a long press on the battery gauge shows the pipeline latency.
+        mBatteryGauge.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                startActivity(new Intent(XtremeGaugesActivity.this, LatencyActivity.class));
+                return true;
+            }
+        });
+
         Intent gattServiceIntent = new Intent(this, BluetoothLeService.class);
         bindService(gattServiceIntent, mServiceConnection, BIND_AUTO_CREATE);
 
@@ -218,6 +238,9 @@ public class XtremeGaugesActivity extends Activity {
     protected void onResume() {
         Log.i(TAG, "Gauges onResume");
         super.onResume();
+
+        if (mBluetoothLeService != null)
+            mBluetoothLeService.setGaugesForeground(true);
 //        registerReceiver(mGattUpdateReceiver, makeGattUpdateIntentFilter());
 //        if (mBluetoothLeService != null) {
 //            final boolean result = mBluetoothLeService.connect(mDeviceAddress);
@@ -231,6 +254,9 @@ public class XtremeGaugesActivity extends Activity {
 
         super.onPause();
 
+        if (mBluetoothLeService != null)
+            mBluetoothLeService.setGaugesForeground(false);
+
 //        unregisterReceiver(mGattUpdateReceiver);
     }
 
@@ -240,7 +266,11 @@ public class XtremeGaugesActivity extends Activity {
 
         super.onDestroy();
 
-        mBluetoothLeService.disconnect();
+        // Leaving the gauges ends the ride, but a rotation or recreation keeps the link up.
+        if (isFinishing() && mBluetoothLeService != null)
+            mBluetoothLeService.disconnect();
+        if (mBluetoothLeService != null)
+            mBluetoothLeService.setTelemetryConsumer(null);
 
         unregisterReceiver(mGattUpdateReceiver);
 
@@ -282,18 +312,12 @@ public class XtremeGaugesActivity extends Activity {
                 mBluetoothLeService.disconnect();
 
                 // if the user hits disconnect, then clear the mac address.
-//                SharedPreferences settings = getSharedPreferences(DeviceScanActivity.SHARED_PREF_NAME, 0);
-//                SharedPreferences.Editor editor = settings.edit();
-//                editor.putString(DeviceScanActivity.LAST_MAC_ADDRESS, "");
-//                editor.commit();
+//                SettingsStore.getInstance(this).setLastMacAddress("");
                 return true;
 
             case android.R.id.home:
                 // if the user hits disconnect, then clear the mac address.
-                SharedPreferences settings = getSharedPreferences(DeviceScanActivity.SHARED_PREF_NAME, 0);
-                SharedPreferences.Editor editor = settings.edit();
-                editor.putString(DeviceScanActivity.LAST_MAC_ADDRESS, "");
-                editor.commit();
+                SettingsStore.getInstance(this).setLastMacAddress("");
 
                // clearMacAddress(mDeviceAddress);
                 onBackPressed();
@@ -311,99 +335,40 @@ public class XtremeGaugesActivity extends Activity {
         });
     }
 
-    private void displayData(final Double chargePercent, final Double chargeVolts, final Double speed, final boolean forward) {
-
-        if ((chargePercent != null) && (speed != null)){
-            BatteryGauge f = (BatteryGauge) findViewById(R.id.reading1);
-            f.setFullPercent(chargePercent.intValue());
-
-            Locale loc = this.getResources().getConfiguration().locale;
-            boolean useMph = (loc.getISO3Country().equalsIgnoreCase("usa") || loc.getISO3Country().equalsIgnoreCase("mmr"));
-
-            TextView tvSpeed = (TextView) findViewById(R.id.tvSpeed);
-            TextView tvSpeedUnits = (TextView) findViewById(R.id.tvSpeedUnits);
+    // Called with every reading, so it neither boxes nor formats strings.
+    private void displayData(double chargePercent, double chargeVolts, double speed, boolean forward) {
+        mBatteryGauge.setFullPercent((int) chargePercent);
 
-            //String formattedSpeed;
-            if (useMph) {
-                tvSpeed.setText(String.format("%.1f", speed));
-                tvSpeedUnits.setText("MPH");
-            }
-            else {
-                tvSpeed.setText(String.format("%.1f", speed * 1.6));
-                tvSpeedUnits.setText("KPH");
-            }
-
-            previousVoltage = chargeVolts;
+        int speedTenths = (int) Math.round(WheelUnits.toDisplaySpeed(speed, mUseMph) * 10);
+        if (speedTenths != mShownSpeedTenths) {
+            mShownSpeedTenths = speedTenths;
+            mSpeedView.setText(mSpeedText, 0, formatTenths(speedTenths, mSpeedText));
         }
-    }
 
+        previousVoltage = chargeVolts;
+    }
 
-    private void displayGattServices(List<BluetoothGattService> gattServices) {
-        if (gattServices == null) return;
-        String uuidService;
-        String uuidCharacteristic;
-        String unknownServiceString = getResources().getString(R.string.unknown_service);
-        String unknownCharaString = getResources().getString(R.string.unknown_characteristic);
-        ArrayList<HashMap<String, String>> gattServiceData = new ArrayList<HashMap<String, String>>();
-        ArrayList<ArrayList<HashMap<String, String>>> gattCharacteristicData
-                = new ArrayList<ArrayList<HashMap<String, String>>>();
-        mGattCharacteristics = new ArrayList<>();
-
-        // Loops through available GATT Services.
-        for (BluetoothGattService gattService : gattServices) {
-            HashMap<String, String> currentServiceData = new HashMap<String, String>();
-            uuidService = gattService.getUuid().toString();
-
-            // for Solowheel, the only service we care about is the one with the serial port
-            String SOLOWHEEL_UUID = "0000fff0-0000-1000-8000-00805f9b34fb";
-            if (uuidService.equals(SOLOWHEEL_UUID)) {
-
-                currentServiceData.put(LIST_NAME, unknownServiceString);
-                currentServiceData.put(LIST_UUID, uuidService);
-                gattServiceData.add(currentServiceData);
-
-                ArrayList<HashMap<String, String>> gattCharacteristicGroupData = new ArrayList<>();
-                List<BluetoothGattCharacteristic> gattCharacteristics =
-                        gattService.getCharacteristics();
-                ArrayList<BluetoothGattCharacteristic> charas = new ArrayList<>();
-
-                // Loops through available Characteristics.
-                for (BluetoothGattCharacteristic gattCharacteristic : gattCharacteristics) {
-                    charas.add(gattCharacteristic);
-                    HashMap<String, String> currentCharaData = new HashMap<String, String>();
-                    uuidCharacteristic = gattCharacteristic.getUuid().toString();
-                    currentCharaData.put(LIST_NAME, unknownCharaString);
-                    currentCharaData.put(LIST_UUID, uuidCharacteristic);
-                    gattCharacteristicGroupData.add(currentCharaData);
-
-                    // for Solowheel, the only characteristic we care about is the serial port
-                    String SOLOWHEEL_DATAPORT = "0000fff7-0000-1000-8000-00805f9b34fb";
-                    if (uuidCharacteristic.equals(SOLOWHEEL_DATAPORT)) {
-
-                        if (mGattCharacteristics != null) {
-
-                            final int charaProp = gattCharacteristic.getProperties();
-
-                            // Even though this port supports read, we only need notify
-                            if ((charaProp | BluetoothGattCharacteristic.PROPERTY_NOTIFY) > 0) {
-                                mNotifyCharacteristic = gattCharacteristic;
-                                mBluetoothLeService.setCharacteristicNotification(
-                                        gattCharacteristic, true);
-                            }
-                        }
-                    }
-                }
-                mGattCharacteristics.add(charas);
-                gattCharacteristicData.add(gattCharacteristicGroupData);
-            }
+    // Writes a non-negative number of tenths with one decimal, for example "12.5".
+    private static int formatTenths(int tenths, char[] out) {
+        int whole = tenths / 10;
+        int length = 1;
+        for (int i = whole; i >= 10; i /= 10) {
+            length++;
         }
+        for (int i = length - 1; i >= 0; i--) {
+            out[i] = (char) ('0' + whole % 10);
+            whole /= 10;
+        }
+        out[length++] = '.';
+        out[length++] = (char) ('0' + tenths % 10);
+        return length;
     }
 
+
     private static IntentFilter makeGattUpdateIntentFilter() {
         final IntentFilter intentFilter = new IntentFilter();
         intentFilter.addAction(BluetoothLeService.ACTION_GATT_CONNECTED);
         intentFilter.addAction(BluetoothLeService.ACTION_GATT_DISCONNECTED);
-        intentFilter.addAction(BluetoothLeService.ACTION_GATT_SERVICES_DISCOVERED);
         intentFilter.addAction(BluetoothLeService.ACTION_DATA_AVAILABLE);
         return intentFilter;
     }
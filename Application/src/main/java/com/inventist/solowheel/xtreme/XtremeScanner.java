@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Build;
+import android.os.Handler;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scans for Xtremes.
+ *
+ * On Android 5.0 and above the name and service filters are handed to the controller, so the
+ * app only wakes up for wheels, and results are batched where the controller supports it.
+ * The scan starts in low latency mode to find a nearby wheel quickly, then steps down to
+ * balanced and finally low power duty cycles, and stops after {@link #SCAN_PERIOD}.
+ *
+ * Found devices are reported on the thread that created the scanner.
+ */
+@TargetApi(21)
+public class XtremeScanner {
+    private final static String TAG = "XtremeScan";
+
+    public final static String XTREME_DEVICE_NAME = "EXTREME";
+
+    // Stops scanning after 5 minutes.
+    public static final long SCAN_PERIOD = 5 * 60 * 1000;
+
+    // Duty cycle steps, from the start of the scan
+    private static final long LOW_LATENCY_PERIOD = 10 * 1000;
+    private static final long BALANCED_PERIOD = 60 * 1000;
+
+    // Report delay for batched results once past the low latency step
+    private static final long BATCH_REPORT_DELAY = 2000;
+
+    public interface Listener {
+        void onDeviceFound(BluetoothDevice device, int rssi);
+
+        void onScanStopped();
+    }
+
+    private final BluetoothAdapter mBluetoothAdapter;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler();
+
+    private BluetoothAdapter.LeScanCallback mLeScanCallback;
+    private BluetoothLeScanner mLeScanner50;
+    private ScanCallback mScanCallback50;
+    private List<ScanFilter> mFilters;
+
+    private boolean mScanning;
+    private boolean mScanStarted50;
+    private int mScanMode;
+    private long mStartTime;
+    private int mCallbackCount;
+    private int mResultCount;
+
+    private final Runnable mStepRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mScanMode == ScanSettings.SCAN_MODE_LOW_LATENCY) {
+                startScan50(ScanSettings.SCAN_MODE_BALANCED);
+                mHandler.postDelayed(this, BALANCED_PERIOD - LOW_LATENCY_PERIOD);
+            } else {
+                startScan50(ScanSettings.SCAN_MODE_LOW_POWER);
+            }
+        }
+    };
+
+    private final Runnable mStopRunnable = new Runnable() {
+        @Override
+        public void run() {
+            stop();
+            mListener.onScanStopped();
+        }
+    };
+
+    public XtremeScanner(BluetoothAdapter bluetoothAdapter, Listener listener) {
+        mBluetoothAdapter = bluetoothAdapter;
+        mListener = listener;
+
+        // The newer BLE APIs are only supported in 5.0 or above.
+        if (Build.VERSION.SDK_INT >= 21) {
+            mFilters = new ArrayList<ScanFilter>();
+            mFilters.add(new ScanFilter.Builder()
+                    .setDeviceName(XTREME_DEVICE_NAME)
+                    .build());
+            mFilters.add(new ScanFilter.Builder()
+                    .setServiceUuid(new ParcelUuid(BluetoothLeService.SOLOWHEEL_SERVICE_UUID))
+                    .build());
+
+            mScanCallback50 = new ScanCallback() {
+                @Override
+                public void onScanResult(int callbackType, ScanResult result) {
+                    mCallbackCount++;
+                    onResult(result.getDevice(), result.getRssi());
+                }
+
+                @Override
+                public void onBatchScanResults(List<ScanResult> results) {
+                    mCallbackCount++;
+                    for (ScanResult sr : results) {
+                        onResult(sr.getDevice(), sr.getRssi());
+                    }
+                }
+
+                @Override
+                public void onScanFailed(int errorCode) {
+                    Log.e(TAG, "Scan failed, error code: " + errorCode);
+                }
+            };
+        } else {  // prior to Android 5.0
+            mLeScanCallback = new BluetoothAdapter.LeScanCallback() {
+                @Override
+                public void onLeScan(final BluetoothDevice btDevice, final int rssi, byte[] scanRecord) {
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            mCallbackCount++;
+                            onResult(btDevice, rssi);
+                        }
+                    });
+                }
+            };
+        }
+    }
+
+    public boolean isScanning() {
+        return mScanning;
+    }
+
+    public void start() {
+        if (mScanning)
+            return;
+
+        Log.i(TAG, "Start scan");
+        StartupTimer.mark(StartupTimer.Milestone.scanStarted);
+        mScanning = true;
+        mStartTime = SystemClock.elapsedRealtime();
+        mCallbackCount = 0;
+        mResultCount = 0;
+
+        if (Build.VERSION.SDK_INT < 21) {
+            mBluetoothAdapter.startLeScan(mLeScanCallback);
+        } else {
+            mLeScanner50 = mBluetoothAdapter.getBluetoothLeScanner();
+            startScan50(ScanSettings.SCAN_MODE_LOW_LATENCY);
+            mHandler.postDelayed(mStepRunnable, LOW_LATENCY_PERIOD);
+        }
+        mHandler.postDelayed(mStopRunnable, SCAN_PERIOD);
+    }
+
+    public void stop() {
+        if (!mScanning)
+            return;
+
+        mHandler.removeCallbacks(mStepRunnable);
+        mHandler.removeCallbacks(mStopRunnable);
+
+        if (Build.VERSION.SDK_INT < 21) {
+            mBluetoothAdapter.stopLeScan(mLeScanCallback);
+        } else if (mScanStarted50 && mBluetoothAdapter.isEnabled()) {
+            mLeScanner50.stopScan(mScanCallback50);
+        }
+        mScanStarted50 = false;
+        mScanning = false;
+
+        long minutes = Math.max(1, (SystemClock.elapsedRealtime() - mStartTime) / 60000);
+        Log.i(TAG, "Stop scan: " + mCallbackCount / minutes + " callbacks/min, " +
+                mResultCount / minutes + " results/min");
+    }
+
+    private void startScan50(int scanMode) {
+        if (mScanStarted50) {
+            mLeScanner50.stopScan(mScanCallback50);
+        }
+        mScanMode = scanMode;
+
+        ScanSettings.Builder builder = new ScanSettings.Builder().setScanMode(scanMode);
+        if (scanMode != ScanSettings.SCAN_MODE_LOW_LATENCY
+                && mBluetoothAdapter.isOffloadedScanBatchingSupported()) {
+            builder.setReportDelay(BATCH_REPORT_DELAY);
+        }
+
+        Log.i(TAG, "Scan mode: " + scanMode);
+        mLeScanner50.startScan(mFilters, builder.build(), mScanCallback50);
+        mScanStarted50 = true;
+    }
+
+    private void onResult(BluetoothDevice device, int rssi) {
+        if (!mScanning)
+            return;
+
+        mResultCount++;
+        mListener.onDeviceFound(device, rssi);
+    }
+}
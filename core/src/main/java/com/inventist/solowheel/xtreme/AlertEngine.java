@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raises the ride alerts from the primary wheel's readings: overspeed, low battery and a lost
+ * link.
+ *
+ * Each alert is raised once its condition has held for the alert's debounce time, and cleared
+ * only once the reading is back past a second threshold, so a reading hovering around the
+ * first one raises it once rather than on every other frame.  A lost link is raised when no
+ * reading arrives for {@link #DEFAULT_LINK_TIMEOUT_NANOS}, or straight away by
+ * {@link #onLinkLost}, and cleared by the next reading.
+ *
+ * Readings are evaluated on the decode pool as they arrive, and the listener is called on the
+ * same thread, under the engine's lock.  Nothing here allocates.
+ *
+ * Like {@link LinkQualityMonitor} it has no Android dependencies; times are passed in, in
+ * nanoseconds of {@code System.nanoTime()}.
+ */
+public class AlertEngine {
+
+    public enum Alert
+    {
+        overspeed,
+        lowBattery,
+        linkLost
+    }
+
+    /**
+     * Receives the alerts, on the thread that passed in the reading or the link check.
+     */
+    public interface Listener {
+        /**
+         * @param raised True when the alert is raised, false when it clears.
+         * @param sinceNanos When the reading that raised or cleared it arrived, or when the
+         *                   link was found lost.
+         */
+        void onAlert(Alert alert, boolean raised, long sinceNanos);
+    }
+
+    // The Xtreme tops out a little over 12 mph.
+    public static final double DEFAULT_OVERSPEED_MPH = 11;
+    public static final double DEFAULT_OVERSPEED_CLEAR_MPH = 10;
+    public static final double DEFAULT_LOW_BATTERY_PERCENT = 20;
+    public static final double DEFAULT_LOW_BATTERY_CLEAR_PERCENT = 25;
+
+    // The Xtreme notifies every 100 ms; three frames of overspeed is no glitch.  The pack sags
+    // under a hard acceleration, so low battery has to hold for longer.
+    public static final long DEFAULT_OVERSPEED_DEBOUNCE_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    public static final long DEFAULT_LOW_BATTERY_DEBOUNCE_NANOS = TimeUnit.SECONDS.toNanos(3);
+    public static final long DEFAULT_LINK_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final Alert[] ALERTS = Alert.values();
+
+    private final Listener mListener;
+
+    private double mOverspeedMPH = DEFAULT_OVERSPEED_MPH;
+    private double mOverspeedClearMPH = DEFAULT_OVERSPEED_CLEAR_MPH;
+    private double mLowBatteryPercent = DEFAULT_LOW_BATTERY_PERCENT;
+    private double mLowBatteryClearPercent = DEFAULT_LOW_BATTERY_CLEAR_PERCENT;
+    private final long[] mDebounceNanos = new long[ALERTS.length];
+    private long mLinkTimeoutNanos = DEFAULT_LINK_TIMEOUT_NANOS;
+
+    private final boolean[] mRaised = new boolean[ALERTS.length];
+    private final boolean[] mHolding = new boolean[ALERTS.length];
+    private final long[] mHeldSince = new long[ALERTS.length];
+    private final int[] mRaisedCount = new int[ALERTS.length];
+
+    // System.nanoTime() can be any value, 0 included, so whether there is a reading is kept apart
+    private boolean mHasSample;
+    private long mLastSampleNanos;
+
+    public AlertEngine(Listener listener) {
+        mListener = listener;
+        mDebounceNanos[Alert.overspeed.ordinal()] = DEFAULT_OVERSPEED_DEBOUNCE_NANOS;
+        mDebounceNanos[Alert.lowBattery.ordinal()] = DEFAULT_LOW_BATTERY_DEBOUNCE_NANOS;
+    }
+
+    /**
+     * @param raiseMPH Raised above this speed.
+     * @param clearMPH Cleared below this one, no higher than {@code raiseMPH}.
+     */
+    public synchronized void setOverspeed(double raiseMPH, double clearMPH) {
+        mOverspeedMPH = raiseMPH;
+        mOverspeedClearMPH = Math.min(clearMPH, raiseMPH);
+    }
+
+    /**
+     * @param raisePercent Raised below this charge.
+     * @param clearPercent Cleared above this one, no lower than {@code raisePercent}.
+     */
+    public synchronized void setLowBattery(double raisePercent, double clearPercent) {
+        mLowBatteryPercent = raisePercent;
+        mLowBatteryClearPercent = Math.max(clearPercent, raisePercent);
+    }
+
+    /**
+     * Sets how long a condition has to hold before its alert is raised.
+     */
+    public synchronized void setDebounce(Alert alert, long nanos) {
+        mDebounceNanos[alert.ordinal()] = nanos;
+    }
+
+    public synchronized void setLinkTimeout(long nanos) {
+        mLinkTimeoutNanos = nanos;
+    }
+
+    /**
+     * Evaluates a reading of the primary wheel.  Called from the decode pool for every frame.
+     *
+     * @param percent The charge estimate, 0 for no reading.
+     * @param receivedNanos When the frame arrived.
+     */
+    public synchronized void onSample(double speedMPH, double percent, long receivedNanos) {
+        mHasSample = true;
+        mLastSampleNanos = receivedNanos;
+        if (mRaised[Alert.linkLost.ordinal()])
+            clear(Alert.linkLost, receivedNanos);
+
+        update(Alert.overspeed, speedMPH > mOverspeedMPH, speedMPH < mOverspeedClearMPH,
+                receivedNanos);
+        if (percent > 0) {
+            update(Alert.lowBattery, percent < mLowBatteryPercent,
+                    percent > mLowBatteryClearPercent, receivedNanos);
+        }
+    }
+
+    /**
+     * Raises a lost link if no reading arrived for the link timeout.  Called regularly while the
+     * primary wheel is connected.
+     */
+    public synchronized void checkLink(long nowNanos) {
+        if (mHasSample && nowNanos - mLastSampleNanos > mLinkTimeoutNanos)
+            raise(Alert.linkLost, nowNanos);
+    }
+
+    /**
+     * Raises a lost link now, for a connection that dropped without being asked to.
+     */
+    public synchronized void onLinkLost(long nowNanos) {
+        raise(Alert.linkLost, nowNanos);
+        mHasSample = false;
+    }
+
+    /**
+     * Clears every alert, for a ride that ended on purpose or a different wheel.
+     */
+    public synchronized void reset(long nowNanos) {
+        for (Alert alert : ALERTS) {
+            clear(alert, nowNanos);
+        }
+        mHasSample = false;
+    }
+
+    public synchronized boolean isRaised(Alert alert) {
+        return mRaised[alert.ordinal()];
+    }
+
+    public synchronized void dump(PrintWriter writer) {
+        writer.println(String.format(Locale.US,
+                "Alerts: overspeed=%.1f/%.1f mph low battery=%.0f/%.0f%% link timeout=%dms",
+                mOverspeedMPH, mOverspeedClearMPH, mLowBatteryPercent, mLowBatteryClearPercent,
+                TimeUnit.NANOSECONDS.toMillis(mLinkTimeoutNanos)));
+        for (Alert alert : ALERTS) {
+            writer.println(String.format(Locale.US, "  %s: %s raised=%d debounce=%dms", alert,
+                    mRaised[alert.ordinal()] ? "on" : "off", mRaisedCount[alert.ordinal()],
+                    TimeUnit.NANOSECONDS.toMillis(mDebounceNanos[alert.ordinal()])));
+        }
+    }
+
+    private void update(Alert alert, boolean over, boolean clear, long nowNanos) {
+        int i = alert.ordinal();
+        if (mRaised[i]) {
+            if (clear)
+                clear(alert, nowNanos);
+            return;
+        }
+
+        if (!over) {
+            mHolding[i] = false;
+        } else if (!mHolding[i]) {
+            mHolding[i] = true;
+            mHeldSince[i] = nowNanos;
+            if (mDebounceNanos[i] <= 0)
+                raise(alert, nowNanos);
+        } else if (nowNanos - mHeldSince[i] >= mDebounceNanos[i]) {
+            raise(alert, nowNanos);
+        }
+    }
+
+    private void raise(Alert alert, long nowNanos) {
+        int i = alert.ordinal();
+        if (mRaised[i])
+            return;
+        mRaised[i] = true;
+        mRaisedCount[i]++;
+        mListener.onAlert(alert, true, nowNanos);
+    }
+
+    private void clear(Alert alert, long nowNanos) {
+        int i = alert.ordinal();
+        mHolding[i] = false;
+        if (!mRaised[i])
+            return;
+        mRaised[i] = false;
+        mListener.onAlert(alert, false, nowNanos);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * A small fixed-length record kept on disk so that it survives a crash at any point.
+ *
+ * The record is written alternately to two files, {@code name.0} and {@code name.1}, each
+ * replaced whole by writing a temporary file, syncing it and renaming it over the old one.
+ * Each copy carries a sequence number and a CRC, and {@link #read} takes the newest copy that
+ * checks out, so a write cut short by a crash or a full disk costs at most the latest record,
+ * never the older one.
+ *
+ * Durability of the latest record is best-effort.  The copy's contents are synced before the
+ * rename, but the directory is not: plain Java before NIO.2, which Android lacks until API 26,
+ * has no way to sync a directory.  After a power cut the filesystem may still show the
+ * rename undone, so the last record or two can be lost; a copy is never seen half written.
+ *
+ * Every copy is written from and read into the same preallocated buffer.  Not thread-safe;
+ * meant to be used from a single writer thread.
+ */
+public class CheckpointFile {
+
+    private static final int MAGIC = 0x58544350;   // "XTCP"
+
+    // magic, sequence, payload, CRC of everything before it
+    private static final int HEADER_LENGTH = 4 + 8;
+    private static final int CRC_LENGTH = 4;
+
+    private final File[] mFiles;
+    private final File[] mTempFiles;
+    private final int mPayloadLength;
+    private final byte[] mRecord;
+    private final CRC32 mCrc = new CRC32();
+
+    private long mSequence;
+    private int mWriteCount;
+    private int mFailedCount;
+
+    /**
+     * @param payloadLength The length of every record, in bytes.
+     */
+    public CheckpointFile(File directory, String name, int payloadLength) {
+        mFiles = new File[] { new File(directory, name + ".0"), new File(directory, name + ".1") };
+        mTempFiles = new File[] { new File(directory, name + ".0.tmp"), new File(directory, name + ".1.tmp") };
+        mPayloadLength = payloadLength;
+        mRecord = new byte[HEADER_LENGTH + payloadLength + CRC_LENGTH];
+    }
+
+    /**
+     * Reads the newest valid record into {@code payload}.  Later writes go to the other copy.
+     *
+     * @return false if neither copy exists or checks out, leaving {@code payload} untouched.
+     */
+    public boolean read(byte[] payload) {
+        long newest = -1;
+        int newestIndex = -1;
+        for (int i = 0; i < mFiles.length; i++) {
+            long sequence = readCopy(mFiles[i]);
+            if (sequence > newest) {
+                newest = sequence;
+                newestIndex = i;
+            }
+        }
+        if (newestIndex < 0)
+            return false;
+
+        // Read again; mRecord holds whichever copy was read last.
+        readCopy(mFiles[newestIndex]);
+        System.arraycopy(mRecord, HEADER_LENGTH, payload, 0, mPayloadLength);
+        mSequence = newest + 1;
+        return true;
+    }
+
+    /**
+     * Writes {@code payload} over the older of the two copies.  The copy is synced to disk
+     * before it replaces the old one, but the rename itself may not be durable yet on return.
+     *
+     * @throws IOException The first error, from writing, syncing or closing; the older copies
+     *         are left as they were.
+     */
+    public void write(byte[] payload) throws IOException {
+        putInt(mRecord, 0, MAGIC);
+        putLong(mRecord, 4, mSequence);
+        System.arraycopy(payload, 0, mRecord, HEADER_LENGTH, mPayloadLength);
+        mCrc.reset();
+        mCrc.update(mRecord, 0, HEADER_LENGTH + mPayloadLength);
+        putInt(mRecord, HEADER_LENGTH + mPayloadLength, (int) mCrc.getValue());
+
+        int index = (int) (mSequence & 1);
+        File temp = mTempFiles[index];
+        IOException failure = null;
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(mRecord);
+            out.getFD().sync();
+        } catch (IOException e) {
+            failure = e;
+        }
+        if (out != null) {
+            // A failed close mustn't hide why the write failed.
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+        if (failure != null) {
+            mFailedCount++;
+            temp.delete();
+            throw failure;
+        }
+        if (!temp.renameTo(mFiles[index])) {
+            mFailedCount++;
+            throw new IOException("Unable to rename " + temp + " to " + mFiles[index]);
+        }
+
+        mSequence++;
+        mWriteCount++;
+    }
+
+    public int getWriteCount() {
+        return mWriteCount;
+    }
+
+    public int getFailedCount() {
+        return mFailedCount;
+    }
+
+    // Reads one copy into mRecord, returning its sequence number, or -1 if it is missing, short
+    // or corrupt.
+    private long readCopy(File file) {
+        if (file.length() != mRecord.length)
+            return -1;
+
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            int read = 0;
+            while (read < mRecord.length) {
+                int count = in.read(mRecord, read, mRecord.length - read);
+                if (count < 0)
+                    return -1;
+                read += count;
+            }
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing was written; the copy has been read already.
+                }
+            }
+        }
+
+        if (getInt(mRecord, 0) != MAGIC)
+            return -1;
+        mCrc.reset();
+        mCrc.update(mRecord, 0, HEADER_LENGTH + mPayloadLength);
+        if (getInt(mRecord, HEADER_LENGTH + mPayloadLength) != (int) mCrc.getValue())
+            return -1;
+        return getLong(mRecord, 4);
+    }
+
+    static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    static int getInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) << 24
+                | (buffer[offset + 1] & 0xff) << 16
+                | (buffer[offset + 2] & 0xff) << 8
+                | (buffer[offset + 3] & 0xff);
+    }
+
+    static void putLong(byte[] buffer, int offset, long value) {
+        putInt(buffer, offset, (int) (value >>> 32));
+        putInt(buffer, offset + 4, (int) value);
+    }
+
+    static long getLong(byte[] buffer, int offset) {
+        return ((long) getInt(buffer, offset) << 32) | (getInt(buffer, offset + 4) & 0xffffffffL);
+    }
+}
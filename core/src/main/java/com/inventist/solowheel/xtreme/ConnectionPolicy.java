@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+/**
+ * Decides which connection priority the wheel link should run at.
+ *
+ * The link asks for high priority (short connection interval) while the wheel is moving or the
+ * gauges are on screen, balanced while the phone is in use for something else, and low power
+ * once the wheel is parked and the screen is off.  Dropping out of high priority waits until
+ * the wheel has been stationary for {@link #STATIONARY_HOLD_MS}, so stopping at a crossing
+ * doesn't bounce the interval back and forth.
+ *
+ * On connecting it asks for {@link #PREFERRED_MTU}, so that a record never spans two
+ * notifications.  A wheel that refuses is asked once more for {@link #FALLBACK_MTU}, and one
+ * that refuses that too stays at {@link #DEFAULT_MTU}, where the reassembler joins the pieces.
+ *
+ * The policy has no Android dependencies; requests go out through a {@link Transport} and all
+ * times are passed in, so it can be driven by a fake transport and clock.
+ */
+public class ConnectionPolicy {
+
+    public static final int PREFERRED_MTU = 64;
+    public static final int FALLBACK_MTU = 32;
+    public static final int DEFAULT_MTU = 23;
+    public static final long STATIONARY_HOLD_MS = 5000;
+
+    private static final int DECISION_LOG_SIZE = 16;
+
+    public enum Priority
+    {
+        high,
+        balanced,
+        lowPower
+    }
+
+    /**
+     * Carries out the policy's requests on the real link.
+     */
+    public interface Transport {
+        void requestConnectionPriority(Priority priority);
+
+        void requestMtu(int mtu);
+    }
+
+    private final Transport mTransport;
+
+    private boolean mConnected;
+    private boolean mForeground;
+    private boolean mScreenOn = true;
+    private boolean mMoving;
+    private boolean mStopped;
+    private long mStoppedTime;
+    private Priority mPriority;
+    private int mMtu = DEFAULT_MTU;
+    private int mRequestedMtu;
+
+    // Notification inter-arrival times, indexed by Priority.ordinal()
+    private long mLastArrival = -1;
+    private final long[] mArrivalCount = new long[Priority.values().length];
+    private final long[] mArrivalTotal = new long[Priority.values().length];
+    private final long[] mArrivalMax = new long[Priority.values().length];
+
+    // Ring of the most recent decisions
+    private final long[] mDecisionTime = new long[DECISION_LOG_SIZE];
+    private final Priority[] mDecisionPriority = new Priority[DECISION_LOG_SIZE];
+    private int mDecisionCount;
+
+    public ConnectionPolicy(Transport transport) {
+        mTransport = transport;
+    }
+
+    /**
+     * The link is up and subscribed.  Negotiates the MTU and sets the initial priority.
+     */
+    public synchronized void onConnected(long now) {
+        mConnected = true;
+        mPriority = null;
+        mLastArrival = -1;
+        mMtu = DEFAULT_MTU;
+        requestMtu(PREFERRED_MTU);
+        evaluate(now);
+    }
+
+    /**
+     * The answer to an MTU request.
+     *
+     * @param mtu The MTU now in use, which the wheel may have lowered.
+     */
+    public synchronized void onMtuChanged(int mtu, boolean success) {
+        if (success) {
+            mMtu = mtu;
+            mRequestedMtu = 0;
+        } else if (mConnected && mRequestedMtu == PREFERRED_MTU) {
+            requestMtu(FALLBACK_MTU);
+        } else {
+            mRequestedMtu = 0;
+        }
+    }
+
+    public synchronized void onDisconnected() {
+        mConnected = false;
+        mPriority = null;
+        mMoving = false;
+        mStopped = false;
+        mRequestedMtu = 0;
+    }
+
+    public synchronized void setForeground(boolean foreground, long now) {
+        mForeground = foreground;
+        evaluate(now);
+    }
+
+    public synchronized void setScreenOn(boolean screenOn, long now) {
+        mScreenOn = screenOn;
+        evaluate(now);
+    }
+
+    /**
+     * Called for every decoded sample.
+     */
+    public synchronized void onSpeed(double speed, long now) {
+        boolean moving = speed > 0;
+        if (mMoving && !moving) {
+            mStopped = true;
+            mStoppedTime = now;
+        }
+        mMoving = moving;
+        evaluate(now);
+    }
+
+    /**
+     * Called for every notification, to record the effect of the current priority.
+     */
+    public synchronized void onNotification(long now) {
+        if (mLastArrival >= 0 && mPriority != null) {
+            long gap = now - mLastArrival;
+            int i = mPriority.ordinal();
+            mArrivalCount[i]++;
+            mArrivalTotal[i] += gap;
+            if (gap > mArrivalMax[i])
+                mArrivalMax[i] = gap;
+        }
+        mLastArrival = now;
+    }
+
+    public synchronized Priority getPriority() {
+        return mPriority;
+    }
+
+    public synchronized int getMtu() {
+        return mMtu;
+    }
+
+    /**
+     * @return The recent decisions and the notification inter-arrival times seen at each
+     *         priority.
+     */
+    public synchronized String getReport() {
+        StringBuilder sb = new StringBuilder();
+        for (Priority priority : Priority.values()) {
+            int i = priority.ordinal();
+            sb.append(priority).append(": n=").append(mArrivalCount[i])
+                    .append(" avg=").append(mArrivalCount[i] == 0 ? 0 : mArrivalTotal[i] / mArrivalCount[i])
+                    .append("ms max=").append(mArrivalMax[i]).append("ms\n");
+        }
+
+        int first = Math.max(0, mDecisionCount - DECISION_LOG_SIZE);
+        for (int n = first; n < mDecisionCount; n++) {
+            int i = n % DECISION_LOG_SIZE;
+            sb.append("decision @").append(mDecisionTime[i]).append(": ")
+                    .append(mDecisionPriority[i]).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void requestMtu(int mtu) {
+        mRequestedMtu = mtu;
+        mTransport.requestMtu(mtu);
+    }
+
+    private void evaluate(long now) {
+        if (!mConnected)
+            return;
+
+        // Only a wheel that was moving is held at high priority, not the gauges going away.
+        boolean recentlyMoving = mMoving || (mStopped && now - mStoppedTime < STATIONARY_HOLD_MS);
+
+        Priority priority;
+        if (recentlyMoving || (mForeground && mScreenOn))
+            priority = Priority.high;
+        else if (mScreenOn)
+            priority = Priority.balanced;
+        else
+            priority = Priority.lowPower;
+
+        if (priority != mPriority) {
+            mPriority = priority;
+
+            int i = mDecisionCount % DECISION_LOG_SIZE;
+            mDecisionTime[i] = now;
+            mDecisionPriority[i] = priority;
+            mDecisionCount++;
+
+            mTransport.requestConnectionPriority(priority);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+/**
+ * Fixed-size ring of floats.  Once full, each new value replaces the oldest.  Nothing is
+ * allocated after construction.
+ */
+public class FloatRingBuffer {
+
+    private final float[] mValues;
+    private int mHead;
+    private int mSize;
+
+    public FloatRingBuffer(int capacity) {
+        mValues = new float[capacity];
+    }
+
+    public int capacity() {
+        return mValues.length;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void add(float value) {
+        int tail = (mHead + mSize) % mValues.length;
+        mValues[tail] = value;
+        if (mSize == mValues.length)
+            mHead = (mHead + 1) % mValues.length;
+        else
+            mSize++;
+    }
+
+    /**
+     * @param i From 0, the oldest value, to {@code size() - 1}, the newest.
+     */
+    public float get(int i) {
+        if (i < 0 || i >= mSize)
+            throw new IndexOutOfBoundsException("index " + i + " size " + mSize);
+        return mValues[(mHead + i) % mValues.length];
+    }
+
+    public float getLast() {
+        return get(mSize - 1);
+    }
+
+    public void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+/**
+ * Decodes the telemetry frames of one firmware protocol variant.
+ *
+ * Decoders are stateless and shared by every connection; they read the frame in place and
+ * write into a {@link Sample} owned by the caller, so decoding doesn't allocate.  New firmware
+ * versions, and other wheels with the same serial port, are supported by adding a decoder to
+ * {@link FrameDecoderRegistry#DECODERS}.
+ */
+public interface FrameDecoder {
+
+    /**
+     * One decoded frame, in the wheel's own units.
+     */
+    class Sample {
+        public static final int REVERSE = 0;
+        public static final int FORWARD = 1;
+
+        public int speedCmPerSecond;
+        public int batteryDecivolts;
+        public int direction;
+    }
+
+    /**
+     * @return A name for logs and dumps.
+     */
+    String getName();
+
+    /**
+     * A cheap probe for whether a frame looks like this protocol, without parsing its values.
+     */
+    boolean matches(byte[] data, int offset, int length);
+
+    /**
+     * Decodes a frame into {@code out}.
+     *
+     * @return null if the frame is good, otherwise why it is malformed.  A frame whose speed or
+     *         battery doesn't parse is reported as {@code badValue} with that field set to 0, and
+     *         may still be used.
+     */
+    LinkQualityMonitor.MalformedReason decode(byte[] data, int offset, int length, Sample out);
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+/**
+ * Picks the decoder for a wheel's firmware from its first frames.
+ *
+ * Until it is locked, every frame is probed against each decoder in turn.  Once one decoder has
+ * decoded {@link #LOCK_FRAMES} frames in a row, the registry locks onto it and later frames go
+ * straight to that decoder.  A locked decoder that stops working, {@link #UNLOCK_FAILURES}
+ * malformed frames in a row, is dropped and detection starts again.
+ *
+ * One registry is used per connection, from one thread at a time.
+ */
+public class FrameDecoderRegistry {
+
+    public static final int LOCK_FRAMES = 3;
+    public static final int UNLOCK_FAILURES = 50;
+
+    // In order of preference
+    static final FrameDecoder[] DECODERS = {
+            new XtremeFrameDecoder()
+    };
+
+    private FrameDecoder mLocked;
+    private FrameDecoder mCandidate;
+    private int mCandidateFrames;
+    private int mFailures;
+
+    /**
+     * Forgets the detected decoder, for a new connection.
+     */
+    public void reset() {
+        mLocked = null;
+        mCandidate = null;
+        mCandidateFrames = 0;
+        mFailures = 0;
+    }
+
+    /**
+     * @return The decoder locked onto, null while detecting.
+     */
+    public FrameDecoder getLocked() {
+        return mLocked;
+    }
+
+    /**
+     * Decodes a frame with the locked decoder, or the first one that matches it.
+     *
+     * @return As {@link FrameDecoder#decode}; {@code fieldCount} if no decoder matches.
+     */
+    public LinkQualityMonitor.MalformedReason decode(byte[] data, int offset, int length,
+                                                     FrameDecoder.Sample out) {
+        if (mLocked != null) {
+            LinkQualityMonitor.MalformedReason reason = mLocked.decode(data, offset, length, out);
+            if (reason == null || reason == LinkQualityMonitor.MalformedReason.badValue) {
+                mFailures = 0;
+            } else if (++mFailures >= UNLOCK_FAILURES) {
+                reset();
+            }
+            return reason;
+        }
+
+        for (FrameDecoder decoder : DECODERS) {
+            if (!decoder.matches(data, offset, length))
+                continue;
+
+            LinkQualityMonitor.MalformedReason reason = decoder.decode(data, offset, length, out);
+            if (reason == null) {
+                if (decoder != mCandidate) {
+                    mCandidate = decoder;
+                    mCandidateFrames = 0;
+                }
+                if (++mCandidateFrames >= LOCK_FRAMES)
+                    mLocked = decoder;
+            }
+            return reason;
+        }
+        return LinkQualityMonitor.MalformedReason.fieldCount;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The frames of one wheel waiting for the shared decode pool.
+ *
+ * Frames are copied in on the thread that received them and handed to the sink on a pool
+ * thread, in arrival order and one at a time, so a wheel never holds more than one pool thread
+ * however many of its frames are waiting.  When the pool falls far behind, the oldest waiting
+ * frame is dropped to make room.
+ *
+ * The slots are preallocated and only grow for a frame longer than any before it.
+ */
+public class FrameQueue {
+
+    /**
+     * Receives the frames on a pool thread.  The data belongs to the sink until it returns.
+     */
+    public interface Sink {
+        void onFrame(byte[] data, int length, long receivedNanos);
+    }
+
+    // Systrace slice for a frame, from its arrival to the end of its decode, and the counter
+    // for the frames waiting in between
+    private static final String TRACE_FRAME = "frame";
+    private static final String TRACE_FRAME_QUEUE = "frameQueue";
+
+    private final Executor mExecutor;
+    private final Sink mSink;
+
+    // Guarded by the queue's lock.  The drain swaps the slot it takes for mDrainBuffer, so the
+    // frame the sink reads can't be overwritten meanwhile.
+    private final byte[][] mData;
+    private final int[] mLength;
+    private final long[] mTime;
+    private final int[] mCookie;
+    private int mHead;
+    private int mCount;
+    private boolean mDraining;
+    private byte[] mDrainBuffer;
+
+    private volatile long mDropped;
+
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * @param capacity Frames that may wait before the oldest is dropped.
+     * @param slotSize The usual frame length.
+     * @param executor The decode pool.
+     */
+    public FrameQueue(int capacity, int slotSize, Executor executor, Sink sink) {
+        mExecutor = executor;
+        mSink = sink;
+        mData = new byte[capacity][slotSize];
+        mLength = new int[capacity];
+        mTime = new long[capacity];
+        mCookie = new int[capacity];
+        mDrainBuffer = new byte[slotSize];
+    }
+
+    /**
+     * Copies a frame in and makes sure a drain is scheduled.
+     *
+     * @param receivedNanos The {@code System.nanoTime()} the frame arrived.
+     * @return false if the oldest waiting frame was dropped to make room.
+     */
+    public boolean offer(byte[] value, int length, long receivedNanos) {
+        boolean dropped = false;
+        synchronized (this) {
+            if (mCount == mData.length) {
+                if (mCookie[mHead] != 0)
+                    SystemTrace.endAsync(TRACE_FRAME, mCookie[mHead]);
+                mHead = (mHead + 1) % mData.length;
+                mCount--;
+                mDropped++;
+                dropped = true;
+            }
+            int tail = (mHead + mCount) % mData.length;
+            if (mData[tail].length < length)
+                mData[tail] = new byte[length];
+            System.arraycopy(value, 0, mData[tail], 0, length);
+            mLength[tail] = length;
+            mTime[tail] = receivedNanos;
+            mCookie[tail] = 0;
+            if (SystemTrace.isEnabled()) {
+                mCookie[tail] = SystemTrace.nextCookie();
+                SystemTrace.beginAsync(TRACE_FRAME, mCookie[tail]);
+            }
+            mCount++;
+            TraceRing.event(TraceRing.Event.frameReceived, length, mCount);
+            SystemTrace.counter(TRACE_FRAME_QUEUE, mCount);
+
+            if (mDraining)
+                return !dropped;
+            mDraining = true;
+        }
+        mExecutor.execute(mDrainRunnable);
+        return !dropped;
+    }
+
+    public synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * @return Frames dropped because the queue was full.
+     */
+    public long getDroppedCount() {
+        return mDropped;
+    }
+
+    private void drain() {
+        while (true) {
+            byte[] data;
+            int length;
+            long received;
+            int cookie;
+            synchronized (this) {
+                if (mCount == 0) {
+                    mDraining = false;
+                    return;
+                }
+                data = mData[mHead];
+                length = mLength[mHead];
+                received = mTime[mHead];
+                cookie = mCookie[mHead];
+                mData[mHead] = mDrainBuffer;
+                mDrainBuffer = data;
+                mHead = (mHead + 1) % mData.length;
+                mCount--;
+                SystemTrace.counter(TRACE_FRAME_QUEUE, mCount);
+            }
+            PipelineLatency.recordSince(PipelineLatency.Stage.gattToDecode, received);
+
+            boolean traced = SystemTrace.beginSection("decode");
+            try {
+                mSink.onFrame(data, length, received);
+            } finally {
+                SystemTrace.endSection(traced);
+                if (cookie != 0)
+                    SystemTrace.endAsync(TRACE_FRAME, cookie);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+/**
+ * Rebuilds records from a byte stream that arrives in arbitrary pieces.  Serial-over-BLE
+ * bridges split a record across 20-byte notifications, or pack several into one, so a
+ * notification can't be assumed to hold exactly one record.
+ *
+ * Records end at a CR or LF; empty records, such as the gap inside a CR LF pair, are skipped.
+ * Until the first delimiter is seen the stream is assumed to be undelimited, like the Xtreme's,
+ * which sends one record per notification, and each notification is passed on whole.
+ *
+ * A record that lies entirely inside one notification is passed straight from the caller's
+ * array.  Only the bytes of a record split across notifications are copied, into a fixed-size
+ * buffer; since at most one record is ever partial, it always starts at the front and never
+ * wraps.  A record longer than the buffer is dropped, and so is everything up to the next
+ * delimiter, so the stream resyncs after garbage without ever allocating.
+ *
+ * Not thread safe; feed it from one thread at a time.
+ */
+public class FrameReassembler {
+
+    public static final int DEFAULT_CAPACITY = 128;
+
+    /**
+     * Receives complete records.  The bytes are only valid until the method returns.
+     */
+    public interface Listener {
+        void onRecord(byte[] data, int offset, int length);
+
+        /**
+         * A record didn't fit in the ring and was dropped.
+         */
+        void onDiscarded(int length);
+    }
+
+    private final Listener mListener;
+    private final byte[] mPartial;
+    private int mCount;
+    private boolean mDelimited;
+    private boolean mDiscarding;
+    private int mDiscarded;
+
+    public FrameReassembler(int capacity, Listener listener) {
+        mListener = listener;
+        mPartial = new byte[capacity];
+    }
+
+    /**
+     * @return true once a delimiter has been seen.
+     */
+    public boolean isDelimited() {
+        return mDelimited;
+    }
+
+    /**
+     * Drops any partial record, for a new connection.
+     */
+    public void reset() {
+        mCount = 0;
+        mDelimited = false;
+        mDiscarding = false;
+        mDiscarded = 0;
+    }
+
+    public void append(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int start = offset;
+
+        for (int i = offset; i < end; i++) {
+            byte b = data[i];
+            if (b != '\r' && b != '\n')
+                continue;
+
+            mDelimited = true;
+            if (mDiscarding) {
+                endDiscard(i - start);
+            } else if (mCount > 0) {
+                // The end of a record started in an earlier notification
+                if (store(data, start, i - start)) {
+                    mListener.onRecord(mPartial, 0, mCount);
+                    mCount = 0;
+                } else {
+                    endDiscard(0);
+                }
+            } else if (i > start) {
+                mListener.onRecord(data, start, i - start);
+            }
+            start = i + 1;
+        }
+
+        if (start == end)
+            return;
+
+        if (mDiscarding) {
+            mDiscarded += end - start;
+        } else if (!mDelimited && mCount == 0) {
+            mListener.onRecord(data, start, end - start);
+        } else {
+            store(data, start, end - start);
+        }
+    }
+
+    // Copies the bytes of a partial record, or starts discarding when they don't fit.
+    private boolean store(byte[] data, int offset, int length) {
+        if (mCount + length > mPartial.length) {
+            mDiscarding = true;
+            mDiscarded = mCount + length;
+            mCount = 0;
+            return false;
+        }
+
+        System.arraycopy(data, offset, mPartial, mCount, length);
+        mCount += length;
+        return true;
+    }
+
+    private void endDiscard(int length) {
+        mListener.onDiscarded(mDiscarded + length);
+        mDiscarding = false;
+        mDiscarded = 0;
+    }
+}
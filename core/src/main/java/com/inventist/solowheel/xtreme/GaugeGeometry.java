@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+/**
+ * Geometry of the segmented battery arc drawn by the phone's gauge and by the watch face: one
+ * segment for each percent from 0 to 100, sweeping {@link #ARC_SPAN} degrees clockwise from
+ * the bottom, and a triangular marker pointing at the current level from inside the arc.
+ *
+ * Everything is computed into primitive arrays by {@link #update}, which does nothing unless
+ * the size or configuration changed, so drawing never touches trig.  Angles are in screen
+ * coordinates: y grows downwards and positive angles turn clockwise.
+ */
+public class GaugeGeometry {
+
+    public static final int SEGMENT_COUNT = 101;
+    public static final float ARC_SPAN = 270f;
+    public static final float SEGMENT_SPAN = ARC_SPAN / (SEGMENT_COUNT - 1);
+
+    // Where segment 0 points, straight down
+    private static final float START_ANGLE = 90f;
+
+    // Points along each of a segment's two arcs.  A segment spans under three degrees, so the
+    // ends and the middle are indistinguishable from a true arc.
+    private static final int ARC_POINTS = 3;
+
+    /**
+     * Points in each segment's outline: the inner arc then the outer arc, as a closed polygon.
+     */
+    public static final int POINTS_PER_SEGMENT = ARC_POINTS * 2;
+
+    // Direction of each segment's centre line
+    private final float[] mCos = new float[SEGMENT_COUNT];
+    private final float[] mSin = new float[SEGMENT_COUNT];
+
+    // x, y of every segment's outline, segment after segment
+    private final float[] mSegmentPoints = new float[SEGMENT_COUNT * POINTS_PER_SEGMENT * 2];
+
+    private float mCenterX = Float.NaN;
+    private float mCenterY;
+    private float mOuterRadius;
+    private float mSegmentWidth;
+    private float mMarkerHeight;
+
+    public GaugeGeometry() {
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            double angle = Math.toRadians(START_ANGLE + i * SEGMENT_SPAN);
+            mCos[i] = (float) Math.cos(angle);
+            mSin[i] = (float) Math.sin(angle);
+        }
+    }
+
+    /**
+     * Recomputes the geometry if any of its inputs changed.
+     *
+     * @param outerRadius  Radius of the outside of the arc.
+     * @param segmentWidth Depth of each segment, from the outside of the arc in.
+     * @param markerHeight Height of the level marker, 0 for none.
+     * @return Whether anything was recomputed.
+     */
+    public boolean update(float centerX, float centerY, float outerRadius, float segmentWidth,
+                          float markerHeight) {
+        if (centerX == mCenterX && centerY == mCenterY && outerRadius == mOuterRadius
+                && segmentWidth == mSegmentWidth && markerHeight == mMarkerHeight)
+            return false;
+
+        mCenterX = centerX;
+        mCenterY = centerY;
+        mOuterRadius = outerRadius;
+        mSegmentWidth = segmentWidth;
+        mMarkerHeight = markerHeight;
+
+        float innerRadius = getInnerRadius();
+        double half = Math.toRadians(SEGMENT_SPAN / 2);
+        int p = 0;
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            double angle = Math.toRadians(START_ANGLE + i * SEGMENT_SPAN);
+
+            // Inner arc backwards, outer arc forwards, so the outline doesn't cross itself
+            for (int k = 0; k < ARC_POINTS; k++) {
+                double a = angle + half - 2 * half * k / (ARC_POINTS - 1);
+                mSegmentPoints[p++] = centerX + (float) (Math.cos(a) * innerRadius);
+                mSegmentPoints[p++] = centerY + (float) (Math.sin(a) * innerRadius);
+            }
+            for (int k = 0; k < ARC_POINTS; k++) {
+                double a = angle - half + 2 * half * k / (ARC_POINTS - 1);
+                mSegmentPoints[p++] = centerX + (float) (Math.cos(a) * outerRadius);
+                mSegmentPoints[p++] = centerY + (float) (Math.sin(a) * outerRadius);
+            }
+        }
+        return true;
+    }
+
+    public float getCenterX() {
+        return mCenterX;
+    }
+
+    public float getCenterY() {
+        return mCenterY;
+    }
+
+    public float getOuterRadius() {
+        return mOuterRadius;
+    }
+
+    public float getInnerRadius() {
+        return mOuterRadius - mSegmentWidth;
+    }
+
+    /**
+     * @return Every segment's outline, {@link #POINTS_PER_SEGMENT} x, y pairs for each, with
+     *         segment {@code i} starting at {@code i * POINTS_PER_SEGMENT * 2}.  Read only.
+     */
+    public float[] getSegmentPoints() {
+        return mSegmentPoints;
+    }
+
+    /**
+     * @return The cosine of the direction segment {@code i} points in, from the centre.
+     */
+    public float getSegmentCos(int i) {
+        return mCos[i];
+    }
+
+    public float getSegmentSin(int i) {
+        return mSin[i];
+    }
+
+    /**
+     * @return The segment a battery percentage lights up to, and the marker points at.  The
+     *         percentage is clamped, so 0% and below light segment 0 alone and 100% and above
+     *         light every segment.
+     */
+    public static int getLevel(double percent) {
+        if (!(percent > 0))
+            return 0;
+        return (int) Math.min(percent, SEGMENT_COUNT - 1);
+    }
+
+    /**
+     * @return Degrees swept clockwise from the centre of segment 0 to the centre of the
+     *         segment at {@code level}.
+     */
+    public static float getSweep(int level) {
+        return level * SEGMENT_SPAN;
+    }
+
+    /**
+     * Places the level marker: its tip on the inside of the arc at {@code percent}, its base
+     * {@code markerHeight} nearer the centre.
+     *
+     * @param out Six floats: the tip, then the two corners of the base, as x, y pairs.
+     */
+    public void getMarker(int percent, float[] out) {
+        int i = getLevel(percent);
+        float cos = mCos[i];
+        float sin = mSin[i];
+        float tip = getInnerRadius();
+        float base = tip - mMarkerHeight;
+        float halfWidth = mMarkerHeight / 2;
+
+        out[0] = mCenterX + cos * tip;
+        out[1] = mCenterY + sin * tip;
+        out[2] = mCenterX + cos * base + sin * halfWidth;
+        out[3] = mCenterY + sin * base - cos * halfWidth;
+        out[4] = mCenterX + cos * base - sin * halfWidth;
+        out[5] = mCenterY + sin * base + cos * halfWidth;
+    }
+}
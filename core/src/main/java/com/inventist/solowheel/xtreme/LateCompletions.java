@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+import java.util.UUID;
+
+/**
+ * Remembers the GATT operations that timed out, so that a callback that still arrives for one
+ * of them is not taken for the completion of a newer operation of the same kind and target.
+ *
+ * There is at most one entry per kind and target, and it only stands for a bounded window
+ * after the timeout.  A callback that was lost outright would otherwise swallow the real
+ * completion of every later operation of the same kind, each of which would time out in turn.
+ * For the same reason, an operation that times out after a completion of its own kind was
+ * dropped as late leaves no entry: the dropped callback was most likely its own.
+ *
+ * Kinds are small integers chosen by the caller.  All times are passed in, in milliseconds.
+ * The class is not thread safe.
+ */
+public class LateCompletions {
+
+    private static final int MAX_ENTRIES = 8;
+
+    private final long mWindow;
+    private final Entry[] mEntries = new Entry[MAX_ENTRIES];
+    private int mLateCount;
+
+    private static class Entry {
+        int kind;
+        UUID target;
+        long time;
+        boolean dropped;
+        boolean used;
+    }
+
+    /**
+     * @param window How long after a timeout its callback is still expected, in milliseconds.
+     */
+    public LateCompletions(long window) {
+        mWindow = window;
+        for (int i = 0; i < MAX_ENTRIES; i++)
+            mEntries[i] = new Entry();
+    }
+
+    /**
+     * Records that an operation timed out.
+     *
+     * @param started When the operation was started.
+     * @param now     When it timed out.
+     */
+    public void onTimedOut(int kind, UUID target, long started, long now) {
+        Entry entry = find(kind, target);
+        if (entry != null) {
+            if (entry.dropped && entry.time - started >= 0) {
+                entry.used = false;
+                return;
+            }
+        } else {
+            entry = take();
+        }
+        entry.used = true;
+        entry.kind = kind;
+        entry.target = target;
+        entry.time = now;
+        entry.dropped = false;
+    }
+
+    /**
+     * @return true if a completion arriving now is the late callback of an operation that timed
+     *         out, and should be dropped.  The entry is used up either way.
+     */
+    public boolean isLate(int kind, UUID target, long now) {
+        Entry entry = find(kind, target);
+        if (entry == null || entry.dropped)
+            return false;
+
+        if (now - entry.time > mWindow) {
+            entry.used = false;
+            return false;
+        }
+
+        entry.dropped = true;
+        entry.time = now;
+        mLateCount++;
+        return true;
+    }
+
+    /**
+     * @return How many completions were dropped as late.
+     */
+    public int getLateCount() {
+        return mLateCount;
+    }
+
+    /**
+     * Forgets every entry, for when the link goes down.
+     */
+    public void clear() {
+        for (Entry entry : mEntries)
+            entry.used = false;
+    }
+
+    private Entry find(int kind, UUID target) {
+        for (Entry entry : mEntries) {
+            if (entry.used && entry.kind == kind
+                    && (entry.target == null ? target == null : entry.target.equals(target)))
+                return entry;
+        }
+        return null;
+    }
+
+    // A free entry, or else the oldest one
+    private Entry take() {
+        Entry oldest = null;
+        for (Entry entry : mEntries) {
+            if (!entry.used)
+                return entry;
+            if (oldest == null || entry.time - oldest.time < 0)
+                oldest = entry;
+        }
+        return oldest;
+    }
+}
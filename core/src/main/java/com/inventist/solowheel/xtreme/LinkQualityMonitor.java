@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+import java.util.Locale;
+
+/**
+ * Measures the quality of one wheel link: frames per second, malformed frames by reason,
+ * silences between frames and the remote RSSI.
+ *
+ * Everything is counted into a ring of {@link #WINDOW_COUNT} windows of {@link #WINDOW_MS}
+ * each, so the monitor takes the same memory after a minute as after a day of riding, and a
+ * summary always describes the recent past rather than the whole connection.
+ *
+ * Like {@link ConnectionPolicy} it has no Android dependencies; all times are passed in, in
+ * milliseconds of any monotonic clock.
+ */
+public class LinkQualityMonitor {
+
+    public static final long WINDOW_MS = 1000;
+    public static final int WINDOW_COUNT = 60;
+
+    // The Xtreme notifies every 100 ms; a silence three times as long means frames were lost.
+    public static final long GAP_THRESHOLD_MS = 300;
+
+    public enum MalformedReason
+    {
+        fieldCount,     // not three comma separated fields
+        badDirection,   // the direction field is not 0 or 1
+        badValue,       // the speed or battery field doesn't parse, delivered as 0
+        badFirmware,    // zero battery voltage from unsupported firmware
+        unterminated,   // too long to reassemble, dropped up to the next delimiter
+        overflow        // dropped unparsed because the decode pool fell behind
+    }
+
+    private static final int REASONS = MalformedReason.values().length;
+    private static final int NO_RSSI = Integer.MIN_VALUE;
+
+    /**
+     * The link over the last few windows.  Filled in by {@link #getSummary} so a screen can
+     * reuse one instance on every refresh.
+     */
+    public static class Summary {
+        public int seconds;
+        public int frames;
+        public float framesPerSecond;
+        public int malformedTotal;
+        public final int[] malformed = new int[REASONS];
+        public float malformedRatio;
+        public int gaps;
+        public long maxGapMs;
+        public boolean hasRssi;
+        public int rssi;
+        public int minRssi;
+    }
+
+    private final int[] mFrames = new int[WINDOW_COUNT];
+    private final int[][] mMalformed = new int[REASONS][WINDOW_COUNT];
+    private final int[] mGaps = new int[WINDOW_COUNT];
+    private final long[] mMaxGap = new long[WINDOW_COUNT];
+    private final int[] mLastRssi = new int[WINDOW_COUNT];
+    private final int[] mMinRssi = new int[WINDOW_COUNT];
+
+    private long mFirstWindow = -1;
+    private long mCurrentWindow = -1;
+    private long mLastFrameTime = -1;
+
+    // Since the monitor was created, for the dashboard and dumps
+    private long mFramesTotal;
+    private final long[] mMalformedTotal = new long[REASONS];
+
+    public LinkQualityMonitor() {
+        for (int i = 0; i < WINDOW_COUNT; i++) {
+            clearWindow(i);
+        }
+    }
+
+    /**
+     * Called for every frame that arrives, good or bad.
+     */
+    public synchronized void onFrame(long now) {
+        int i = windowFor(now);
+        mFrames[i]++;
+        mFramesTotal++;
+
+        if (mLastFrameTime >= 0) {
+            long gap = now - mLastFrameTime;
+            if (gap > GAP_THRESHOLD_MS)
+                mGaps[i]++;
+            if (gap > mMaxGap[i])
+                mMaxGap[i] = gap;
+        }
+        mLastFrameTime = now;
+    }
+
+    public synchronized void onMalformed(MalformedReason reason, long now) {
+        mMalformed[reason.ordinal()][windowFor(now)]++;
+        mMalformedTotal[reason.ordinal()]++;
+    }
+
+    public synchronized void onRssi(int rssi, long now) {
+        int i = windowFor(now);
+        mLastRssi[i] = rssi;
+        if (mMinRssi[i] == NO_RSSI || rssi < mMinRssi[i])
+            mMinRssi[i] = rssi;
+    }
+
+    /**
+     * The link went down.  The silence until it is back up is not a gap.
+     */
+    public synchronized void onDisconnected() {
+        mLastFrameTime = -1;
+    }
+
+    public synchronized long getFrameTotal() {
+        return mFramesTotal;
+    }
+
+    public synchronized long getMalformedTotal() {
+        long total = 0;
+        for (long count : mMalformedTotal) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Sums the last {@code seconds} complete windows, or as many as there have been.
+     */
+    public synchronized void getSummary(long now, int seconds, Summary out) {
+        long current = now / WINDOW_MS;
+        windowFor(now);
+
+        int windows = (int) Math.min(Math.min(seconds * 1000 / WINDOW_MS, WINDOW_COUNT - 1),
+                current - mFirstWindow);
+
+        out.seconds = (int) (windows * WINDOW_MS / 1000);
+        out.frames = 0;
+        out.malformedTotal = 0;
+        for (int r = 0; r < REASONS; r++) {
+            out.malformed[r] = 0;
+        }
+        out.gaps = 0;
+        out.maxGapMs = 0;
+        out.hasRssi = false;
+        out.rssi = 0;
+        out.minRssi = 0;
+
+        // Oldest first, so the last RSSI seen is the newest
+        for (long window = current - windows; window < current; window++) {
+            int i = index(window);
+            out.frames += mFrames[i];
+            for (int r = 0; r < REASONS; r++) {
+                out.malformed[r] += mMalformed[r][i];
+                out.malformedTotal += mMalformed[r][i];
+            }
+            out.gaps += mGaps[i];
+            out.maxGapMs = Math.max(out.maxGapMs, mMaxGap[i]);
+
+            if (mLastRssi[i] != NO_RSSI) {
+                out.minRssi = out.hasRssi ? Math.min(out.minRssi, mMinRssi[i]) : mMinRssi[i];
+                out.rssi = mLastRssi[i];
+                out.hasRssi = true;
+            }
+        }
+
+        out.framesPerSecond = windows == 0 ? 0 : out.frames * 1000f / (windows * WINDOW_MS);
+        out.malformedRatio = out.frames == 0 ? 0 : (float) out.malformedTotal / out.frames;
+    }
+
+    /**
+     * @return The last {@code seconds} on one line, and the malformed totals by reason.
+     */
+    public String getReport(long now, int seconds) {
+        Summary summary = new Summary();
+        getSummary(now, seconds, summary);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "last %ds: %.1f fps, %.2f%% malformed, %d gaps, max gap %dms",
+                summary.seconds, summary.framesPerSecond, summary.malformedRatio * 100,
+                summary.gaps, summary.maxGapMs));
+        if (summary.hasRssi)
+            sb.append(String.format(Locale.US, ", rssi %d dBm (min %d)", summary.rssi, summary.minRssi));
+
+        synchronized (this) {
+            sb.append("; total frames=").append(mFramesTotal);
+            for (MalformedReason reason : MalformedReason.values()) {
+                sb.append(' ').append(reason).append('=').append(mMalformedTotal[reason.ordinal()]);
+            }
+        }
+        return sb.toString();
+    }
+
+    // Moves the ring on to the window holding now, clearing the ones it skips over.
+    private int windowFor(long now) {
+        long window = now / WINDOW_MS;
+        if (mCurrentWindow < 0) {
+            mFirstWindow = window;
+            mCurrentWindow = window;
+        } else if (window - mCurrentWindow >= WINDOW_COUNT) {
+            for (int i = 0; i < WINDOW_COUNT; i++) {
+                clearWindow(i);
+            }
+            mCurrentWindow = window;
+        } else {
+            while (mCurrentWindow < window) {
+                mCurrentWindow++;
+                clearWindow(index(mCurrentWindow));
+            }
+        }
+        // A time slightly behind the current window, from another thread, counts in the current one.
+        return index(mCurrentWindow);
+    }
+
+    private static int index(long window) {
+        return (int) (window % WINDOW_COUNT);
+    }
+
+    private void clearWindow(int i) {
+        mFrames[i] = 0;
+        for (int r = 0; r < REASONS; r++) {
+            mMalformed[r][i] = 0;
+        }
+        mGaps[i] = 0;
+        mMaxGap[i] = 0;
+        mLastRssi[i] = NO_RSSI;
+        mMinRssi[i] = NO_RSSI;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+import java.io.PrintWriter;
+
+/**
+ * Latency histograms for each stage of the telemetry pipeline, from the GATT notification to
+ * the gauge being drawn, from the decoder to the watch message being sent, and from the
+ * notification to a ride alert going off.  Times come from {@code System.nanoTime()}.
+ *
+ * The watch keeps its own histograms for the receive to draw stage; the two clocks can't be
+ * compared, so the phone to watch hop itself isn't measured.
+ */
+public class PipelineLatency {
+
+    public enum Stage
+    {
+        gattToDecode,   // notification callback to the decode pool picking the frame up
+        decode,         // parsing the frame
+        dispatch,       // decoded to the gauges taking the reading
+        display,        // displayData() on the UI thread
+        draw,           // gauge invalidated to gauge drawn
+        wearSend,       // decoded to the watch message sent
+        alert,          // notification callback to the alert's vibration and tone started
+        linkAlert       // link found lost to the lost-link alert's vibration and tone started
+    }
+
+    private static final LatencyHistogram[] sHistograms;
+
+    static {
+        Stage[] stages = Stage.values();
+        sHistograms = new LatencyHistogram[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            sHistograms[i] = new LatencyHistogram(stages[i].name());
+        }
+    }
+
+    public static LatencyHistogram get(Stage stage) {
+        return sHistograms[stage.ordinal()];
+    }
+
+    /**
+     * Records the time since {@code startNanos} against a stage.
+     */
+    public static void recordSince(Stage stage, long startNanos) {
+        sHistograms[stage.ordinal()].recordSince(startNanos);
+    }
+
+    public static void reset() {
+        for (LatencyHistogram histogram : sHistograms) {
+            histogram.reset();
+        }
+    }
+
+    public static String getReport() {
+        StringBuilder sb = new StringBuilder();
+        for (LatencyHistogram histogram : sHistograms) {
+            sb.append(histogram).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static void dump(PrintWriter writer) {
+        writer.println("Pipeline latency:");
+        for (LatencyHistogram histogram : sHistograms) {
+            writer.print("  ");
+            writer.println(histogram);
+        }
+    }
+}
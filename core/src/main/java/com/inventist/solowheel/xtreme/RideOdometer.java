@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+/**
+ * Trip and lifetime distance, ride time and battery used, counted from every reading of the
+ * primary wheel.
+ *
+ * The counters live in memory and are updated per frame without touching the disk; the owner
+ * saves them into a {@link #PAYLOAD_LENGTH} byte record from time to time and restores them
+ * from the last one at startup.  Readings counted before the restore are added to it rather
+ * than lost.
+ *
+ * The Xtreme reports no current, so energy is counted as battery used: the falls in the charge
+ * estimate, in percent of a full charge.  A rise of more than {@link #CHARGE_PERCENT} is taken
+ * for a charge and starts counting afresh.
+ *
+ * Like {@link LinkQualityMonitor} it has no Android dependencies; times are passed in, in
+ * nanoseconds of {@code System.nanoTime()}.
+ */
+public class RideOdometer {
+
+    public static final int PAYLOAD_LENGTH = 6 * 8;
+
+    public static final double CHARGE_PERCENT = 5;
+
+    // The Xtreme notifies every 100 ms; a longer silence is a lost link, and isn't counted.
+    private static final long MAX_SAMPLE_GAP_NANOS = 1000000000L;
+
+    private static final double NANOS_PER_HOUR = 3600e9;
+
+    /**
+     * One set of counters.  Filled in by {@link #getTrip} and {@link #getLifetime} so a screen
+     * can reuse one instance on every refresh.
+     */
+    public static class Totals {
+        public double miles;
+        public long rideNanos;
+        public double batteryUsedPercent;
+
+        void add(Totals other) {
+            miles += other.miles;
+            rideNanos += other.rideNanos;
+            batteryUsedPercent += other.batteryUsedPercent;
+        }
+
+        void copyFrom(Totals other) {
+            miles = other.miles;
+            rideNanos = other.rideNanos;
+            batteryUsedPercent = other.batteryUsedPercent;
+        }
+
+        void clear() {
+            miles = 0;
+            rideNanos = 0;
+            batteryUsedPercent = 0;
+        }
+
+        int save(byte[] payload, int offset) {
+            CheckpointFile.putLong(payload, offset, Double.doubleToLongBits(miles));
+            CheckpointFile.putLong(payload, offset + 8, rideNanos);
+            CheckpointFile.putLong(payload, offset + 16, Double.doubleToLongBits(batteryUsedPercent));
+            return offset + 24;
+        }
+
+        int restore(byte[] payload, int offset) {
+            miles = Double.longBitsToDouble(CheckpointFile.getLong(payload, offset));
+            rideNanos = CheckpointFile.getLong(payload, offset + 8);
+            batteryUsedPercent = Double.longBitsToDouble(CheckpointFile.getLong(payload, offset + 16));
+            return offset + 24;
+        }
+    }
+
+    private final Totals mTrip = new Totals();
+    private final Totals mLifetime = new Totals();
+    private final Totals mRestored = new Totals();
+
+    private boolean mHasLastSample;
+    private long mLastNanos;
+    private double mLowestPercent = -1;
+    private boolean mDirty;
+
+    /**
+     * Counts one reading.  Called from the decode pool for every frame of the primary wheel.
+     *
+     * @param percent The charge estimate, 0 for no reading.
+     * @return Whether anything was counted since the last {@link #save}.
+     */
+    public synchronized boolean onSample(double speedMPH, double percent, long nowNanos) {
+        // System.nanoTime() may be 0 or negative, so no value can stand for "no reading".
+        long elapsed = mHasLastSample ? nowNanos - mLastNanos : 0;
+        mHasLastSample = true;
+        mLastNanos = nowNanos;
+
+        if (speedMPH > 0 && elapsed > 0 && elapsed <= MAX_SAMPLE_GAP_NANOS) {
+            double miles = speedMPH * elapsed / NANOS_PER_HOUR;
+            mTrip.miles += miles;
+            mTrip.rideNanos += elapsed;
+            mLifetime.miles += miles;
+            mLifetime.rideNanos += elapsed;
+            mDirty = true;
+        }
+
+        if (percent <= 0)
+            return mDirty;
+        if (mLowestPercent < 0 || percent > mLowestPercent + CHARGE_PERCENT) {
+            mLowestPercent = percent;
+        } else if (percent < mLowestPercent) {
+            double used = mLowestPercent - percent;
+            mTrip.batteryUsedPercent += used;
+            mLifetime.batteryUsedPercent += used;
+            mLowestPercent = percent;
+            mDirty = true;
+        }
+        return mDirty;
+    }
+
+    /**
+     * Forgets the last reading, so that the time until the next one, after a lost link or with
+     * a different wheel, isn't counted.
+     */
+    public synchronized void pause() {
+        mHasLastSample = false;
+        mLowestPercent = -1;
+    }
+
+    public synchronized void resetTrip() {
+        mTrip.clear();
+        mDirty = true;
+    }
+
+    public synchronized void getTrip(Totals out) {
+        out.copyFrom(mTrip);
+    }
+
+    public synchronized void getLifetime(Totals out) {
+        out.copyFrom(mLifetime);
+    }
+
+    /**
+     * @return Whether anything was counted since the last {@link #save}.
+     */
+    public synchronized boolean isDirty() {
+        return mDirty;
+    }
+
+    /**
+     * Saves the counters into a record of {@link #PAYLOAD_LENGTH} bytes.
+     */
+    public synchronized void save(byte[] payload) {
+        mLifetime.save(payload, mTrip.save(payload, 0));
+        mDirty = false;
+    }
+
+    /**
+     * Adds the counters saved in a record to those counted so far.
+     */
+    public synchronized void restore(byte[] payload) {
+        int offset = mRestored.restore(payload, 0);
+        mTrip.add(mRestored);
+        mRestored.restore(payload, offset);
+        mLifetime.add(mRestored);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sections, async slices and counters for systrace and Perfetto, so the telemetry pipeline can
+ * be lined up against the system's scheduling in one capture.
+ *
+ * Markers are off until {@link #setEnabled} turns them on, and while they are off each one
+ * costs a volatile read.  They go to a {@link Tracer}: by default {@code android.os.Trace},
+ * looked up by reflection so that this class, shared by the phone and the watch, has no
+ * Android dependency.  On a plain JVM there is no such class and the markers go nowhere, unless
+ * a test or benchmark sets a tracer of its own.
+ *
+ * Async slices and counters have no public API before Q, so they go through the hidden
+ * {@code Trace} methods.  The reflective calls box their arguments, which only matters while a
+ * capture is being taken.
+ *
+ * Section and slice names must be constants; building them per call would allocate whether or
+ * not anything is listening.
+ */
+public class SystemTrace {
+
+    /**
+     * Receives the markers while they are on.
+     */
+    public interface Tracer {
+        void beginSection(String name);
+
+        void endSection();
+
+        void beginAsync(String name, int cookie);
+
+        void endAsync(String name, int cookie);
+
+        void counter(String name, int value);
+    }
+
+    private static volatile boolean sEnabled;
+    private static volatile Tracer sTracer = PlatformTracer.create();
+    private static final AtomicInteger sNextCookie = new AtomicInteger();
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Sections opened before the markers are turned off are still closed.  Turning them on
+     * without a tracer does nothing.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled && sTracer != null;
+    }
+
+    /**
+     * Replaces the tracer, or removes it when passed null, which also turns the markers off.
+     * Meant to be called before turning them on.
+     */
+    public static void setTracer(Tracer tracer) {
+        sTracer = tracer;
+        if (tracer == null)
+            sEnabled = false;
+    }
+
+    /**
+     * @return A cookie for an async slice, unique among the slices in flight.
+     */
+    public static int nextCookie() {
+        return sNextCookie.incrementAndGet();
+    }
+
+    /**
+     * Opens a section on the calling thread.  Every call must be paired with
+     * {@link #endSection} on the same thread, in a finally block where the section can throw.
+     *
+     * @return Whether a section was opened, to pass to {@link #endSection}.
+     */
+    public static boolean beginSection(String name) {
+        if (!sEnabled)
+            return false;
+
+        sTracer.beginSection(name);
+        return true;
+    }
+
+    public static void endSection(boolean begun) {
+        if (begun)
+            sTracer.endSection();
+    }
+
+    /**
+     * Starts a slice that may end on another thread.  Slices of the same name that overlap need
+     * different cookies.
+     */
+    public static void beginAsync(String name, int cookie) {
+        if (sEnabled)
+            sTracer.beginAsync(name, cookie);
+    }
+
+    public static void endAsync(String name, int cookie) {
+        if (sEnabled)
+            sTracer.endAsync(name, cookie);
+    }
+
+    public static void counter(String name, int value) {
+        if (sEnabled)
+            sTracer.counter(name, value);
+    }
+
+    /**
+     * Forwards the markers to {@code android.os.Trace}.
+     */
+    private static class PlatformTracer implements Tracer {
+
+        // Trace.TRACE_TAG_APP, the tag systrace's -a option enables
+        private static final Long TRACE_TAG_APP = 1L << 12;
+
+        private final Method mBeginSection;
+        private final Method mEndSection;
+        private final Method mAsyncBegin;
+        private final Method mAsyncEnd;
+        private final Method mCounter;
+
+        /**
+         * @return null when there is no {@code android.os.Trace}, on a JVM or before 4.3.
+         */
+        static Tracer create() {
+            try {
+                return new PlatformTracer(Class.forName("android.os.Trace"));
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        private PlatformTracer(Class<?> trace) throws NoSuchMethodException {
+            mBeginSection = trace.getMethod("beginSection", String.class);
+            mEndSection = trace.getMethod("endSection");
+            mAsyncBegin = find(trace, "asyncTraceBegin");
+            mAsyncEnd = find(trace, "asyncTraceEnd");
+            mCounter = find(trace, "traceCounter");
+        }
+
+        // The hidden methods may be missing; sections work without them.
+        private static Method find(Class<?> trace, String name) {
+            try {
+                return trace.getMethod(name, long.class, String.class, int.class);
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void beginSection(String name) {
+            invoke(mBeginSection, name);
+        }
+
+        @Override
+        public void endSection() {
+            invoke(mEndSection);
+        }
+
+        @Override
+        public void beginAsync(String name, int cookie) {
+            if (mAsyncBegin != null)
+                invoke(mAsyncBegin, TRACE_TAG_APP, name, cookie);
+        }
+
+        @Override
+        public void endAsync(String name, int cookie) {
+            if (mAsyncEnd != null)
+                invoke(mAsyncEnd, TRACE_TAG_APP, name, cookie);
+        }
+
+        @Override
+        public void counter(String name, int value) {
+            if (mCounter != null)
+                invoke(mCounter, TRACE_TAG_APP, name, value);
+        }
+
+        private static void invoke(Method method, Object... args) {
+            try {
+                method.invoke(null, args);
+            } catch (Exception e) {
+                // Not expected once the method was found; not worth failing a frame over.
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the latest reading of the primary wheel to the gauges.
+ *
+ * The decoder writes each reading into a triple buffer and posts at most one delivery to the
+ * UI thread at a time.  When the UI thread falls behind, through GC, layout or a Toast, the
+ * readings that arrive meanwhile overwrite each other rather than queueing up, and the UI draws
+ * only the newest one once it is free.  Readings overwritten or cleared before the UI took them
+ * are counted as conflated, whether or not there was a consumer, so once no reading is waiting
+ * the delivered and conflated counts add up to the published count.
+ *
+ * Neither side takes a lock the other holds, and neither side allocates.
+ */
+public class TelemetrySlot {
+
+    /**
+     * One reading.  A sample passed to {@link Consumer#onSample} belongs to the UI thread until
+     * the method returns.
+     */
+    public static class Sample {
+        public double speedMPH;
+        public double percent;
+        public double batteryVolts;
+        public boolean forward;
+
+        // System.nanoTime() of the decode, 0 when the sample is delivered again
+        public long decodedNanos;
+
+        boolean valid;
+    }
+
+    /**
+     * Receives readings on the UI thread.
+     */
+    public interface Consumer {
+        void onSample(Sample sample);
+    }
+
+    // The middle buffer's index, with DIRTY set while it holds a reading the UI hasn't taken
+    private static final int INDEX = 3;
+    private static final int DIRTY = 4;
+
+    private final Executor mUiExecutor;
+    private final Sample[] mBuffers = { new Sample(), new Sample(), new Sample() };
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+    private final AtomicBoolean mPending = new AtomicBoolean();
+    private volatile Consumer mConsumer;
+    private volatile boolean mRedeliver;
+
+    // Owned by the writer, under the slot's lock
+    private int mWrite = 0;
+    private volatile long mPublished;
+    private volatile long mConflated;
+
+    // Owned by the UI thread
+    private int mRead = 2;
+    private volatile long mDelivered;
+
+    private final Runnable mDeliverRunnable = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    /**
+     * @param uiExecutor Runs deliveries on the UI thread.
+     */
+    public TelemetrySlot(Executor uiExecutor) {
+        mUiExecutor = uiExecutor;
+    }
+
+    /**
+     * Sets the consumer, or removes it when passed null.  A new consumer is given the latest
+     * reading, if there is one.
+     */
+    public void setConsumer(Consumer consumer) {
+        mConsumer = consumer;
+        if (consumer != null)
+            redeliver();
+    }
+
+    /**
+     * Stores a reading and schedules its delivery.  Called from the decode pool.
+     */
+    public synchronized void publish(double speedMPH, double percent, double batteryVolts,
+                                     boolean forward, long decodedNanos) {
+        Sample sample = mBuffers[mWrite];
+        sample.speedMPH = speedMPH;
+        sample.percent = percent;
+        sample.batteryVolts = batteryVolts;
+        sample.forward = forward;
+        sample.decodedNanos = decodedNanos;
+        sample.valid = true;
+
+        int previous = mMiddle.getAndSet(mWrite | DIRTY);
+        mWrite = previous & INDEX;
+        mPublished++;
+        if ((previous & DIRTY) != 0 && mBuffers[mWrite].valid)
+            mConflated++;
+
+        if (mConsumer != null)
+            schedule();
+    }
+
+    /**
+     * Forgets the latest reading, for a new primary wheel or a lost link.
+     */
+    public synchronized void clear() {
+        mBuffers[mWrite].valid = false;
+        int previous = mMiddle.getAndSet(mWrite | DIRTY);
+        mWrite = previous & INDEX;
+        if ((previous & DIRTY) != 0 && mBuffers[mWrite].valid)
+            mConflated++;
+    }
+
+    /**
+     * Delivers the latest reading again, for a consumer that is showing a different one.
+     */
+    public void redeliver() {
+        mRedeliver = true;
+        schedule();
+    }
+
+    public long getPublishedCount() {
+        return mPublished;
+    }
+
+    public long getDeliveredCount() {
+        return mDelivered;
+    }
+
+    /**
+     * @return Readings that were replaced by a newer one, or cleared, before the UI took them.
+     */
+    public long getConflatedCount() {
+        return mConflated;
+    }
+
+    private void schedule() {
+        if (mPending.compareAndSet(false, true))
+            mUiExecutor.execute(mDeliverRunnable);
+    }
+
+    private void deliver() {
+        // Cleared first, so a reading published from here on schedules another delivery.
+        mPending.set(false);
+
+        // Without a consumer the reading is left for the next one.
+        Consumer consumer = mConsumer;
+        if (consumer == null)
+            return;
+
+        boolean fresh = (mMiddle.get() & DIRTY) != 0;
+        if (fresh)
+            mRead = mMiddle.getAndSet(mRead) & INDEX;
+
+        boolean redeliver = mRedeliver;
+        mRedeliver = false;
+
+        Sample sample = mBuffers[mRead];
+        if (!sample.valid || !(fresh || redeliver))
+            return;
+
+        if (fresh)
+            mDelivered++;
+        consumer.onSample(sample);
+
+        // A reading delivered again would skew the dispatch latency.
+        sample.decodedNanos = 0;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory trace of the telemetry hot paths, in place of logging every frame.
+ *
+ * Each event is four longs written into a preallocated ring: the {@code System.nanoTime()},
+ * the event and thread, and two event-specific values.  No strings are built until the ring
+ * is dumped, and while tracing is off an event costs one volatile read.  Once the ring is full
+ * the oldest events are overwritten.
+ *
+ * Writers don't lock; an event that is overwritten while the ring is being dumped may come out
+ * torn.
+ */
+public class TraceRing {
+
+    public static final int CAPACITY = 4096;
+
+    public enum Event
+    {
+        frameReceived,      // a = bytes, b = frames waiting to decode
+        frameDecoded,       // a = speed in cm/s, b = battery in tenths of a volt
+        frameMalformed,     // a = LinkQualityMonitor.MalformedReason ordinal
+        gattOpComplete,     // a = GattOperationQueue.OperationType ordinal, b = latency in ms
+        scanResult,         // a = rssi, b = address hash
+        wearSent,           // a = battery percent, b = speed in tenths
+        watchMessage,       // a = battery percent, b = speed in tenths
+        watchDrawn,         // a = battery percent, b = draw time in us
+        alert               // a = AlertEngine.Alert ordinal, b = 1 raised, 0 cleared
+    }
+
+    private static final int SLOT = 4;
+    private static final Event[] EVENTS = Event.values();
+
+    private static volatile boolean sEnabled;
+    private static final long[] sRing = new long[CAPACITY * SLOT];
+    private static final AtomicLong sNext = new AtomicLong();
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static void event(Event event, long a, long b) {
+        if (!sEnabled)
+            return;
+
+        int i = (int) (sNext.getAndIncrement() & (CAPACITY - 1)) * SLOT;
+        sRing[i] = System.nanoTime();
+        sRing[i + 1] = ((long) event.ordinal() << 32) | (Thread.currentThread().getId() & 0xffffffffL);
+        sRing[i + 2] = a;
+        sRing[i + 3] = b;
+    }
+
+    public static void clear() {
+        sNext.set(0);
+    }
+
+    /**
+     * Prints the events oldest first, with times in milliseconds before the newest one.
+     */
+    public static void dump(PrintWriter writer) {
+        long next = sNext.get();
+        long first = Math.max(0, next - CAPACITY);
+        writer.println("Trace: " + (next - first) + " of " + next + " events"
+                + (sEnabled ? "" : " (disabled)"));
+        if (next == first)
+            return;
+
+        long newest = sRing[(int) ((next - 1) & (CAPACITY - 1)) * SLOT];
+        for (long n = first; n < next; n++) {
+            int i = (int) (n & (CAPACITY - 1)) * SLOT;
+            int event = (int) (sRing[i + 1] >>> 32);
+            writer.println(String.format(Locale.US, "%10.3f t%-5d %-15s %d %d",
+                    (sRing[i] - newest) / 1e6, sRing[i + 1] & 0xffffffffL,
+                    event < EVENTS.length ? EVENTS[event].name() : "?", sRing[i + 2], sRing[i + 3]));
+        }
+    }
+
+    /**
+     * Writes the dump to a file, replacing it.
+     */
+    public static void writeTo(File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            dump(writer);
+        } finally {
+            writer.close();
+        }
+        if (writer.checkError())
+            throw new IOException("Error writing " + file);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+/**
+ * What the watch face is showing, as last reported by the watch.  The watch message sender
+ * sends every reading only while the face is interactive; otherwise it sends coarse updates.
+ *
+ * The watch reports its mode with {@link Mode}'s names as the payload of a {@link #MODE_PATH}
+ * message.
+ */
+public class WatchState {
+
+    public static final String MODE_PATH = "/solowheelxtreme/mode";
+
+    public enum Mode
+    {
+        interactive,
+        ambient,
+        hidden
+    }
+
+    // Until the watch says otherwise, assume it is being looked at.
+    private static volatile Mode sMode = Mode.interactive;
+
+    public static Mode getMode() {
+        return sMode;
+    }
+
+    /**
+     * Takes a mode message from the watch; the payload is the mode's name.
+     */
+    public static void onModeMessage(byte[] data) {
+        try {
+            sMode = Mode.valueOf(new String(data));
+        } catch (IllegalArgumentException e) {
+            // From a newer watch app; keep the current mode.
+        }
+    }
+
+    /**
+     * The watch is gone, or the link to it; the next one starts out interactive.
+     */
+    public static void reset() {
+        sMode = Mode.interactive;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+/**
+ * The reading the phone sends the watch: battery percent, speed to one decimal and units, as
+ * text, for example "87,12.5,MPH".  Both numbers are non-negative.
+ *
+ * Both ends encode, decode and format the message in place, without building strings, so a
+ * reading costs no garbage on either side beyond the byte array the Wearable API carries.
+ */
+public class WearMessage {
+
+    /**
+     * The Wearable message path the readings are sent on.
+     */
+    public static final String PATH = "/solowheelxtreme";
+
+    /**
+     * Room enough for any message, and for the formatted speed or battery.
+     */
+    public static final int MAX_LENGTH = 32;
+
+    private static final byte[] MPH = { 'M', 'P', 'H' };
+    private static final byte[] KPH = { 'K', 'P', 'H' };
+
+    public int batteryPercent;
+    public int speedTenths;
+    public boolean mph;
+
+    public void set(int batteryPercent, double speed, boolean mph) {
+        this.batteryPercent = Math.max(batteryPercent, 0);
+        this.speedTenths = (int) Math.max(Math.round(speed * 10), 0);
+        this.mph = mph;
+    }
+
+    public void copyFrom(WearMessage other) {
+        batteryPercent = other.batteryPercent;
+        speedTenths = other.speedTenths;
+        mph = other.mph;
+    }
+
+    public float getSpeed() {
+        return speedTenths / 10f;
+    }
+
+    /**
+     * @param out At least {@link #MAX_LENGTH} long.
+     * @return The number of bytes written.
+     */
+    public int encode(byte[] out) {
+        int length = writeInt(out, 0, batteryPercent);
+        out[length++] = ',';
+        length = writeTenths(out, length, speedTenths);
+        out[length++] = ',';
+        byte[] units = mph ? MPH : KPH;
+        System.arraycopy(units, 0, out, length, units.length);
+        return length + units.length;
+    }
+
+    /**
+     * @return The message in an array of its own, as {@code MessageApi.sendMessage} takes no
+     *         length.
+     */
+    public byte[] toBytes() {
+        byte[] buffer = new byte[MAX_LENGTH];
+        int length = encode(buffer);
+        byte[] message = new byte[length];
+        System.arraycopy(buffer, 0, message, 0, length);
+        return message;
+    }
+
+    /**
+     * Reads a message.  Speeds with more than one decimal are truncated to one.
+     *
+     * @return False, leaving the fields as they were, if the message is malformed.
+     */
+    public boolean decode(byte[] data) {
+        int length = data.length;
+        int i = 0;
+
+        int percent = 0;
+        int start = i;
+        while (i < length && isDigit(data[i])) {
+            percent = percent * 10 + data[i++] - '0';
+        }
+        if (i == start || i == length || data[i++] != ',')
+            return false;
+
+        int tenths = 0;
+        start = i;
+        while (i < length && isDigit(data[i])) {
+            tenths = tenths * 10 + data[i++] - '0';
+        }
+        if (i == start)
+            return false;
+        tenths *= 10;
+        if (i < length && data[i] == '.') {
+            i++;
+            if (i < length && isDigit(data[i]))
+                tenths += data[i] - '0';
+            while (i < length && isDigit(data[i])) {
+                i++;
+            }
+        }
+        if (i == length || data[i++] != ',')
+            return false;
+
+        boolean isMph;
+        if (matches(data, i, MPH))
+            isMph = true;
+        else if (matches(data, i, KPH))
+            isMph = false;
+        else
+            return false;
+
+        batteryPercent = percent;
+        speedTenths = tenths;
+        mph = isMph;
+        return true;
+    }
+
+    /**
+     * Formats the speed and units for display, for example "12.5 MPH".
+     *
+     * @param out At least {@link #MAX_LENGTH} long.
+     * @return The number of chars written.
+     */
+    public int formatSpeed(char[] out) {
+        int length = writeInt(out, 0, speedTenths / 10);
+        out[length++] = '.';
+        out[length++] = (char) ('0' + speedTenths % 10);
+        out[length++] = ' ';
+        byte[] units = mph ? MPH : KPH;
+        for (byte b : units) {
+            out[length++] = (char) b;
+        }
+        return length;
+    }
+
+    /**
+     * Formats the battery for display, for example "87%".
+     *
+     * @param out At least {@link #MAX_LENGTH} long.
+     * @return The number of chars written.
+     */
+    public int formatBattery(char[] out) {
+        int length = writeInt(out, 0, batteryPercent);
+        out[length++] = '%';
+        return length;
+    }
+
+    private static int writeInt(byte[] out, int offset, int value) {
+        int end = offset + digitCount(value);
+        for (int i = end - 1; i >= offset; i--) {
+            out[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    private static int writeInt(char[] out, int offset, int value) {
+        int end = offset + digitCount(value);
+        for (int i = end - 1; i >= offset; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    private static int writeTenths(byte[] out, int offset, int tenths) {
+        int length = writeInt(out, offset, tenths / 10);
+        out[length++] = '.';
+        out[length++] = (byte) ('0' + tenths % 10);
+        return length;
+    }
+
+    private static int digitCount(int value) {
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            count++;
+        }
+        return count;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean matches(byte[] data, int offset, byte[] expected) {
+        if (data.length - offset != expected.length)
+            return false;
+        for (int i = 0; i < expected.length; i++) {
+            if (data[offset + i] != expected[i])
+                return false;
+        }
+        return true;
+    }
+}
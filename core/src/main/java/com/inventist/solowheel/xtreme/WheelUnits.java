@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+/**
+ * Conversions from the Xtreme's raw readings to what the rider sees, shared by the gauges, the
+ * dashboard, the ride notification and the watch.
+ */
+public class WheelUnits {
+
+    public static final double KPH_PER_MPH = 1.6;
+
+    public static double toMPH(int speedCmPerSecond) {
+        double fudgeFactor = .80;
+        double speedCmPerHour = speedCmPerSecond * fudgeFactor * 60 * 60;
+        double speedKmPerHour = speedCmPerHour / 100000;
+        return speedKmPerHour * 0.6214;
+    }
+
+    /**
+     * @return The charge left, from 0 to 100, estimated from the pack voltage.  0 for no reading.
+     */
+    public static double toPercent(double batteryVolts) {
+        if (batteryVolts == 0)
+            return 0;
+
+        double full = 58.0;
+
+        // Mine vibrated at 46.8v when I ran it down completely.
+        double empty = 47.0;
+
+        double fullRange = full - empty;
+        double actualRange = Math.max(batteryVolts - empty, 0);  // don't allow negative
+
+        return Math.min((actualRange * 100) / fullRange, 100.0);
+    }
+
+    /**
+     * @param iso3Country As returned by {@code Locale.getISO3Country()}.
+     * @return Whether speeds are shown in MPH rather than KPH.
+     */
+    public static boolean usesMph(String iso3Country) {
+        return iso3Country.equalsIgnoreCase("usa") || iso3Country.equalsIgnoreCase("mmr");
+    }
+
+    public static double toDisplaySpeed(double speedMPH, boolean mph) {
+        return mph ? speedMPH : speedMPH * KPH_PER_MPH;
+    }
+
+    public static String getSpeedUnits(boolean mph) {
+        return mph ? "MPH" : "KPH";
+    }
+
+    public static double toDisplayDistance(double miles, boolean mph) {
+        return mph ? miles : miles * KPH_PER_MPH;
+    }
+
+    public static String getDistanceUnits(boolean mph) {
+        return mph ? "mi" : "km";
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+/**
+ * The Xtreme's frame: speed in cm/s, battery in tenths of a volt and direction, as three comma
+ * separated decimal fields, for example {@code "00412,00575,00001"}.  Fields may be padded with
+ * spaces and the frame may end with a line break.  A direction of 1 is forward.
+ *
+ * As with the original parser, a signed speed or one with a fraction is read; the fraction is
+ * dropped and a negative speed is a bad value.
+ */
+public class XtremeFrameDecoder implements FrameDecoder {
+
+    private static final int FIELDS = 3;
+
+    // What parseField returns for a field that isn't a number
+    private static final int NOT_A_NUMBER = Integer.MIN_VALUE;
+
+    @Override
+    public String getName() {
+        return "xtreme";
+    }
+
+    @Override
+    public boolean matches(byte[] data, int offset, int length) {
+        int commas = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = data[i];
+            if (b == ',')
+                commas++;
+            else if ((b < '0' || b > '9') && b != '-' && b != '.' && !isSpace(b))
+                return false;
+        }
+        return commas == FIELDS - 1;
+    }
+
+    @Override
+    public LinkQualityMonitor.MalformedReason decode(byte[] data, int offset, int length, Sample out) {
+        int end = offset + length;
+
+        // Find the ends of the first two fields
+        int firstComma = indexOf(data, offset, end, (byte) ',');
+        int secondComma = firstComma < 0 ? -1 : indexOf(data, firstComma + 1, end, (byte) ',');
+        if (secondComma < 0 || indexOf(data, secondComma + 1, end, (byte) ',') >= 0)
+            return LinkQualityMonitor.MalformedReason.fieldCount;
+
+        // If the last field doesn't look like the direction, ignore the message
+        int direction = parseField(data, secondComma + 1, end, false);
+        if (direction != Sample.REVERSE && direction != Sample.FORWARD)
+            return LinkQualityMonitor.MalformedReason.badDirection;
+        out.direction = direction;
+
+        // This is a guard for an unsupported firmware version that doesn't send correct data.
+        // The logic assumption here is the correct firmware will always send a non-zero battery voltage.
+        int battery = parseField(data, firstComma + 1, secondComma, false);
+        if (battery == 0)
+            return LinkQualityMonitor.MalformedReason.badFirmware;
+
+        int speed = parseField(data, offset, firstComma, true);
+        out.speedCmPerSecond = Math.max(speed, 0);
+        out.batteryDecivolts = Math.max(battery, 0);
+        return (speed < 0 || battery < 0) ? LinkQualityMonitor.MalformedReason.badValue : null;
+    }
+
+    private static int indexOf(byte[] data, int from, int end, byte b) {
+        for (int i = from; i < end; i++) {
+            if (data[i] == b)
+                return i;
+        }
+        return -1;
+    }
+
+    // Parses a signed decimal field between spaces, dropping any fraction if allowed.  Returns
+    // NOT_A_NUMBER if the field is empty or not a number.
+    private static int parseField(byte[] data, int from, int to, boolean allowFraction) {
+        while (from < to && isSpace(data[from]))
+            from++;
+        while (to > from && isSpace(data[to - 1]))
+            to--;
+
+        boolean negative = from < to && data[from] == '-';
+        if (negative)
+            from++;
+        if (allowFraction) {
+            int point = indexOf(data, from, to, (byte) '.');
+            if (point >= 0) {
+                for (int i = point + 1; i < to; i++) {
+                    if (data[i] < '0' || data[i] > '9')
+                        return NOT_A_NUMBER;
+                }
+                to = point;
+            }
+        }
+        if (from == to || to - from > 9)
+            return NOT_A_NUMBER;
+
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9)
+                return NOT_A_NUMBER;
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\r' || b == '\n' || b == '\t' || b == 0;
+    }
+}
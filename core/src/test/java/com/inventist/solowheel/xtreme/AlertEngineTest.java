@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AlertEngineTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final List<String> mAlerts = new ArrayList<String>();
+    private AlertEngine mEngine;
+
+    @Before
+    public void setUp() {
+        mEngine = new AlertEngine(new AlertEngine.Listener() {
+            @Override
+            public void onAlert(AlertEngine.Alert alert, boolean raised, long sinceNanos) {
+                mAlerts.add(alert + (raised ? " raised at " : " cleared at ") + sinceNanos / MS);
+            }
+        });
+    }
+
+    @Test
+    public void overspeedIsDebounced() {
+        mEngine.onSample(12, 80, 0);
+        mEngine.onSample(12, 80, 100 * MS);
+        mEngine.onSample(9, 80, 200 * MS);
+        mEngine.onSample(12, 80, 300 * MS);
+        mEngine.onSample(12, 80, 400 * MS);
+        assertTrue(mAlerts.isEmpty());
+
+        // The condition has held again since 300 ms
+        mEngine.onSample(12, 80, 550 * MS);
+        assertEquals(Arrays.asList("overspeed raised at 550"), mAlerts);
+    }
+
+    @Test
+    public void aConditionHeldFromTimeZeroCounts() {
+        // A System.nanoTime() of 0 is as good as any other
+        mEngine.onSample(12, 80, 0);
+        mEngine.onSample(12, 80, 250 * MS);
+        assertEquals(Arrays.asList("overspeed raised at 250"), mAlerts);
+    }
+
+    @Test
+    public void alertsClearPastTheSecondThreshold() {
+        mEngine.setDebounce(AlertEngine.Alert.overspeed, 0);
+        mEngine.onSample(12, 80, 0);
+        mEngine.onSample(10.5, 80, 100 * MS);
+        assertTrue(mEngine.isRaised(AlertEngine.Alert.overspeed));
+        mEngine.onSample(9.5, 80, 200 * MS);
+        assertFalse(mEngine.isRaised(AlertEngine.Alert.overspeed));
+        assertEquals(Arrays.asList("overspeed raised at 0", "overspeed cleared at 200"), mAlerts);
+    }
+
+    @Test
+    public void lowBatteryIgnoresAMissingReading() {
+        mEngine.setDebounce(AlertEngine.Alert.lowBattery, 0);
+        mEngine.onSample(5, 0, 0);
+        assertFalse(mEngine.isRaised(AlertEngine.Alert.lowBattery));
+        mEngine.onSample(5, 15, 100 * MS);
+        assertTrue(mEngine.isRaised(AlertEngine.Alert.lowBattery));
+    }
+
+    @Test
+    public void aSampleAtTimeZeroArmsTheLinkCheck() {
+        mEngine.onSample(5, 80, 0);
+        mEngine.checkLink(AlertEngine.DEFAULT_LINK_TIMEOUT_NANOS);
+        assertTrue(mAlerts.isEmpty());
+        mEngine.checkLink(AlertEngine.DEFAULT_LINK_TIMEOUT_NANOS + MS);
+        assertEquals(Arrays.asList("linkLost raised at 1001"), mAlerts);
+
+        mEngine.onSample(5, 80, 1200 * MS);
+        assertEquals("linkLost cleared at 1200", mAlerts.get(1));
+    }
+
+    @Test
+    public void theLinkIsNotCheckedBeforeTheFirstSample() {
+        mEngine.checkLink(TimeUnit.SECONDS.toNanos(10));
+        assertTrue(mAlerts.isEmpty());
+    }
+
+    @Test
+    public void aResetDisarmsTheLinkCheck() {
+        mEngine.onSample(5, 80, 0);
+        mEngine.reset(100 * MS);
+        mEngine.checkLink(TimeUnit.SECONDS.toNanos(10));
+        assertTrue(mAlerts.isEmpty());
+    }
+
+    @Test
+    public void aLostLinkIsRaisedOnceUntilTheNextSample() {
+        mEngine.onSample(5, 80, 0);
+        mEngine.onLinkLost(500 * MS);
+        mEngine.checkLink(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(Arrays.asList("linkLost raised at 500"), mAlerts);
+    }
+}
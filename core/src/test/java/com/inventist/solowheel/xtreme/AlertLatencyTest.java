@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays rides through the phone's decode path into the alert engine, and measures the time
+ * from a frame's arrival to the engine having evaluated it and to any alert it raised.
+ *
+ * A ride is a text file of frames with their arrival times in milliseconds; the file format is
+ * described in the rides under src/test/resources/rides.  The ride is replayed
+ * {@link #SPEEDUP} times faster than it was ridden, with the engine on the ride's own clock,
+ * so the debounce and link timeout see the ride's timing.
+ */
+public class AlertLatencyTest {
+
+    private static final String SCRIPTED_RIDE = "/rides/scripted-ride.txt";
+
+    private static final int SPEEDUP = 20;
+    private static final int POOL_THREADS = 2;
+
+    // Bounds far above what the path takes, to catch a stall rather than to time it
+    private static final long MAX_EVALUATED_P99_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long MAX_ALERT_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    // The engine's clock at the start of a ride
+    private static final long RIDE_START_NANOS = TimeUnit.SECONDS.toNanos(1000);
+
+    private static class Ride {
+        final List<Long> millis = new ArrayList<Long>();
+        final List<byte[]> frames = new ArrayList<byte[]>();
+
+        static Ride load(String name) throws IOException {
+            InputStream in = AlertLatencyTest.class.getResourceAsStream(name);
+            assertNotNull(name, in);
+            Ride ride = new Ride();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, ASCII));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty() || line.startsWith("#"))
+                        continue;
+                    int space = line.indexOf(' ');
+                    ride.millis.add(Long.parseLong(line.substring(0, space)));
+                    ride.frames.add(line.substring(space + 1).getBytes(ASCII));
+                }
+            } finally {
+                reader.close();
+            }
+            return ride;
+        }
+    }
+
+    /**
+     * One wheel's decode path, as WheelConnection and the service wire it, feeding the engine.
+     */
+    private static class Replay implements FrameQueue.Sink, FrameReassembler.Listener,
+            AlertEngine.Listener {
+        final Ride ride;
+        final FrameQueue queue;
+        final FrameReassembler reassembler = new FrameReassembler(FrameReassembler.DEFAULT_CAPACITY, this);
+        final FrameDecoderRegistry decoders = new FrameDecoderRegistry();
+        final FrameDecoder.Sample sample = new FrameDecoder.Sample();
+        final AlertEngine engine = new AlertEngine(this);
+        final LatencyHistogram evaluated = new LatencyHistogram("frameToEvaluated");
+        final LatencyHistogram alerted = new LatencyHistogram("frameToAlert");
+        final List<String> alerts = Collections.synchronizedList(new ArrayList<String>());
+        final List<Long> alertMillis = Collections.synchronizedList(new ArrayList<Long>());
+
+        // Used by the pool thread draining the queue
+        int next;
+        long arrivalNanos;
+        long rideNanos;
+
+        volatile int processed;
+
+        Replay(Ride ride, ExecutorService pool) {
+            this.ride = ride;
+            queue = new FrameQueue(32, 20, pool, this);
+        }
+
+        @Override
+        public void onFrame(byte[] data, int length, long receivedNanos) {
+            arrivalNanos = receivedNanos;
+            rideNanos = RIDE_START_NANOS + TimeUnit.MILLISECONDS.toNanos(ride.millis.get(next++));
+            reassembler.append(data, 0, length);
+            processed++;
+        }
+
+        @Override
+        public void onRecord(byte[] data, int offset, int length) {
+            LinkQualityMonitor.MalformedReason reason = decoders.decode(data, offset, length, sample);
+            if (reason != null && reason != LinkQualityMonitor.MalformedReason.badValue)
+                return;
+            double speedMPH = WheelUnits.toMPH(sample.speedCmPerSecond);
+            double percent = WheelUnits.toPercent(sample.batteryDecivolts / 10.0);
+            engine.onSample(speedMPH, percent, rideNanos);
+            evaluated.recordSince(arrivalNanos);
+        }
+
+        @Override
+        public void onDiscarded(int length) {
+        }
+
+        @Override
+        public void onAlert(AlertEngine.Alert alert, boolean raised, long sinceNanos) {
+            alerts.add(alert + (raised ? " raised" : " cleared"));
+            alertMillis.add(TimeUnit.NANOSECONDS.toMillis(sinceNanos - RIDE_START_NANOS));
+
+            // A lost link is raised by the watchdog, with no frame behind it.
+            if (alert != AlertEngine.Alert.linkLost)
+                alerted.recordSince(arrivalNanos);
+        }
+
+        void run() {
+            long tickMillis = 100;
+            long end = ride.millis.get(ride.millis.size() - 1);
+            int frame = 0;
+            for (long millis = 0; millis <= end; millis += tickMillis) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(tickMillis) / SPEEDUP);
+                if (frame < ride.millis.size() && ride.millis.get(frame) == millis) {
+                    byte[] data = ride.frames.get(frame++);
+                    queue.offer(data, data.length, System.nanoTime());
+                }
+
+                // The watchdog's check, once the frames so far are in, as the ride's clock
+                // would have it
+                while (processed < frame)
+                    Thread.yield();
+                engine.checkLink(RIDE_START_NANOS + TimeUnit.MILLISECONDS.toNanos(millis));
+            }
+        }
+    }
+
+    private ExecutorService mPool;
+
+    @Before
+    public void setUp() {
+        mPool = Executors.newFixedThreadPool(POOL_THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        mPool.shutdownNow();
+    }
+
+    @Test
+    public void theScriptedRideRaisesItsAlertsPromptly() throws IOException {
+        Replay replay = new Replay(Ride.load(SCRIPTED_RIDE), mPool);
+        replay.run();
+
+        // The short sag under acceleration raises nothing; the long one does.
+        assertEquals(Arrays.asList("overspeed raised", "overspeed cleared", "lowBattery raised",
+                "linkLost raised", "linkLost cleared"), replay.alerts);
+
+        // Over 11 mph from 8.6 s, raised after the 250 ms debounce
+        long overspeed = replay.alertMillis.get(0);
+        assertTrue("overspeed at " + overspeed, overspeed >= 8800 && overspeed <= 9000);
+
+        // Under 20% from 25 s, raised after the 3 s debounce
+        assertEquals(28000, (long) replay.alertMillis.get(2));
+
+        // The last frame before the dropout came at 31.9 s; the link timeout is 1 s.
+        assertEquals(33000, (long) replay.alertMillis.get(3));
+        assertEquals(33500, (long) replay.alertMillis.get(4));
+
+        assertEquals(replay.ride.frames.size(), replay.evaluated.getCount());
+        assertTrue(replay.evaluated.toString(),
+                replay.evaluated.getPercentile(99) < MAX_EVALUATED_P99_NANOS);
+        assertEquals(3, replay.alerted.getCount());
+        assertTrue(replay.alerted.toString(), replay.alerted.getMax() < MAX_ALERT_NANOS);
+    }
+}
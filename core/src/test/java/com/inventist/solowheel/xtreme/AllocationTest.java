@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs a million frames through each stage of the telemetry path and checks that, once warmed
+ * up, none of them allocates.
+ */
+public class AllocationTest {
+
+    private static final int FRAMES = 1000000;
+
+    // Room for the measurement itself; a single allocation per frame would be 16MB or more.
+    private static final long ALLOWANCE_BYTES = 16 * 1024;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final Executor INLINE = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private com.sun.management.ThreadMXBean mThreads;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        mThreads = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(mThreads.isThreadAllocatedMemorySupported());
+        mThreads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    // Runs the stage once to warm up, then measures a second run.
+    private void assertNoAllocation(String stage, Runnable run) {
+        run.run();
+
+        long thread = Thread.currentThread().getId();
+        long before = mThreads.getThreadAllocatedBytes(thread);
+        run.run();
+        long allocated = mThreads.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue(stage + " allocated " + allocated + " bytes over " + FRAMES
+                + " frames, allowed " + ALLOWANCE_BYTES, allocated < ALLOWANCE_BYTES);
+    }
+
+    /**
+     * A delimited stream of frames, cut into 20-byte notifications and replayed in a loop.
+     */
+    private static class Feed {
+        final byte[][] chunks;
+        int next;
+
+        Feed() {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 64; i++)
+                text.append(String.format("%05d,%05d,%05d\r\n", i * 7, 500 + i, i & 1));
+            byte[] stream = text.toString().getBytes(ASCII);
+
+            chunks = new byte[(stream.length + 19) / 20][];
+            for (int i = 0; i < chunks.length; i++) {
+                int length = Math.min(20, stream.length - i * 20);
+                chunks[i] = new byte[length];
+                System.arraycopy(stream, i * 20, chunks[i], 0, length);
+            }
+        }
+
+        byte[] next() {
+            byte[] chunk = chunks[next];
+            next = (next + 1) % chunks.length;
+            return chunk;
+        }
+    }
+
+    private static class Decoder implements FrameReassembler.Listener, FrameQueue.Sink {
+        final FrameReassembler reassembler = new FrameReassembler(FrameReassembler.DEFAULT_CAPACITY, this);
+        final FrameDecoderRegistry decoders = new FrameDecoderRegistry();
+        final FrameDecoder.Sample sample = new FrameDecoder.Sample();
+        long records;
+        long malformed;
+
+        @Override
+        public void onFrame(byte[] data, int length, long receivedNanos) {
+            reassembler.append(data, 0, length);
+        }
+
+        @Override
+        public void onRecord(byte[] data, int offset, int length) {
+            records++;
+            if (decoders.decode(data, offset, length, sample) != null)
+                malformed++;
+        }
+
+        @Override
+        public void onDiscarded(int length) {
+            malformed++;
+        }
+    }
+
+    @Test
+    public void decodingDoesNotAllocate() {
+        final Feed feed = new Feed();
+        final Decoder decoder = new Decoder();
+        assertNoAllocation("decode", new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < FRAMES; i++) {
+                    byte[] chunk = feed.next();
+                    decoder.reassembler.append(chunk, 0, chunk.length);
+                }
+            }
+        });
+        assertTrue(decoder.records > 0);
+        assertEquals(0, decoder.malformed);
+    }
+
+    @Test
+    public void theFrameQueueDoesNotAllocate() {
+        final Feed feed = new Feed();
+        final Decoder decoder = new Decoder();
+        final FrameQueue queue = new FrameQueue(32, 20, INLINE, decoder);
+        assertNoAllocation("frameQueue", new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < FRAMES; i++) {
+                    byte[] chunk = feed.next();
+                    queue.offer(chunk, chunk.length, i);
+                }
+            }
+        });
+        assertEquals(0, queue.getDroppedCount());
+        assertEquals(0, decoder.malformed);
+    }
+
+    @Test
+    public void theTelemetrySlotDoesNotAllocate() {
+        final TelemetrySlot slot = new TelemetrySlot(INLINE);
+        final long[] delivered = { 0 };
+        slot.setConsumer(new TelemetrySlot.Consumer() {
+            @Override
+            public void onSample(TelemetrySlot.Sample sample) {
+                delivered[0]++;
+            }
+        });
+        assertNoAllocation("telemetry", new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < FRAMES; i++)
+                    slot.publish(i % 20, 80, 55.5, true, i);
+            }
+        });
+        assertEquals(2 * FRAMES, delivered[0]);
+    }
+
+    @Test
+    public void recordingLatencyDoesNotAllocate() {
+        final LatencyHistogram histogram = new LatencyHistogram("test");
+        assertNoAllocation("latency", new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < FRAMES; i++) {
+                    histogram.record(i * 37L);
+                    PipelineLatency.recordSince(PipelineLatency.Stage.decode, System.nanoTime());
+                }
+            }
+        });
+        assertEquals(2 * FRAMES, histogram.getCount());
+    }
+
+    @Test
+    public void theWearMessageDoesNotAllocate() {
+        final WearMessage phone = new WearMessage();
+        final WearMessage watch = new WearMessage();
+        final byte[] wire = new byte[WearMessage.MAX_LENGTH];
+        final char[] text = new char[WearMessage.MAX_LENGTH];
+        final FloatRingBuffer history = new FloatRingBuffer(64);
+        final byte[][] received = new byte[16][];
+        for (int i = 0; i < received.length; i++) {
+            phone.set(i * 6, i * 1.5, (i & 1) == 0);
+            received[i] = phone.toBytes();
+        }
+        assertNoAllocation("wear", new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < FRAMES; i++) {
+                    // The phone's encode into its buffer, then the watch's decode and format
+                    phone.set(i % 100, (i % 300) / 10.0, true);
+                    phone.encode(wire);
+                    watch.decode(received[i % received.length]);
+                    watch.formatSpeed(text);
+                    watch.formatBattery(text);
+                    history.add(watch.getSpeed());
+                }
+            }
+        });
+    }
+}
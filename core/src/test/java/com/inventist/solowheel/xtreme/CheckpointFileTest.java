@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CheckpointFileTest {
+
+    private static final String NAME = "odometer";
+    private static final int PAYLOAD_LENGTH = 16;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() {
+        mDirectory = mFolder.getRoot();
+    }
+
+    private static byte[] payload(int value) {
+        byte[] payload = new byte[PAYLOAD_LENGTH];
+        for (int i = 0; i < PAYLOAD_LENGTH; i++)
+            payload[i] = (byte) (value + i);
+        return payload;
+    }
+
+    private byte[] readBack() {
+        byte[] payload = new byte[PAYLOAD_LENGTH];
+        assertTrue(new CheckpointFile(mDirectory, NAME, PAYLOAD_LENGTH).read(payload));
+        return payload;
+    }
+
+    // Flips a byte of a copy, as a torn sector would.
+    private void corrupt(String copy, int offset) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(mDirectory, copy), "rw");
+        try {
+            file.seek(offset);
+            int b = file.read();
+            file.seek(offset);
+            file.write(b ^ 0xff);
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void nothingIsReadBeforeTheFirstWrite() {
+        byte[] payload = payload(7);
+        assertFalse(new CheckpointFile(mDirectory, NAME, PAYLOAD_LENGTH).read(payload));
+        assertArrayEquals(payload(7), payload);
+    }
+
+    @Test
+    public void readsBackTheLatestRecord() throws IOException {
+        CheckpointFile checkpoint = new CheckpointFile(mDirectory, NAME, PAYLOAD_LENGTH);
+        for (int i = 1; i <= 5; i++)
+            checkpoint.write(payload(i));
+        assertEquals(5, checkpoint.getWriteCount());
+        assertEquals(0, checkpoint.getFailedCount());
+        assertArrayEquals(payload(5), readBack());
+
+        // The copies alternate, and no temporary file is left behind
+        assertTrue(new File(mDirectory, NAME + ".0").exists());
+        assertTrue(new File(mDirectory, NAME + ".1").exists());
+        assertEquals(2, mDirectory.list().length);
+    }
+
+    @Test
+    public void writesAfterAReadReplaceTheOlderCopy() throws IOException {
+        CheckpointFile first = new CheckpointFile(mDirectory, NAME, PAYLOAD_LENGTH);
+        first.write(payload(1));
+        first.write(payload(2));
+
+        CheckpointFile second = new CheckpointFile(mDirectory, NAME, PAYLOAD_LENGTH);
+        assertTrue(second.read(new byte[PAYLOAD_LENGTH]));
+        second.write(payload(3));
+        assertArrayEquals(payload(3), readBack());
+
+        // The newest copy is now the one that held record 1; corrupting it falls back to 2.
+        corrupt(NAME + ".0", 20);
+        assertArrayEquals(payload(2), readBack());
+    }
+
+    @Test
+    public void aCorruptCopyFallsBackToTheOther() throws IOException {
+        CheckpointFile checkpoint = new CheckpointFile(mDirectory, NAME, PAYLOAD_LENGTH);
+        checkpoint.write(payload(1));
+        checkpoint.write(payload(2));
+
+        corrupt(NAME + ".1", 12);
+        assertArrayEquals(payload(1), readBack());
+
+        corrupt(NAME + ".0", 0);
+        assertFalse(new CheckpointFile(mDirectory, NAME, PAYLOAD_LENGTH).read(new byte[PAYLOAD_LENGTH]));
+    }
+
+    @Test
+    public void aShortCopyIsIgnored() throws IOException {
+        CheckpointFile checkpoint = new CheckpointFile(mDirectory, NAME, PAYLOAD_LENGTH);
+        checkpoint.write(payload(1));
+        checkpoint.write(payload(2));
+
+        RandomAccessFile file = new RandomAccessFile(new File(mDirectory, NAME + ".1"), "rw");
+        try {
+            file.setLength(10);
+        } finally {
+            file.close();
+        }
+        assertArrayEquals(payload(1), readBack());
+    }
+
+    @Test
+    public void aFailedWriteLeavesTheOlderCopies() throws IOException {
+        CheckpointFile checkpoint = new CheckpointFile(mDirectory, NAME, PAYLOAD_LENGTH);
+        checkpoint.write(payload(1));
+
+        // A directory in the way of the temporary file makes the write fail
+        File blocker = new File(mDirectory, NAME + ".1.tmp");
+        File content = new File(blocker, "content");
+        assertTrue(blocker.mkdir());
+        assertTrue(content.createNewFile());
+        try {
+            checkpoint.write(payload(2));
+            fail("The write should have failed");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals(1, checkpoint.getWriteCount());
+        assertEquals(1, checkpoint.getFailedCount());
+        assertArrayEquals(payload(1), readBack());
+
+        // It retries the same copy once the way is clear
+        assertTrue(content.delete());
+        assertTrue(blocker.delete());
+        checkpoint.write(payload(3));
+        assertArrayEquals(payload(3), readBack());
+    }
+
+    @Test
+    public void numbersAreBigEndian() {
+        byte[] buffer = new byte[8];
+        CheckpointFile.putLong(buffer, 0, 0x0102030405060708L);
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }, buffer);
+        assertEquals(0x0102030405060708L, CheckpointFile.getLong(buffer, 0));
+        CheckpointFile.putInt(buffer, 0, -2);
+        assertEquals(-2, CheckpointFile.getInt(buffer, 0));
+    }
+}
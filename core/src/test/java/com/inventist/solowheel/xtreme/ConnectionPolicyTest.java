@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionPolicyTest {
+
+    private static class FakeTransport implements ConnectionPolicy.Transport {
+        final List<ConnectionPolicy.Priority> priorities = new ArrayList<ConnectionPolicy.Priority>();
+        final List<Integer> mtus = new ArrayList<Integer>();
+
+        @Override
+        public void requestConnectionPriority(ConnectionPolicy.Priority priority) {
+            priorities.add(priority);
+        }
+
+        @Override
+        public void requestMtu(int mtu) {
+            mtus.add(mtu);
+        }
+
+        ConnectionPolicy.Priority lastPriority() {
+            return priorities.get(priorities.size() - 1);
+        }
+    }
+
+    private FakeTransport mTransport;
+    private ConnectionPolicy mPolicy;
+
+    @Before
+    public void setUp() {
+        mTransport = new FakeTransport();
+        mPolicy = new ConnectionPolicy(mTransport);
+    }
+
+    @Test
+    public void connectingNegotiatesThePreferredMtu() {
+        mPolicy.onConnected(0);
+        assertEquals(1, mTransport.mtus.size());
+        assertEquals(ConnectionPolicy.PREFERRED_MTU, (int) mTransport.mtus.get(0));
+
+        mPolicy.onMtuChanged(ConnectionPolicy.PREFERRED_MTU, true);
+        assertEquals(ConnectionPolicy.PREFERRED_MTU, mPolicy.getMtu());
+        assertEquals(1, mTransport.mtus.size());
+    }
+
+    @Test
+    public void aWheelMayLowerTheMtu() {
+        mPolicy.onConnected(0);
+        mPolicy.onMtuChanged(40, true);
+        assertEquals(40, mPolicy.getMtu());
+        assertEquals(1, mTransport.mtus.size());
+    }
+
+    @Test
+    public void aRefusedMtuFallsBackOnce() {
+        mPolicy.onConnected(0);
+        mPolicy.onMtuChanged(ConnectionPolicy.DEFAULT_MTU, false);
+        assertEquals(2, mTransport.mtus.size());
+        assertEquals(ConnectionPolicy.FALLBACK_MTU, (int) mTransport.mtus.get(1));
+
+        mPolicy.onMtuChanged(ConnectionPolicy.DEFAULT_MTU, false);
+        assertEquals(2, mTransport.mtus.size());
+        assertEquals(ConnectionPolicy.DEFAULT_MTU, mPolicy.getMtu());
+    }
+
+    @Test
+    public void theFallbackMtuIsKept() {
+        mPolicy.onConnected(0);
+        mPolicy.onMtuChanged(ConnectionPolicy.DEFAULT_MTU, false);
+        mPolicy.onMtuChanged(ConnectionPolicy.FALLBACK_MTU, true);
+        assertEquals(ConnectionPolicy.FALLBACK_MTU, mPolicy.getMtu());
+    }
+
+    @Test
+    public void aReconnectStartsFromTheDefaultMtu() {
+        mPolicy.onConnected(0);
+        mPolicy.onMtuChanged(ConnectionPolicy.PREFERRED_MTU, true);
+        mPolicy.onDisconnected();
+        mPolicy.onConnected(1000);
+        assertEquals(ConnectionPolicy.DEFAULT_MTU, mPolicy.getMtu());
+        assertEquals(ConnectionPolicy.PREFERRED_MTU, (int) mTransport.mtus.get(1));
+    }
+
+    @Test
+    public void nothingIsRequestedWhileDisconnected() {
+        mPolicy.setForeground(true, 0);
+        mPolicy.onSpeed(5, 0);
+        mPolicy.setScreenOn(false, 0);
+        assertTrue(mTransport.priorities.isEmpty());
+        assertTrue(mTransport.mtus.isEmpty());
+    }
+
+    @Test
+    public void parkedWithTheScreenOnIsBalanced() {
+        mPolicy.onConnected(0);
+        assertEquals(ConnectionPolicy.Priority.balanced, mTransport.lastPriority());
+    }
+
+    @Test
+    public void theGaugesInTheForegroundAreHigh() {
+        mPolicy.onConnected(0);
+        mPolicy.setForeground(true, 10);
+        assertEquals(ConnectionPolicy.Priority.high, mTransport.lastPriority());
+
+        mPolicy.setForeground(false, 20);
+        assertEquals(ConnectionPolicy.Priority.balanced, mTransport.lastPriority());
+    }
+
+    @Test
+    public void movingIsHighUntilStationaryForTheHoldTime() {
+        mPolicy.onConnected(0);
+        mPolicy.setScreenOn(false, 0);
+        assertEquals(ConnectionPolicy.Priority.lowPower, mTransport.lastPriority());
+
+        mPolicy.onSpeed(8, 100);
+        assertEquals(ConnectionPolicy.Priority.high, mTransport.lastPriority());
+
+        // Stopped at a crossing
+        mPolicy.onSpeed(0, 1000);
+        mPolicy.onSpeed(0, 1000 + ConnectionPolicy.STATIONARY_HOLD_MS - 1);
+        assertEquals(ConnectionPolicy.Priority.high, mPolicy.getPriority());
+
+        mPolicy.onSpeed(0, 1000 + ConnectionPolicy.STATIONARY_HOLD_MS);
+        assertEquals(ConnectionPolicy.Priority.lowPower, mTransport.lastPriority());
+    }
+
+    @Test
+    public void movingOffAgainWithinTheHoldStaysHigh() {
+        mPolicy.onConnected(0);
+        mPolicy.onSpeed(8, 100);
+        mPolicy.onSpeed(0, 200);
+        mPolicy.onSpeed(8, 300);
+        mPolicy.onSpeed(0, 400);
+        mPolicy.onSpeed(0, 400 + ConnectionPolicy.STATIONARY_HOLD_MS - 1);
+
+        // balanced on connecting, then high once, with no bounce in between
+        assertEquals(2, mTransport.priorities.size());
+        assertEquals(ConnectionPolicy.Priority.high, mTransport.lastPriority());
+    }
+
+    @Test
+    public void onlyChangesAreRequested() {
+        mPolicy.onConnected(0);
+        mPolicy.setScreenOn(true, 10);
+        mPolicy.setForeground(false, 20);
+        mPolicy.onSpeed(0, 30);
+        assertEquals(1, mTransport.priorities.size());
+    }
+}
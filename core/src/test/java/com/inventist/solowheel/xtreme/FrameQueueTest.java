@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives simulated wheels through one shared decode pool, as the service does.
+ */
+public class FrameQueueTest {
+
+    private static final int WHEELS = 7;
+    private static final int FRAMES = 20000;
+    private static final int POOL_THREADS = 2;
+    private static final int CAPACITY = 32;
+    private static final int SLOT_SIZE = 20;
+
+    // A floor far below what any machine manages, and far above what 7 wheels send
+    private static final double MIN_FRAMES_PER_SECOND = 20000;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * One wheel's decoder state, fed by its queue.  The speed field carries the frame's sequence
+     * number.
+     */
+    private static class Wheel implements FrameQueue.Sink, FrameReassembler.Listener {
+        final FrameQueue queue;
+        final FrameReassembler reassembler = new FrameReassembler(FrameReassembler.DEFAULT_CAPACITY, this);
+        final FrameDecoderRegistry decoders = new FrameDecoderRegistry();
+        final FrameDecoder.Sample sample = new FrameDecoder.Sample();
+        final AtomicInteger running = new AtomicInteger();
+        final CountDownLatch done;
+        volatile int decoded;
+        volatile int lastSequence = -1;
+        volatile boolean outOfOrder;
+        volatile boolean overlapped;
+        volatile boolean malformed;
+
+        Wheel(ExecutorService pool, CountDownLatch done) {
+            queue = new FrameQueue(CAPACITY, SLOT_SIZE, pool, this);
+            this.done = done;
+        }
+
+        @Override
+        public void onFrame(byte[] data, int length, long receivedNanos) {
+            if (running.incrementAndGet() != 1)
+                overlapped = true;
+            reassembler.append(data, 0, length);
+            running.decrementAndGet();
+        }
+
+        @Override
+        public void onRecord(byte[] data, int offset, int length) {
+            if (decoders.decode(data, offset, length, sample) != null) {
+                malformed = true;
+                return;
+            }
+            if (sample.speedCmPerSecond != lastSequence + 1)
+                outOfOrder = true;
+            lastSequence = sample.speedCmPerSecond;
+            if (++decoded == FRAMES)
+                done.countDown();
+        }
+
+        @Override
+        public void onDiscarded(int length) {
+            malformed = true;
+        }
+    }
+
+    private ExecutorService mPool;
+
+    @Before
+    public void setUp() {
+        mPool = Executors.newFixedThreadPool(POOL_THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        mPool.shutdownNow();
+    }
+
+    private static byte[] frame(int sequence) {
+        return String.format("%05d,00575,00001\n", sequence).getBytes(ASCII);
+    }
+
+    @Test
+    public void wheelsSharingThePoolDecodeEveryFrameInOrder() throws Exception {
+        final byte[][] frames = new byte[FRAMES][];
+        for (int i = 0; i < FRAMES; i++)
+            frames[i] = frame(i);
+
+        CountDownLatch done = new CountDownLatch(WHEELS);
+        final List<Wheel> wheels = new ArrayList<Wheel>();
+        List<Thread> binders = new ArrayList<Thread>();
+        for (int w = 0; w < WHEELS; w++) {
+            final Wheel wheel = new Wheel(mPool, done);
+            wheels.add(wheel);
+            // Each wheel's notifications arrive on a thread of their own, as binder calls do.
+            // They wait rather than overflow the queue, so every frame can be checked.
+            binders.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (byte[] frame : frames) {
+                        while (wheel.queue.size() == CAPACITY)
+                            Thread.yield();
+                        wheel.queue.offer(frame, frame.length, System.nanoTime());
+                    }
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Thread binder : binders)
+            binder.start();
+        assertTrue("timed out", done.await(60, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - start;
+        for (Thread binder : binders)
+            binder.join();
+
+        for (Wheel wheel : wheels) {
+            assertEquals(FRAMES, wheel.decoded);
+            assertEquals(FRAMES - 1, wheel.lastSequence);
+            assertEquals(0, wheel.queue.getDroppedCount());
+            assertFalse(wheel.outOfOrder);
+            assertFalse(wheel.overlapped);
+            assertFalse(wheel.malformed);
+        }
+
+        double framesPerSecond = WHEELS * (double) FRAMES * TimeUnit.SECONDS.toNanos(1) / elapsed;
+        assertTrue(WHEELS + " wheels on " + POOL_THREADS + " threads decoded "
+                + (long) framesPerSecond + " frames/s, below " + MIN_FRAMES_PER_SECOND,
+                framesPerSecond > MIN_FRAMES_PER_SECOND);
+    }
+
+    @Test
+    public void aFullQueueDropsTheOldestFrame() {
+        final List<Runnable> scheduled = new ArrayList<Runnable>();
+        final List<String> received = new ArrayList<String>();
+        FrameQueue queue = new FrameQueue(4, SLOT_SIZE, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                scheduled.add(command);
+            }
+        }, new FrameQueue.Sink() {
+            @Override
+            public void onFrame(byte[] data, int length, long receivedNanos) {
+                received.add(new String(data, 0, length, ASCII));
+            }
+        });
+
+        for (int i = 0; i < 4; i++)
+            assertTrue(queue.offer(frame(i), 18, i));
+        assertFalse(queue.offer(frame(4), 18, 4));
+        assertFalse(queue.offer(frame(5), 18, 5));
+        assertEquals(2, queue.getDroppedCount());
+
+        // One drain was scheduled however many frames wait
+        assertEquals(1, scheduled.size());
+        scheduled.get(0).run();
+        assertEquals(4, received.size());
+        assertEquals("00002,00575,00001\n", received.get(0));
+        assertEquals("00005,00575,00001\n", received.get(3));
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void aLongFrameGrowsItsSlot() {
+        final List<String> received = new ArrayList<String>();
+        FrameQueue queue = new FrameQueue(2, 4, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, new FrameQueue.Sink() {
+            @Override
+            public void onFrame(byte[] data, int length, long receivedNanos) {
+                received.add(new String(data, 0, length, ASCII));
+            }
+        });
+
+        queue.offer(frame(1), 18, 0);
+        queue.offer("12".getBytes(ASCII), 2, 0);
+        assertEquals("00001,00575,00001\n", received.get(0));
+        assertEquals("12", received.get(1));
+    }
+}
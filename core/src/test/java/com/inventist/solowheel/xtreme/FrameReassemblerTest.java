@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds golden records split at every byte offset, as a serial bridge may deliver them.
+ */
+public class FrameReassemblerTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final String[] GOLDEN = {
+            "00412,00575,00001",
+            "00000,00470,00000",
+            " 412 , 575 , 1 ",
+    };
+
+    private static final String[] DELIMITERS = { "\n", "\r", "\r\n", "\n\r" };
+
+    private static final int CAPACITY = 24;
+
+    private final List<String> mRecords = new ArrayList<String>();
+    private final List<Integer> mDiscarded = new ArrayList<Integer>();
+    private FrameReassembler mReassembler;
+
+    @Before
+    public void setUp() {
+        mReassembler = new FrameReassembler(CAPACITY, new FrameReassembler.Listener() {
+            @Override
+            public void onRecord(byte[] data, int offset, int length) {
+                mRecords.add(new String(data, offset, length, ASCII));
+            }
+
+            @Override
+            public void onDiscarded(int length) {
+                mDiscarded.add(length);
+            }
+        });
+    }
+
+    // Sees a delimiter first, so the reassembler looks for record boundaries.
+    private void startDelimited() {
+        append("\r\n".getBytes(ASCII), 0, 2);
+        assertTrue(mReassembler.isDelimited());
+        mRecords.clear();
+    }
+
+    // Appends a copy of the range, so the reassembler can't keep a reference to the caller's bytes
+    private void append(byte[] data, int from, int to) {
+        byte[] chunk = Arrays.copyOfRange(data, from, to);
+        mReassembler.append(chunk, 0, chunk.length);
+        Arrays.fill(chunk, (byte) 'x');
+    }
+
+    @Test
+    public void aRecordSplitAtEveryOffsetComesOutOnce() {
+        for (String golden : GOLDEN) {
+            for (String delimiter : DELIMITERS) {
+                byte[] stream = (golden + delimiter).getBytes(ASCII);
+                for (int split = 0; split <= stream.length; split++) {
+                    setUp();
+                    mRecords.clear();
+                    startDelimited();
+
+                    append(stream, 0, split);
+                    append(stream, split, stream.length);
+
+                    String message = golden + " split at " + split;
+                    assertEquals(message, Arrays.asList(golden), mRecords);
+                    assertTrue(message, mDiscarded.isEmpty());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void aRecordSplitIntoThreeComesOutOnce() {
+        byte[] stream = (GOLDEN[0] + "\r\n").getBytes(ASCII);
+        for (int first = 0; first <= stream.length; first++) {
+            for (int second = first; second <= stream.length; second++) {
+                mRecords.clear();
+                startDelimited();
+
+                append(stream, 0, first);
+                append(stream, first, second);
+                append(stream, second, stream.length);
+
+                assertEquals(first + "/" + second, Arrays.asList(GOLDEN[0]), mRecords);
+            }
+        }
+        assertTrue(mDiscarded.isEmpty());
+    }
+
+    @Test
+    public void recordsPackedIntoOneNotificationComeOutInOrder() {
+        startDelimited();
+        byte[] stream = (GOLDEN[0] + "\r\n" + GOLDEN[1] + "\n" + GOLDEN[2] + "\r").getBytes(ASCII);
+        append(stream, 0, stream.length);
+        assertEquals(Arrays.asList(GOLDEN), mRecords);
+    }
+
+    @Test
+    public void aStreamPackedIntoTwentyByteNotificationsComesOutWhole() {
+        StringBuilder text = new StringBuilder();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            String golden = GOLDEN[i % GOLDEN.length];
+            text.append(golden).append(DELIMITERS[i % DELIMITERS.length]);
+            expected.add(golden);
+        }
+        byte[] stream = text.toString().getBytes(ASCII);
+
+        startDelimited();
+        for (int i = 0; i < stream.length; i += 20)
+            append(stream, i, Math.min(i + 20, stream.length));
+        assertEquals(expected, mRecords);
+        assertTrue(mDiscarded.isEmpty());
+    }
+
+    @Test
+    public void anOverflowIsDroppedAndTheNextRecordComesOutOnce() {
+        String garbage = "0123456789012345678901234567890123456789";
+        assertTrue(garbage.length() > CAPACITY);
+        byte[] stream = (garbage + "\r\n" + GOLDEN[0] + "\r\n").getBytes(ASCII);
+
+        for (int split = 0; split <= stream.length; split++) {
+            setUp();
+            mRecords.clear();
+            mDiscarded.clear();
+            startDelimited();
+
+            append(stream, 0, split);
+            append(stream, split, stream.length);
+
+            String message = "split at " + split;
+            if (split > 0 && split <= garbage.length()) {
+                // Garbage cut off from its delimiter has to be buffered, and doesn't fit
+                assertEquals(message, Arrays.asList(garbage.length()), mDiscarded);
+                assertEquals(message, Arrays.asList(GOLDEN[0]), mRecords);
+            } else {
+                // Whole and delimited in one notification, it is passed on for the decoder to reject
+                assertTrue(message, mDiscarded.isEmpty());
+                assertEquals(message, Arrays.asList(garbage, GOLDEN[0]), mRecords);
+            }
+        }
+    }
+
+    @Test
+    public void anUndelimitedStreamPassesEachNotificationWhole() {
+        for (String golden : GOLDEN) {
+            byte[] frame = golden.getBytes(ASCII);
+            append(frame, 0, frame.length);
+        }
+        assertFalse(mReassembler.isDelimited());
+        assertEquals(Arrays.asList(GOLDEN), mRecords);
+    }
+
+    @Test
+    public void resetDropsAPartialRecord() {
+        startDelimited();
+        byte[] stream = (GOLDEN[0] + "\n").getBytes(ASCII);
+        append(stream, 0, 5);
+        mReassembler.reset();
+        startDelimited();
+        append(stream, 0, stream.length);
+        assertEquals(Arrays.asList(GOLDEN[0]), mRecords);
+    }
+}
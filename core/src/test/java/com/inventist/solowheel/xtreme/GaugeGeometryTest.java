@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GaugeGeometryTest {
+
+    private static final float EPSILON = 1e-3f;
+
+    private static final float CENTER_X = 200;
+    private static final float CENTER_Y = 300;
+    private static final float OUTER_RADIUS = 100;
+    private static final float SEGMENT_WIDTH = 20;
+    private static final float MARKER_HEIGHT = 10;
+
+    private GaugeGeometry mGeometry;
+
+    @Before
+    public void setUp() {
+        mGeometry = new GaugeGeometry();
+        assertTrue(mGeometry.update(CENTER_X, CENTER_Y, OUTER_RADIUS, SEGMENT_WIDTH, MARKER_HEIGHT));
+    }
+
+    private float[] marker(int percent) {
+        float[] out = new float[6];
+        mGeometry.getMarker(percent, out);
+        return out;
+    }
+
+    @Test
+    public void anEmptyBatteryLightsTheFirstSegmentOnly() {
+        assertEquals(0, GaugeGeometry.getLevel(0));
+        assertEquals(0, GaugeGeometry.getSweep(GaugeGeometry.getLevel(0)), EPSILON);
+
+        // Segment 0 points straight down, and so does the marker
+        assertEquals(0, mGeometry.getSegmentCos(0), EPSILON);
+        assertEquals(1, mGeometry.getSegmentSin(0), EPSILON);
+        float[] tip = marker(0);
+        assertEquals(CENTER_X, tip[0], EPSILON);
+        assertEquals(CENTER_Y + OUTER_RADIUS - SEGMENT_WIDTH, tip[1], EPSILON);
+    }
+
+    @Test
+    public void aFullBatterySweepsTheWholeArc() {
+        assertEquals(GaugeGeometry.SEGMENT_COUNT - 1, GaugeGeometry.getLevel(100));
+        assertEquals(GaugeGeometry.ARC_SPAN, GaugeGeometry.getSweep(GaugeGeometry.getLevel(100)), EPSILON);
+
+        // 270 degrees clockwise from straight down is pointing right
+        int last = GaugeGeometry.SEGMENT_COUNT - 1;
+        assertEquals(1, mGeometry.getSegmentCos(last), EPSILON);
+        assertEquals(0, mGeometry.getSegmentSin(last), EPSILON);
+        float[] tip = marker(100);
+        assertEquals(CENTER_X + OUTER_RADIUS - SEGMENT_WIDTH, tip[0], EPSILON);
+        assertEquals(CENTER_Y, tip[1], EPSILON);
+    }
+
+    @Test
+    public void halfASweepPointsUp() {
+        assertEquals(GaugeGeometry.ARC_SPAN / 2, GaugeGeometry.getSweep(GaugeGeometry.getLevel(50)), EPSILON);
+        // 135 degrees clockwise from straight down is up and to the left
+        assertEquals(-Math.sqrt(0.5), mGeometry.getSegmentCos(50), EPSILON);
+        assertEquals(-Math.sqrt(0.5), mGeometry.getSegmentSin(50), EPSILON);
+    }
+
+    @Test
+    public void outOfRangePercentagesAreClamped() {
+        assertEquals(0, GaugeGeometry.getLevel(-5));
+        assertEquals(0, GaugeGeometry.getLevel(Double.NaN));
+        assertEquals(GaugeGeometry.SEGMENT_COUNT - 1, GaugeGeometry.getLevel(150));
+        assertEquals(GaugeGeometry.SEGMENT_COUNT - 1, GaugeGeometry.getLevel(Double.POSITIVE_INFINITY));
+        assertArrayEquals(marker(0), marker(-20), EPSILON);
+        assertArrayEquals(marker(100), marker(250), EPSILON);
+    }
+
+    @Test
+    public void fractionsRoundDown() {
+        assertEquals(99, GaugeGeometry.getLevel(99.7));
+        assertEquals(0, GaugeGeometry.getLevel(0.5));
+    }
+
+    @Test
+    public void segmentsLieBetweenTheRadii() {
+        float[] points = mGeometry.getSegmentPoints();
+        float inner = OUTER_RADIUS - SEGMENT_WIDTH;
+        for (int i = 0; i < GaugeGeometry.SEGMENT_COUNT * GaugeGeometry.POINTS_PER_SEGMENT; i++) {
+            double radius = Math.hypot(points[i * 2] - CENTER_X, points[i * 2 + 1] - CENTER_Y);
+            boolean innerPoint = i % GaugeGeometry.POINTS_PER_SEGMENT < GaugeGeometry.POINTS_PER_SEGMENT / 2;
+            assertEquals(innerPoint ? inner : OUTER_RADIUS, radius, EPSILON);
+        }
+    }
+
+    @Test
+    public void theMarkerPointsOutwards() {
+        for (int percent = 0; percent <= 100; percent += 10) {
+            float[] out = marker(percent);
+            double tip = Math.hypot(out[0] - CENTER_X, out[1] - CENTER_Y);
+            double corner = Math.hypot(out[2] - CENTER_X, out[3] - CENTER_Y);
+            assertEquals(OUTER_RADIUS - SEGMENT_WIDTH, tip, EPSILON);
+            assertTrue(corner < tip);
+        }
+    }
+
+    @Test
+    public void anUnchangedSizeIsNotRecomputed() {
+        assertFalse(mGeometry.update(CENTER_X, CENTER_Y, OUTER_RADIUS, SEGMENT_WIDTH, MARKER_HEIGHT));
+        assertTrue(mGeometry.update(CENTER_X, CENTER_Y, OUTER_RADIUS + 1, SEGMENT_WIDTH, MARKER_HEIGHT));
+    }
+}
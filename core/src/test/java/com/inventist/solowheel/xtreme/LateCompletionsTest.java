@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LateCompletionsTest {
+
+    private static final long TIMEOUT = 2000;
+    private static final int RSSI = 2;
+    private static final int READ = 0;
+    private static final UUID DATA = UUID.fromString("0000ffe1-0000-1000-8000-00805f9b34fb");
+
+    private LateCompletions mLate;
+
+    @Before
+    public void setUp() {
+        mLate = new LateCompletions(TIMEOUT);
+    }
+
+    @Test
+    public void aLostRssiCallbackDoesNotStallTheNextPoll() {
+        // The first poll's callback never arrives
+        mLate.onTimedOut(RSSI, null, 0, TIMEOUT);
+
+        // The next poll, five seconds later, completes normally, and so does every one after
+        for (long start = 5000; start < 60000; start += 5000)
+            assertFalse("poll at " + start, mLate.isLate(RSSI, null, start + 50));
+        assertEquals(0, mLate.getLateCount());
+    }
+
+    @Test
+    public void aLostCallbackCostsAtMostOneMoreOperation() {
+        // Lost once, and the next read of the same characteristic is issued straight away
+        mLate.onTimedOut(READ, DATA, 0, TIMEOUT);
+        assertTrue(mLate.isLate(READ, DATA, TIMEOUT + 50));
+        mLate.onTimedOut(READ, DATA, TIMEOUT, 2 * TIMEOUT);
+
+        // The completion it swallowed was its own, so the one after completes
+        assertFalse(mLate.isLate(READ, DATA, 2 * TIMEOUT + 50));
+        assertFalse(mLate.isLate(READ, DATA, 2 * TIMEOUT + 100));
+    }
+
+    @Test
+    public void aLateCallbackIsDroppedOnce() {
+        mLate.onTimedOut(READ, DATA, 0, TIMEOUT);
+
+        // The late callback comes first, then that of the newer read
+        assertTrue(mLate.isLate(READ, DATA, TIMEOUT + 500));
+        assertFalse(mLate.isLate(READ, DATA, TIMEOUT + 600));
+        assertEquals(1, mLate.getLateCount());
+    }
+
+    @Test
+    public void repeatedTimeoutsKeepOneEntry() {
+        mLate.onTimedOut(RSSI, null, 0, TIMEOUT);
+        mLate.onTimedOut(RSSI, null, TIMEOUT, 2 * TIMEOUT);
+        mLate.onTimedOut(RSSI, null, 2 * TIMEOUT, 3 * TIMEOUT);
+
+        assertTrue(mLate.isLate(RSSI, null, 3 * TIMEOUT + 50));
+        assertFalse(mLate.isLate(RSSI, null, 3 * TIMEOUT + 100));
+    }
+
+    @Test
+    public void entriesAreKeptPerTypeAndTarget() {
+        mLate.onTimedOut(READ, DATA, 0, TIMEOUT);
+
+        assertFalse(mLate.isLate(RSSI, null, TIMEOUT + 50));
+        assertFalse(mLate.isLate(READ, UUID.randomUUID(), TIMEOUT + 50));
+        assertTrue(mLate.isLate(READ, DATA, TIMEOUT + 50));
+    }
+
+    @Test
+    public void clearForgetsTimeouts() {
+        mLate.onTimedOut(READ, DATA, 0, TIMEOUT);
+        mLate.clear();
+        assertFalse(mLate.isLate(READ, DATA, TIMEOUT + 50));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    private LatencyHistogram mHistogram;
+
+    @Before
+    public void setUp() {
+        mHistogram = new LatencyHistogram("test");
+    }
+
+    @Test
+    public void anEmptyHistogramReportsZero() {
+        assertEquals(0, mHistogram.getCount());
+        assertEquals(0, mHistogram.getMax());
+        assertEquals(0, mHistogram.getPercentile(50));
+        assertEquals(0, mHistogram.getPercentile(99));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        for (int i = 1; i <= 8; i++)
+            mHistogram.record(i);
+        assertEquals(8, mHistogram.getCount());
+        assertEquals(4, mHistogram.getPercentile(50));
+        assertEquals(8, mHistogram.getPercentile(100));
+        assertEquals(8, mHistogram.getMax());
+    }
+
+    @Test
+    public void percentilesAreWithinAnEighth() {
+        for (long value = 1000; value <= 100000000L; value = value * 3 / 2) {
+            LatencyHistogram histogram = new LatencyHistogram("one");
+            histogram.record(value);
+            histogram.record(value * 100);
+            long p50 = histogram.getPercentile(50);
+            assertTrue(value + " read as " + p50, p50 >= value && p50 <= value + value / 8);
+        }
+    }
+
+    @Test
+    public void percentilesOfAUniformSpread() {
+        for (long ms = 1; ms <= 100; ms++)
+            mHistogram.record(ms * 1000000);
+        long p50 = mHistogram.getPercentile(50);
+        long p99 = mHistogram.getPercentile(99);
+        assertTrue(p50 >= 50000000 && p50 <= 50000000 + 50000000 / 8);
+        assertTrue(p99 >= 99000000 && p99 <= 100000000);
+        assertEquals(100000000, mHistogram.getMax());
+        assertEquals(100000000, mHistogram.getPercentile(100));
+    }
+
+    @Test
+    public void aNegativeLatencyCountsAsZero() {
+        mHistogram.record(-5);
+        assertEquals(1, mHistogram.getCount());
+        assertEquals(0, mHistogram.getMax());
+        assertEquals(0, mHistogram.getPercentile(50));
+    }
+
+    @Test
+    public void theLargestLatencyFits() {
+        mHistogram.record(Long.MAX_VALUE);
+        assertEquals(1, mHistogram.getCount());
+        assertEquals(Long.MAX_VALUE, mHistogram.getPercentile(100));
+    }
+
+    @Test
+    public void resetForgetsEverything() {
+        mHistogram.record(12345);
+        mHistogram.reset();
+        assertEquals(0, mHistogram.getCount());
+        assertEquals(0, mHistogram.getMax());
+    }
+
+    @Test
+    public void recordsFromManyThreads() throws Exception {
+        final int perThread = 100000;
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++)
+                        mHistogram.record(i * 4 + offset);
+                }
+            }));
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(4L * perThread, mHistogram.getCount());
+        assertEquals(4L * perThread - 1, mHistogram.getMax());
+    }
+
+    @Test
+    public void printsInMilliseconds() {
+        mHistogram.record(2500000);
+        String text = mHistogram.toString();
+        assertTrue(text, text.startsWith("test"));
+        assertTrue(text, text.contains("n=1"));
+        assertTrue(text, text.contains("max=   2.500ms"));
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RideOdometerTest {
+
+    private static final long SECOND = 1000000000L;
+
+    private RideOdometer mOdometer;
+    private final RideOdometer.Totals mTrip = new RideOdometer.Totals();
+
+    @Before
+    public void setUp() {
+        mOdometer = new RideOdometer();
+    }
+
+    @Test
+    public void timesAroundZeroAreCounted() {
+        // System.nanoTime() may be negative, and may pass through 0 during a ride
+        for (long now = -2 * SECOND; now <= 2 * SECOND; now += SECOND / 2)
+            mOdometer.onSample(36, 0, now);
+
+        mOdometer.getTrip(mTrip);
+        assertEquals(4 * SECOND, mTrip.rideNanos);
+        assertEquals(0.04, mTrip.miles, 1e-9);
+    }
+
+    @Test
+    public void theGapAfterPauseIsNotCounted() {
+        mOdometer.onSample(36, 0, 0);
+        mOdometer.onSample(36, 0, SECOND / 2);
+        mOdometer.pause();
+        mOdometer.onSample(36, 0, SECOND);
+        mOdometer.onSample(36, 0, SECOND * 3 / 2);
+
+        mOdometer.getTrip(mTrip);
+        assertEquals(SECOND, mTrip.rideNanos);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SystemTraceTest {
+
+    private static class RecordingTracer implements SystemTrace.Tracer {
+        final List<String> calls = new ArrayList<String>();
+
+        @Override
+        public void beginSection(String name) {
+            calls.add("begin " + name);
+        }
+
+        @Override
+        public void endSection() {
+            calls.add("end");
+        }
+
+        @Override
+        public void beginAsync(String name, int cookie) {
+            calls.add("beginAsync " + name + " " + cookie);
+        }
+
+        @Override
+        public void endAsync(String name, int cookie) {
+            calls.add("endAsync " + name + " " + cookie);
+        }
+
+        @Override
+        public void counter(String name, int value) {
+            calls.add("counter " + name + " " + value);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        SystemTrace.setTracer(null);
+    }
+
+    @Test
+    public void thereIsNoPlatformTracerOnTheJvm() {
+        SystemTrace.setEnabled(true);
+        assertFalse(SystemTrace.isEnabled());
+        assertFalse(SystemTrace.beginSection("decode"));
+    }
+
+    @Test
+    public void markersAreOffByDefault() {
+        RecordingTracer tracer = new RecordingTracer();
+        SystemTrace.setTracer(tracer);
+
+        SystemTrace.endSection(SystemTrace.beginSection("decode"));
+        SystemTrace.beginAsync("frame", 1);
+        SystemTrace.counter("frameQueue", 3);
+        assertTrue(tracer.calls.isEmpty());
+    }
+
+    @Test
+    public void markersGoToTheTracerWhileOn() {
+        RecordingTracer tracer = new RecordingTracer();
+        SystemTrace.setTracer(tracer);
+        SystemTrace.setEnabled(true);
+
+        boolean traced = SystemTrace.beginSection("decode");
+        SystemTrace.beginAsync("frame", 7);
+        SystemTrace.endAsync("frame", 7);
+        SystemTrace.counter("frameQueue", 3);
+        SystemTrace.endSection(traced);
+
+        assertEquals(5, tracer.calls.size());
+        assertEquals("begin decode", tracer.calls.get(0));
+        assertEquals("beginAsync frame 7", tracer.calls.get(1));
+        assertEquals("endAsync frame 7", tracer.calls.get(2));
+        assertEquals("counter frameQueue 3", tracer.calls.get(3));
+        assertEquals("end", tracer.calls.get(4));
+    }
+
+    @Test
+    public void aSectionOpenWhenTurnedOffIsStillClosed() {
+        RecordingTracer tracer = new RecordingTracer();
+        SystemTrace.setTracer(tracer);
+        SystemTrace.setEnabled(true);
+
+        boolean traced = SystemTrace.beginSection("decode");
+        SystemTrace.setEnabled(false);
+        SystemTrace.endSection(traced);
+
+        assertEquals(2, tracer.calls.size());
+        assertEquals("end", tracer.calls.get(1));
+    }
+}
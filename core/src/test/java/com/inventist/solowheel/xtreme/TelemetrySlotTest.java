@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TelemetrySlotTest {
+
+    // Runs deliveries when the test says so, like a busy UI thread
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> queue = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        void runAll() {
+            while (!queue.isEmpty())
+                queue.remove(0).run();
+        }
+    }
+
+    private static class RecordingConsumer implements TelemetrySlot.Consumer {
+        final List<Double> speeds = new ArrayList<Double>();
+        final List<Long> decodedNanos = new ArrayList<Long>();
+
+        @Override
+        public void onSample(TelemetrySlot.Sample sample) {
+            speeds.add(sample.speedMPH);
+            decodedNanos.add(sample.decodedNanos);
+        }
+    }
+
+    private ManualExecutor mUi;
+    private TelemetrySlot mSlot;
+    private RecordingConsumer mConsumer;
+
+    @Before
+    public void setUp() {
+        mUi = new ManualExecutor();
+        mSlot = new TelemetrySlot(mUi);
+        mConsumer = new RecordingConsumer();
+    }
+
+    private void publish(double speed) {
+        mSlot.publish(speed, 50, 55, true, 1000 + (long) speed);
+    }
+
+    private void assertCountsAddUp() {
+        assertEquals(mSlot.getPublishedCount(),
+                mSlot.getDeliveredCount() + mSlot.getConflatedCount());
+    }
+
+    @Test
+    public void aStalledUiGetsOnlyTheNewestReading() {
+        mSlot.setConsumer(mConsumer);
+        mUi.runAll();
+
+        for (int i = 1; i <= 10; i++)
+            publish(i);
+        assertEquals(1, mUi.queue.size());
+        mUi.runAll();
+
+        assertEquals(1, mConsumer.speeds.size());
+        assertEquals(10.0, mConsumer.speeds.get(0), 0);
+        assertEquals(10, mSlot.getPublishedCount());
+        assertEquals(1, mSlot.getDeliveredCount());
+        assertEquals(9, mSlot.getConflatedCount());
+        assertCountsAddUp();
+    }
+
+    @Test
+    public void everyReadingIsDeliveredWhenTheUiKeepsUp() {
+        mSlot.setConsumer(mConsumer);
+        for (int i = 1; i <= 10; i++) {
+            publish(i);
+            mUi.runAll();
+        }
+        assertEquals(10, mConsumer.speeds.size());
+        assertEquals(0, mSlot.getConflatedCount());
+        assertCountsAddUp();
+    }
+
+    @Test
+    public void readingsWithoutAConsumerAreCountedAsConflated() {
+        for (int i = 1; i <= 5; i++)
+            publish(i);
+        assertTrue(mUi.queue.isEmpty());
+        assertEquals(4, mSlot.getConflatedCount());
+
+        // A new consumer is given the latest reading
+        mSlot.setConsumer(mConsumer);
+        mUi.runAll();
+        assertEquals(1, mConsumer.speeds.size());
+        assertEquals(5.0, mConsumer.speeds.get(0), 0);
+        assertCountsAddUp();
+    }
+
+    @Test
+    public void aDeliveryWithoutAConsumerKeepsTheReading() {
+        mSlot.setConsumer(mConsumer);
+        mUi.runAll();
+        publish(7);
+        mSlot.setConsumer(null);
+        mUi.runAll();
+        assertTrue(mConsumer.speeds.isEmpty());
+
+        mSlot.setConsumer(mConsumer);
+        mUi.runAll();
+        assertEquals(1, mConsumer.speeds.size());
+        assertEquals(7.0, mConsumer.speeds.get(0), 0);
+        assertCountsAddUp();
+    }
+
+    @Test
+    public void aClearedReadingIsNeverDelivered() {
+        mSlot.setConsumer(mConsumer);
+        publish(3);
+        mSlot.clear();
+        mUi.runAll();
+        assertTrue(mConsumer.speeds.isEmpty());
+        assertEquals(1, mSlot.getConflatedCount());
+        assertCountsAddUp();
+
+        mSlot.redeliver();
+        mUi.runAll();
+        assertTrue(mConsumer.speeds.isEmpty());
+    }
+
+    @Test
+    public void aRedeliveryIsNotCountedAndHasNoLatency() {
+        mSlot.setConsumer(mConsumer);
+        publish(4);
+        mUi.runAll();
+        mSlot.redeliver();
+        mUi.runAll();
+
+        assertEquals(2, mConsumer.speeds.size());
+        assertEquals(4.0, mConsumer.speeds.get(1), 0);
+        assertEquals(1004L, (long) mConsumer.decodedNanos.get(0));
+        assertEquals(0L, (long) mConsumer.decodedNanos.get(1));
+        assertEquals(1, mSlot.getDeliveredCount());
+        assertCountsAddUp();
+    }
+
+    @Test
+    public void theCountsAddUpUnderContention() throws Exception {
+        final int readings = 200000;
+        final ExecutorService ui = Executors.newSingleThreadExecutor();
+        final TelemetrySlot slot = new TelemetrySlot(ui);
+        final double[] last = { 0 };
+        final boolean[] backwards = { false };
+        slot.setConsumer(new TelemetrySlot.Consumer() {
+            @Override
+            public void onSample(TelemetrySlot.Sample sample) {
+                if (sample.speedMPH < last[0])
+                    backwards[0] = true;
+                last[0] = sample.speedMPH;
+            }
+        });
+
+        for (int i = 1; i <= readings; i++)
+            slot.publish(i, 50, 55, true, i);
+
+        // Flushes the last delivery
+        ui.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(10, TimeUnit.SECONDS);
+        ui.shutdown();
+        assertTrue(ui.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertFalse(backwards[0]);
+        assertEquals((double) readings, last[0], 0);
+        assertEquals(readings, slot.getPublishedCount());
+        assertEquals(slot.getPublishedCount(), slot.getDeliveredCount() + slot.getConflatedCount());
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TraceRingTest {
+
+    @Before
+    public void setUp() {
+        TraceRing.clear();
+        TraceRing.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        TraceRing.setEnabled(false);
+        TraceRing.clear();
+    }
+
+    private static String[] dump() {
+        StringWriter text = new StringWriter();
+        PrintWriter writer = new PrintWriter(text);
+        TraceRing.dump(writer);
+        writer.flush();
+        return text.toString().split("\n");
+    }
+
+    @Test
+    public void nothingIsRecordedWhileDisabled() {
+        TraceRing.setEnabled(false);
+        TraceRing.event(TraceRing.Event.frameDecoded, 1, 2);
+        String[] lines = dump();
+        assertEquals(1, lines.length);
+        assertEquals("Trace: 0 of 0 events (disabled)", lines[0]);
+    }
+
+    @Test
+    public void eventsAreDumpedOldestFirst() {
+        TraceRing.event(TraceRing.Event.frameReceived, 20, 1);
+        TraceRing.event(TraceRing.Event.frameDecoded, 412, 575);
+        TraceRing.event(TraceRing.Event.alert, 0, 1);
+
+        String[] lines = dump();
+        assertEquals(4, lines.length);
+        assertEquals("Trace: 3 of 3 events", lines[0]);
+        assertTrue(lines[1], lines[1].contains("frameReceived") && lines[1].endsWith(" 20 1"));
+        assertTrue(lines[2], lines[2].contains("frameDecoded") && lines[2].endsWith(" 412 575"));
+        assertTrue(lines[3], lines[3].contains("alert") && lines[3].endsWith(" 0 1"));
+
+        // The newest event is at time 0, and the thread is this one
+        assertTrue(lines[3], lines[3].trim().startsWith("0.000 t" + Thread.currentThread().getId()));
+    }
+
+    @Test
+    public void aFullRingKeepsTheNewestEvents() {
+        int events = TraceRing.CAPACITY + 10;
+        for (int i = 0; i < events; i++)
+            TraceRing.event(TraceRing.Event.wearSent, i, 0);
+
+        String[] lines = dump();
+        assertEquals(TraceRing.CAPACITY + 1, lines.length);
+        assertEquals("Trace: " + TraceRing.CAPACITY + " of " + events + " events", lines[0]);
+        assertTrue(lines[1], lines[1].endsWith(" 10 0"));
+        assertTrue(lines[lines.length - 1], lines[lines.length - 1].endsWith(" " + (events - 1) + " 0"));
+    }
+
+    @Test
+    public void writesTheDumpToAFile() throws Exception {
+        TraceRing.event(TraceRing.Event.scanResult, -60, 7);
+        File file = File.createTempFile("trace", ".txt");
+        try {
+            TraceRing.writeTo(file);
+            assertTrue(file.length() > 0);
+        } finally {
+            file.delete();
+        }
+    }
+}
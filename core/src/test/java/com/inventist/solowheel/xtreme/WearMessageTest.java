@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WearMessageTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private WearMessage mMessage;
+
+    @Before
+    public void setUp() {
+        mMessage = new WearMessage();
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(ASCII);
+    }
+
+    @Test
+    public void encodesTheReading() {
+        mMessage.set(87, 12.5, true);
+        assertArrayEquals(bytes("87,12.5,MPH"), mMessage.toBytes());
+
+        mMessage.set(5, 0, false);
+        byte[] out = new byte[WearMessage.MAX_LENGTH];
+        int length = mMessage.encode(out);
+        assertEquals("5,0.0,KPH", new String(out, 0, length, ASCII));
+    }
+
+    @Test
+    public void roundsTheSpeedToTenthsAndClampsNegatives() {
+        mMessage.set(50, 12.46, true);
+        assertEquals(125, mMessage.speedTenths);
+        mMessage.set(-3, -1.0, true);
+        assertEquals(0, mMessage.batteryPercent);
+        assertEquals(0, mMessage.speedTenths);
+    }
+
+    @Test
+    public void theLargestReadingFits() {
+        mMessage.set(Integer.MAX_VALUE, Integer.MAX_VALUE / 10.0, false);
+        byte[] out = new byte[WearMessage.MAX_LENGTH];
+        int length = mMessage.encode(out);
+        assertTrue(length <= WearMessage.MAX_LENGTH);
+    }
+
+    @Test
+    public void decodesWhatItEncodes() {
+        WearMessage decoded = new WearMessage();
+        for (int percent = 0; percent <= 100; percent += 7) {
+            for (int tenths = 0; tenths < 1000; tenths += 37) {
+                mMessage.set(percent, tenths / 10.0, (tenths & 1) == 0);
+                assertTrue(decoded.decode(mMessage.toBytes()));
+                assertEquals(percent, decoded.batteryPercent);
+                assertEquals(tenths, decoded.speedTenths);
+                assertEquals(mMessage.mph, decoded.mph);
+            }
+        }
+    }
+
+    @Test
+    public void decodesOlderPhones() {
+        // Whole speeds, and more than one decimal, which is truncated
+        assertTrue(mMessage.decode(bytes("40,12,KPH")));
+        assertEquals(120, mMessage.speedTenths);
+        assertTrue(mMessage.decode(bytes("40,12.59,MPH")));
+        assertEquals(125, mMessage.speedTenths);
+        assertTrue(mMessage.mph);
+    }
+
+    @Test
+    public void aMalformedMessageLeavesTheFields() {
+        mMessage.set(60, 8.5, true);
+        String[] malformed = {
+                "", "60", "60,", "60,8.5", "60,8.5,", "60,8.5,mph", "60,8.5,MPHX", ",8.5,MPH",
+                "60,,MPH", "60,8,5,MPH", "0,0, ", "a,8.5,MPH", "60,-8.5,MPH",
+        };
+        for (String message : malformed) {
+            assertFalse(message, mMessage.decode(bytes(message)));
+            assertEquals(60, mMessage.batteryPercent);
+            assertEquals(85, mMessage.speedTenths);
+            assertTrue(mMessage.mph);
+        }
+    }
+
+    @Test
+    public void formatsForDisplay() {
+        char[] out = new char[WearMessage.MAX_LENGTH];
+        mMessage.set(100, 7.25, false);
+        assertEquals("7.3 KPH", new String(out, 0, mMessage.formatSpeed(out)));
+        assertEquals("100%", new String(out, 0, mMessage.formatBattery(out)));
+
+        mMessage.set(0, 0, true);
+        assertEquals("0.0 MPH", new String(out, 0, mMessage.formatSpeed(out)));
+        assertEquals("0%", new String(out, 0, mMessage.formatBattery(out)));
+    }
+
+    @Test
+    public void copiesAnotherMessage() {
+        WearMessage other = new WearMessage();
+        other.set(33, 4.4, false);
+        mMessage.copyFrom(other);
+        assertEquals(33, mMessage.batteryPercent);
+        assertEquals(4.4f, mMessage.getSpeed(), 1e-6f);
+        assertFalse(mMessage.mph);
+    }
+}
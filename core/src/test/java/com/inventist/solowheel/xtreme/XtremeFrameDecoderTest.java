@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.inventist.solowheel.xtreme;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Golden frames, as the wheel sends them or as the original string parser read them.
+ */
+public class XtremeFrameDecoderTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private XtremeFrameDecoder mDecoder;
+    private FrameDecoder.Sample mSample;
+
+    @Before
+    public void setUp() {
+        mDecoder = new XtremeFrameDecoder();
+        mSample = new FrameDecoder.Sample();
+    }
+
+    private LinkQualityMonitor.MalformedReason decode(String frame) {
+        // Decoded at an offset, as the reassembler hands records over
+        byte[] data = ("##" + frame + "##").getBytes(ASCII);
+        assertTrue(frame, mDecoder.matches(data, 2, frame.length()));
+        return mDecoder.decode(data, 2, frame.length(), mSample);
+    }
+
+    private void assertGood(String frame, int speed, int battery, int direction) {
+        assertNull(frame, decode(frame));
+        assertEquals(speed, mSample.speedCmPerSecond);
+        assertEquals(battery, mSample.batteryDecivolts);
+        assertEquals(direction, mSample.direction);
+    }
+
+    @Test
+    public void decodesTheWheelsFrames() {
+        assertGood("00412,00575,00001", 412, 575, FrameDecoder.Sample.FORWARD);
+        assertGood("00412,00575,00000", 412, 575, FrameDecoder.Sample.REVERSE);
+        assertGood("00000,00470,00001", 0, 470, FrameDecoder.Sample.FORWARD);
+        assertGood("00412,00575,00001\r\n", 412, 575, FrameDecoder.Sample.FORWARD);
+        assertGood(" 412 , 575 , 1 ", 412, 575, FrameDecoder.Sample.FORWARD);
+        assertGood("99999,00580,00001", 99999, 580, FrameDecoder.Sample.FORWARD);
+    }
+
+    @Test
+    public void theForwardDirectionIsOne() {
+        // The original parser compared the direction to "00001"
+        assertGood("00100,00575,00001", 100, 575, 1);
+        assertEquals(1, FrameDecoder.Sample.FORWARD);
+        assertEquals(0, FrameDecoder.Sample.REVERSE);
+    }
+
+    @Test
+    public void aZeroBatteryIsBadFirmware() {
+        assertEquals(LinkQualityMonitor.MalformedReason.badFirmware, decode("00412,00000,00001"));
+        assertEquals(LinkQualityMonitor.MalformedReason.badFirmware, decode("00000,  0  ,00000"));
+    }
+
+    @Test
+    public void aDirectionOtherThanZeroOrOneIsIgnored() {
+        assertEquals(LinkQualityMonitor.MalformedReason.badDirection, decode("00412,00575,00002"));
+        assertEquals(LinkQualityMonitor.MalformedReason.badDirection, decode("00412,00575,"));
+        assertEquals(LinkQualityMonitor.MalformedReason.badDirection, decode("00412,00575,-1"));
+        assertEquals(LinkQualityMonitor.MalformedReason.badDirection, decode("00412,00575,1.0"));
+    }
+
+    @Test
+    public void theWrongNumberOfFieldsIsMalformed() {
+        byte[] two = "00412,00575".getBytes(ASCII);
+        byte[] four = "00412,00575,00001,1".getBytes(ASCII);
+        assertFalse(mDecoder.matches(two, 0, two.length));
+        assertFalse(mDecoder.matches(four, 0, four.length));
+        assertEquals(LinkQualityMonitor.MalformedReason.fieldCount,
+                mDecoder.decode(two, 0, two.length, mSample));
+        assertEquals(LinkQualityMonitor.MalformedReason.fieldCount,
+                mDecoder.decode(four, 0, four.length, mSample));
+    }
+
+    @Test
+    public void otherProtocolsDontMatch() {
+        byte[] other = "V=57.5;S=4.1".getBytes(ASCII);
+        byte[] binary = { 0x02, 0x41, ',', 0x10, ',', 0x01 };
+        assertFalse(mDecoder.matches(other, 0, other.length));
+        assertFalse(mDecoder.matches(binary, 0, binary.length));
+    }
+
+    @Test
+    public void aSpeedWithAFractionIsTruncated() {
+        assertGood("412.75,00575,00001", 412, 575, FrameDecoder.Sample.FORWARD);
+        assertGood("412.,00575,00001", 412, 575, FrameDecoder.Sample.FORWARD);
+    }
+
+    @Test
+    public void aNegativeOrMissingSpeedIsABadValue() {
+        assertEquals(LinkQualityMonitor.MalformedReason.badValue, decode("-0412,00575,00001"));
+        assertEquals(0, mSample.speedCmPerSecond);
+        assertEquals(575, mSample.batteryDecivolts);
+
+        assertEquals(LinkQualityMonitor.MalformedReason.badValue, decode(",00575,00001"));
+        assertEquals(0, mSample.speedCmPerSecond);
+
+        assertEquals(LinkQualityMonitor.MalformedReason.badValue, decode("-,00575,00001"));
+        assertEquals(0, mSample.speedCmPerSecond);
+    }
+
+    @Test
+    public void aBatteryWithAFractionIsABadValue() {
+        // The original parser put the decimal point in itself, and read this as no voltage.
+        assertEquals(LinkQualityMonitor.MalformedReason.badValue, decode("00412,57.5,00001"));
+        assertEquals(412, mSample.speedCmPerSecond);
+        assertEquals(0, mSample.batteryDecivolts);
+    }
+
+    @Test
+    public void theRegistryLocksOntoTheDecoder() {
+        FrameDecoderRegistry registry = new FrameDecoderRegistry();
+        byte[] frame = "00412,00575,00001\n".getBytes(ASCII);
+        for (int i = 0; i < FrameDecoderRegistry.LOCK_FRAMES; i++) {
+            assertNull(registry.getLocked());
+            assertNull(registry.decode(frame, 0, frame.length, mSample));
+        }
+        assertSame(FrameDecoderRegistry.DECODERS[0], registry.getLocked());
+
+        byte[] bad = "00412,00000,00001\n".getBytes(ASCII);
+        for (int i = 0; i < FrameDecoderRegistry.UNLOCK_FAILURES; i++) {
+            assertSame(FrameDecoderRegistry.DECODERS[0], registry.getLocked());
+            assertEquals(LinkQualityMonitor.MalformedReason.badFirmware,
+                    registry.decode(bad, 0, bad.length, mSample));
+        }
+        assertNull(registry.getLocked());
+    }
+}
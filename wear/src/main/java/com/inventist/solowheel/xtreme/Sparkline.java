@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * Line chart of the values in a {@link FloatRingBuffer}, scaled between a fixed minimum and
+ * maximum so that a new value never moves the others.
+ *
+ * The line is kept as segments ready for {@code Canvas.drawLines()} in a preallocated array.
+ * Each new value shifts the segments down by one and appends a segment to the newest point,
+ * rather than rebuilding the line.  The x coordinates grow with every value and the canvas is
+ * translated to put the oldest point at the left edge; the line is only rebuilt when its size
+ * changes, or once in a long while to keep the coordinates small.
+ */
+public class Sparkline {
+
+    // Rebuild before the x coordinates get large enough to lose float precision.
+    private static final long REBASE_COUNT = 1 << 16;
+
+    private final FloatRingBuffer mValues;
+    private final float mMin;
+    private final float mMax;
+    private final float[] mPoints;
+    private final int mMaxSegments;
+    private int mSegments;
+
+    private float mWidth;
+    private float mHeight;
+    private float mStep;
+    private long mCount;
+    private float mLastX;
+    private float mLastY;
+
+    public Sparkline(FloatRingBuffer values, float min, float max) {
+        mValues = values;
+        mMin = min;
+        mMax = max;
+        mMaxSegments = Math.max(values.capacity() - 1, 1);
+        mPoints = new float[mMaxSegments * 4];
+    }
+
+    /**
+     * Sets the size of the chart in pixels, rebuilding the line if it changed.
+     */
+    public void setSize(float width, float height) {
+        if (width == mWidth && height == mHeight)
+            return;
+
+        mWidth = width;
+        mHeight = height;
+        mStep = width / mMaxSegments;
+        rebuild();
+    }
+
+    /**
+     * Extends the line to the value just added to the ring buffer.
+     */
+    public void onValueAdded() {
+        if (mStep == 0)
+            return;
+
+        if (mCount >= REBASE_COUNT)
+            rebuild();
+        else
+            appendPoint(mValues.getLast());
+    }
+
+    /**
+     * Draws the line with its top left corner at {@code left, top}.
+     */
+    public void draw(Canvas canvas, float left, float top, Paint paint) {
+        if (mSegments == 0)
+            return;
+
+        canvas.save();
+        canvas.translate(left - mPoints[0], top);
+        canvas.drawLines(mPoints, 0, mSegments * 4, paint);
+        canvas.restore();
+    }
+
+    private void rebuild() {
+        mSegments = 0;
+        mCount = 0;
+        for (int i = 0; i < mValues.size(); i++) {
+            appendPoint(mValues.get(i));
+        }
+    }
+
+    private void appendPoint(float value) {
+        float x = mCount * mStep;
+        float y = toY(value);
+
+        if (mCount > 0) {
+            if (mSegments == mMaxSegments) {
+                System.arraycopy(mPoints, 4, mPoints, 0, (mSegments - 1) * 4);
+                mSegments--;
+            }
+            int i = mSegments * 4;
+            mPoints[i] = mLastX;
+            mPoints[i + 1] = mLastY;
+            mPoints[i + 2] = x;
+            mPoints[i + 3] = y;
+            mSegments++;
+        }
+
+        mLastX = x;
+        mLastY = y;
+        mCount++;
+    }
+
+    private float toY(float value) {
+        float clamped = Math.min(Math.max(value, mMin), mMax);
+        return mHeight - (clamped - mMin) / (mMax - mMin) * mHeight;
+    }
+}
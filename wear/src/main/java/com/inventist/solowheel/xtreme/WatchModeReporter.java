@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells the phone whether the face is interactive, in ambient mode or hidden, so it can send
+ * coarse updates while nobody is looking.  Only changes are sent.
+ *
+ * The Play services connection is made once, for the life of the face, rather than on every
+ * wrist raise.  Connecting and sending block, so both happen on a background thread.
+ */
+public class WatchModeReporter {
+    private final static String TAG = "solowheel";
+
+    private static final long CONNECT_TIMEOUT_S = 30;
+
+    private final GoogleApiClient mGoogleApiClient;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private WatchState.Mode mMode;
+
+    public WatchModeReporter(Context context) {
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+    }
+
+    /**
+     * Called on the main thread whenever the face's mode may have changed.
+     */
+    public void setMode(WatchState.Mode mode) {
+        if (mode == mMode)
+            return;
+        mMode = mode;
+
+        final byte[] payload = mode.name().getBytes();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!mGoogleApiClient.isConnected()
+                            && !mGoogleApiClient.blockingConnect(CONNECT_TIMEOUT_S, TimeUnit.SECONDS).isSuccess()) {
+                        Log.w(TAG, "Mode not sent, no connection");
+                        return;
+                    }
+
+                    NodeApi.GetConnectedNodesResult nodes = Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).await();
+                    for (Node node : nodes.getNodes()) {
+                        Wearable.MessageApi.sendMessage(mGoogleApiClient, node.getId(), WatchState.MODE_PATH, payload).await();
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Mode not sent: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    public void close() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mGoogleApiClient.disconnect();
+            }
+        });
+        mExecutor.shutdown();
+    }
+}
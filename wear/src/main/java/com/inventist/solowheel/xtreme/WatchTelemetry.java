@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inventist.solowheel.xtreme;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+
+/**
+ * The latest reading from the phone and the recent history, shared by the listener service
+ * that receives the messages and the watch face that draws them.  It lives as long as the
+ * process, so the face has something to draw the moment it becomes visible.
+ *
+ * Messages arrive on a binder thread; the newest one is applied on the main thread, where the
+ * state is read and the listeners are called.
+ */
+public class WatchTelemetry {
+
+    /**
+     * Readings kept for the sparkline; the phone sends about one a second, so five minutes.
+     */
+    public static final int HISTORY_SIZE = 300;
+
+    // Systrace slice from a message arriving to it being applied.  Only one is ever pending.
+    private static final String TRACE_MESSAGE = "message";
+
+    /**
+     * Told about every reading, on the main thread.
+     */
+    public interface Listener {
+        void onTelemetryChanged();
+    }
+
+    private static WatchTelemetry sInstance;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+
+    // Written on a binder thread, taken on the main thread, guarded by this
+    private final WearMessage mPending = new WearMessage();
+    private boolean mHasPending;
+    private long mPendingNanos;
+
+    // Main thread only
+    private final WearMessage mCurrent = new WearMessage();
+    private boolean mHasCurrent;
+    private long mReceivedNanos;
+    private final FloatRingBuffer mSpeedHistory = new FloatRingBuffer(HISTORY_SIZE);
+    private final FloatRingBuffer mBatteryHistory = new FloatRingBuffer(HISTORY_SIZE);
+
+    private final Runnable mApplyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            boolean pending;
+            long receivedNanos;
+            synchronized (WatchTelemetry.this) {
+                pending = mHasPending;
+                mCurrent.copyFrom(mPending);
+                receivedNanos = mPendingNanos;
+                mHasPending = false;
+            }
+            boolean traced = SystemTrace.beginSection("applyMessage");
+            try {
+                if (pending)
+                    apply(receivedNanos);
+            } finally {
+                SystemTrace.endSection(traced);
+            }
+            SystemTrace.endAsync(TRACE_MESSAGE, 0);
+        }
+    };
+
+    public static synchronized WatchTelemetry getInstance() {
+        if (sInstance == null)
+            sInstance = new WatchTelemetry();
+        return sInstance;
+    }
+
+    /**
+     * Takes a message from the phone, on any thread.  If messages arrive faster than the main
+     * thread takes them, only the newest is applied.  Malformed messages are dropped.
+     */
+    public void onMessage(byte[] data) {
+        boolean post;
+        synchronized (this) {
+            if (!mPending.decode(data))
+                return;
+            post = !mHasPending;
+            mHasPending = true;
+            mPendingNanos = System.nanoTime();
+        }
+        if (post) {
+            SystemTrace.beginAsync(TRACE_MESSAGE, 0);
+            mHandler.post(mApplyRunnable);
+        }
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * @return 0 until the phone sends a reading, and after the wheel disconnects.
+     */
+    public double getBatteryPercent() {
+        return mHasCurrent ? mCurrent.batteryPercent : 0;
+    }
+
+    /**
+     * Writes the speed and units, for example "12.5 MPH", nothing until the phone sends a
+     * reading.
+     *
+     * @param out At least {@link WearMessage#MAX_LENGTH} long.
+     * @return The number of chars written.
+     */
+    public int getFormattedSpeed(char[] out) {
+        return mHasCurrent ? mCurrent.formatSpeed(out) : 0;
+    }
+
+    /**
+     * Writes the battery, for example "87%", nothing until the phone sends a reading.
+     *
+     * @param out At least {@link WearMessage#MAX_LENGTH} long.
+     * @return The number of chars written.
+     */
+    public int getFormattedBattery(char[] out) {
+        return mHasCurrent ? mCurrent.formatBattery(out) : 0;
+    }
+
+    /**
+     * @return The {@code System.nanoTime()} the latest reading arrived, 0 if none yet.
+     */
+    public long getReceivedNanos() {
+        return mReceivedNanos;
+    }
+
+    public FloatRingBuffer getSpeedHistory() {
+        return mSpeedHistory;
+    }
+
+    public FloatRingBuffer getBatteryHistory() {
+        return mBatteryHistory;
+    }
+
+    // mCurrent holds the new reading
+    private void apply(long receivedNanos) {
+        int percent = mCurrent.batteryPercent;
+        int speedTenths = mCurrent.speedTenths;
+
+        mHasCurrent = true;
+        mReceivedNanos = receivedNanos;
+        mBatteryHistory.add(percent);
+        mSpeedHistory.add(mCurrent.getSpeed());
+        SystemTrace.counter("batteryPercent", percent);
+        SystemTrace.counter("speedTenths", speedTenths);
+        TraceRing.event(TraceRing.Event.watchMessage, percent, speedTenths);
+
+        for (int i = 0; i < mListeners.size(); i++) {
+            mListeners.get(i).onTelemetryChanged();
+        }
+    }
+}
@@ -20,6 +20,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -28,7 +29,6 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.Rect;
-import android.graphics.RectF;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -38,12 +38,8 @@ import android.text.format.Time;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.wearable.MessageApi;
-import com.google.android.gms.wearable.MessageEvent;
-import com.google.android.gms.wearable.Wearable;
-
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
@@ -67,11 +63,44 @@ public class XtremeWatchFace extends CanvasWatchFaceService {
      */
     private static final int MSG_UPDATE_TIME = 0;
 
-    private GoogleApiClient mGoogleApiClient;
+    /**
+     * Top of the speed sparkline, in MPH or KPH, whichever the phone sends.
+     */
+    private static final float SPEED_RANGE = 30;
+
+    /**
+     * Battery segments above the level.
+     */
+    private static final int SEGMENT_UNLIT_COLOR = Color.argb(0xFF, 40, 40, 40);
+
+    private Engine mEngine;
 
     @Override
     public Engine onCreateEngine() {
-        return new Engine();
+        mEngine = new Engine();
+        return mEngine;
+    }
+
+    /**
+     * Dumps the face's latency histograms and the trace ring for {@code adb shell dumpsys
+     * activity service com.inventist.solowheel.xtreme/.XtremeWatchFace}.  With the arguments
+     * {@code systrace on|off} turns the systrace markers on or off instead, for a capture.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (args != null && args.length > 1 && "systrace".equals(args[0])) {
+            SystemTrace.setEnabled("on".equals(args[1]));
+            writer.println("Systrace markers " + (SystemTrace.isEnabled() ? "on" : "off"));
+            return;
+        }
+
+        Engine engine = mEngine;
+        if (engine != null) {
+            writer.println(engine.mReceiveToDraw);
+            writer.println(engine.mDrawTime);
+            writer.println(engine.mVisibleToValue);
+        }
+        TraceRing.dump(writer);
     }
 
     private class Engine extends CanvasWatchFaceService.Engine {
@@ -80,6 +109,8 @@ public class XtremeWatchFace extends CanvasWatchFaceService {
         Paint mMinuteHandPaint;
         Paint mTextBatteryPaint;
         Paint mTextSpeedPaint;
+        Paint mSpeedSparklinePaint;
+        Paint mBatterySparklinePaint;
         private Paint arcPaintBatteryFill;
         private Paint arcPaintBatteryForeStroke;
         private Paint arcPaintBatteryBackStroke;
@@ -88,10 +119,48 @@ public class XtremeWatchFace extends CanvasWatchFaceService {
         boolean mAmbient;
         Time mTime;
 
-        String mFormattedSpeed = "";
-        Double mBatteryPercent = 0.0;
+        double mBatteryPercent = 0.0;
+
+        // The readings' text, refreshed with each message rather than formatted on each draw
+        final char[] mSpeedText = new char[WearMessage.MAX_LENGTH];
+        int mSpeedTextLength;
+        final char[] mBatteryText = new char[WearMessage.MAX_LENGTH];
+        int mBatteryTextLength;
+        final Rect mTextBounds = new Rect();
+
+        // The battery arc, laid out once for each size by updateGeometry()
+        final GaugeGeometry mGeometry = new GaugeGeometry();
+        final Path[] mSegmentPaths = new Path[GaugeGeometry.SEGMENT_COUNT];
+        final int[] mSegmentColors = new int[GaugeGeometry.SEGMENT_COUNT];
+
+        // Latency from a message arriving to it being drawn, and of the draw itself.  The
+        // phone's clock can't be compared with ours, so the hop from the phone isn't measured.
+        final LatencyHistogram mReceiveToDraw = new LatencyHistogram("receiveToDraw");
+        final LatencyHistogram mDrawTime = new LatencyHistogram("watchDraw");
+        long mReceivedNanos;
+
+        // Time from becoming visible to a reading being drawn
+        final LatencyHistogram mVisibleToValue = new LatencyHistogram("visibleToValue");
+        long mVisibleNanos;
        // String mSpeedUnits = "";
 
+        // Received by TelemetryListenerService whether or not the face is visible
+        final WatchTelemetry mTelemetry = WatchTelemetry.getInstance();
+        final Sparkline mSpeedSparkline = new Sparkline(mTelemetry.getSpeedHistory(), 0, SPEED_RANGE);
+        final Sparkline mBatterySparkline = new Sparkline(mTelemetry.getBatteryHistory(), 0, 100);
+
+        WatchModeReporter mModeReporter;
+
+        final WatchTelemetry.Listener mTelemetryListener = new WatchTelemetry.Listener() {
+            @Override
+            public void onTelemetryChanged() {
+                readTelemetry();
+                mReceivedNanos = mTelemetry.getReceivedNanos();
+                mSpeedSparkline.onValueAdded();
+                mBatterySparkline.onValueAdded();
+            }
+        };
+
         final Handler mUpdateTimeHandler = new EngineHandler(this);
 
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
@@ -115,6 +184,7 @@ public class XtremeWatchFace extends CanvasWatchFaceService {
             Log.i(TAG, "onCreate");
 
             super.onCreate(holder);
+            TraceRing.setEnabled((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
 
             setWatchFaceStyle(new WatchFaceStyle.Builder(XtremeWatchFace.this)
                     .setCardPeekMode(WatchFaceStyle.PEEK_MODE_SHORT)
@@ -153,10 +223,26 @@ public class XtremeWatchFace extends CanvasWatchFaceService {
             mTextBatteryPaint.setStrokeCap(Paint.Cap.ROUND);
             mTextBatteryPaint.setTextSize(40);
 
+            mSpeedSparklinePaint = new Paint();
+            mSpeedSparklinePaint.setColor(resources.getColor(R.color.analog_hands));
+            mSpeedSparklinePaint.setStrokeWidth(2);
+            mSpeedSparklinePaint.setAntiAlias(true);
+            mSpeedSparklinePaint.setStyle(Paint.Style.STROKE);
+
+            mBatterySparklinePaint = new Paint(mSpeedSparklinePaint);
+            mBatterySparklinePaint.setColor(Color.argb(255, 0, 200, 0));
+
             arcPaintBatteryFill = new Paint();
             arcPaintBatteryFill.setAntiAlias(true);
             arcPaintBatteryFill.setStyle(Paint.Style.FILL);
 
+            // Red at empty to green at full
+            float scale = 255.0f / (GaugeGeometry.SEGMENT_COUNT - 1);
+            for (int i = 0; i < GaugeGeometry.SEGMENT_COUNT; i++) {
+                mSegmentColors[i] = Color.argb(0xFF, 255 - (int) (i * scale), (int) (i * scale), 0);
+                mSegmentPaths[i] = new Path();
+            }
+
             arcPaintBatteryForeStroke = new Paint();
             arcPaintBatteryForeStroke.setAntiAlias(true);
             arcPaintBatteryForeStroke.setStrokeWidth(1);
@@ -175,7 +261,11 @@ public class XtremeWatchFace extends CanvasWatchFaceService {
 
             mTime = new Time();
 
-            initGoogleApiClient();
+            mTelemetry.addListener(mTelemetryListener);
+            readTelemetry();
+
+            mModeReporter = new WatchModeReporter(getApplicationContext());
+            reportMode();
         }
 
         @Override
@@ -183,76 +273,26 @@ public class XtremeWatchFace extends CanvasWatchFaceService {
             Log.i(TAG, "onDestroy");
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
             super.onDestroy();
-            closeGoogleApiClient();
+            mTelemetry.removeListener(mTelemetryListener);
+            mModeReporter.setMode(WatchState.Mode.hidden);
+            mModeReporter.close();
         }
 
-        private void initGoogleApiClient()
-        {
-            if (mGoogleApiClient == null)
-            {
-                mGoogleApiClient = new GoogleApiClient.Builder(getApplicationContext())
-                        .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
-                            @Override
-                            public void onConnected(Bundle bundle) {
-                                Log.i(TAG, "onConnected: " + bundle);
-
-                                if (mGoogleApiClient != null)
-                                    Wearable.MessageApi.addListener(mGoogleApiClient, messageListener);
-                            }
-
-                            @Override
-                            public void onConnectionSuspended(int i) {
-                                Log.i(TAG, "onConnectionSuspended: " + i);
-
-                            }
-                        })
-                        .addOnConnectionFailedListener(new GoogleApiClient.OnConnectionFailedListener() {
-                            @Override
-                            public void onConnectionFailed(ConnectionResult connectionResult) {
-                                Log.i(TAG, "onConnectionFailed: " + connectionResult);
-
-                            }
-                        })
-                        .addApi(Wearable.API)
-                        .build();
-            }
-            if (!mGoogleApiClient.isConnected())
-                mGoogleApiClient.connect();
+        private void reportMode() {
+            if (!isVisible())
+                mModeReporter.setMode(WatchState.Mode.hidden);
+            else if (isInAmbientMode())
+                mModeReporter.setMode(WatchState.Mode.ambient);
+            else
+                mModeReporter.setMode(WatchState.Mode.interactive);
         }
 
-        private void closeGoogleApiClient()
-        {
-            if (mGoogleApiClient != null)
-            {
-                if (mGoogleApiClient.isConnected())
-                    mGoogleApiClient.disconnect();
-
-                mGoogleApiClient = null;
-                mBatteryPercent = 0.0;
-                invalidate();
-            }
+        private void readTelemetry() {
+            mBatteryPercent = mTelemetry.getBatteryPercent();
+            mSpeedTextLength = mTelemetry.getFormattedSpeed(mSpeedText);
+            mBatteryTextLength = mTelemetry.getFormattedBattery(mBatteryText);
         }
 
-        MessageApi.MessageListener messageListener = new MessageApi.MessageListener() {
-            @Override
-            public void onMessageReceived(MessageEvent messageEvent) {
-               // Log.i(TAG, "onMessageReceived path: " + messageEvent.getPath());
-
-                if (messageEvent.getPath().equals("/solowheelxtreme")) {
-                    String msg = new String(messageEvent.getData());
-
-                    String[] parts = msg.split(",");
-                    if (parts != null && parts.length == 3) {
-                        Log.i(TAG, "onMessageReceived: charge:" + parts[0] + " speed:" + parts[1]);
-
-                        mBatteryPercent = Double.parseDouble(parts[0]);
-                        mFormattedSpeed = parts[1] + " " + parts[2];
-                    }
-                   // Log.i(TAG, "onMessageReceived: " + msg);
-                }
-            }
-        };
-
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
@@ -278,6 +318,7 @@ public class XtremeWatchFace extends CanvasWatchFaceService {
                 }
                 invalidate();
             }
+            reportMode();
 
             // Whether the timer should be running depends on whether we're visible (as well as
             // whether we're in ambient mode), so we may need to start or stop the timer.
@@ -286,6 +327,14 @@ public class XtremeWatchFace extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
+            // Nothing below returns early, and a throw ends the process anyway.
+            boolean traced = SystemTrace.beginSection("XtremeWatchFace.onDraw");
+            long drawStartNanos = System.nanoTime();
+            if (mReceivedNanos != 0) {
+                mReceiveToDraw.record(drawStartNanos - mReceivedNanos);
+                mReceivedNanos = 0;
+            }
+
             mTime.setToNow();
 
             int width = bounds.width();
@@ -303,25 +352,23 @@ public class XtremeWatchFace extends CanvasWatchFaceService {
 
                 if (mBatteryPercent > 0) {
                     // battery text
-                    int percent = mBatteryPercent.intValue();
-                    String percentText = String.format("%d", percent) + "%";
                     //canvas.drawText(String.format("%d", percent) + "%", centerX, centerY + (height / 8), mTextPaint);
 
-                    android.graphics.Rect TextBounds = new android.graphics.Rect();
-                    mTextBatteryPaint.getTextBounds(percentText, 0, percentText.length(), TextBounds);
+                    Rect TextBounds = mTextBounds;
+                    mTextBatteryPaint.getTextBounds(mBatteryText, 0, mBatteryTextLength, TextBounds);
                     canvas.drawText
                             (
-                                    percentText,
+                                    mBatteryText, 0, mBatteryTextLength,
                                     centerX - (TextBounds.right + TextBounds.left) / 2.0f,
                                     centerY - (TextBounds.bottom + TextBounds.top) / 2.0f + 40,
                                     mTextBatteryPaint
                             );
 
                     // speed
-                    mTextSpeedPaint.getTextBounds(mFormattedSpeed, 0, mFormattedSpeed.length(), TextBounds);
+                    mTextSpeedPaint.getTextBounds(mSpeedText, 0, mSpeedTextLength, TextBounds);
                     canvas.drawText
                             (
-                                    mFormattedSpeed,
+                                    mSpeedText, 0, mSpeedTextLength,
                                     centerX - (TextBounds.right + TextBounds.left) / 2.0f,
                                     centerY - (TextBounds.bottom + TextBounds.top) / 2.0f - 40,
                                     mTextSpeedPaint
@@ -335,20 +382,26 @@ public class XtremeWatchFace extends CanvasWatchFaceService {
                     else if (gaugeWidth > gaugeHeight)
                         gaugeWidth = gaugeHeight;
 
-                    int gaugeWidth2 = (int) gaugeWidth / 2;
-                    RectF gaugeRect = new RectF(
-                            centerX - gaugeWidth2, centerY - gaugeWidth2,
-                            centerX + gaugeWidth2, centerY + gaugeWidth2);
-
                     float pad = dpToPixels(20);
-                    RectF arcRect = new RectF(gaugeRect.left + pad, gaugeRect.top + pad, gaugeRect.right - pad, gaugeRect.bottom - pad);
-
-                    LedSegmentData ledSegmentData = new LedSegmentData(canvas, (int) centerX, (int) centerY, arcRect).invoke();
-                    float segmentAngle = ledSegmentData.getSegmentArcSpan();
-                    Path ptsSegments = ledSegmentData.getPtsSegments();
-                    //float innerRadius = ledSegmentData.getInnerRadius();
-
-                    DrawLedSegments(canvas, (int) centerX, (int) centerY, ptsSegments, segmentAngle);
+                    float gap = dpToPixels(10);
+                    updateGeometry((int) centerX, (int) centerY,
+                            (int) gaugeWidth / 2 - pad - gap, dpToPixels(20));
+
+                    DrawLedSegments(canvas);
+
+                    // history inside the segments, speed above the speed text and battery
+                    // under the battery text
+                    if (!isInAmbientMode()) {
+                        float sparklineWidth = width * 0.25f;
+                        float sparklineHeight = height * 0.06f;
+                        float sparklineLeft = centerX - sparklineWidth / 2;
+                        mSpeedSparkline.setSize(sparklineWidth, sparklineHeight);
+                        mBatterySparkline.setSize(sparklineWidth, sparklineHeight);
+                        mSpeedSparkline.draw(canvas, sparklineLeft,
+                                centerY - height * 0.17f - sparklineHeight, mSpeedSparklinePaint);
+                        mBatterySparkline.draw(canvas, sparklineLeft,
+                                centerY + height * 0.17f, mBatterySparklinePaint);
+                    }
                 } else if (!isInAmbientMode()) {
                 /* Scale loaded background image (more efficient) if surface dimensions change. */
                     float scale = ((float) width) / (float) mBackgroundBitmap.getWidth();
@@ -401,6 +454,15 @@ public class XtremeWatchFace extends CanvasWatchFaceService {
                 float hrY = (float) -Math.cos(hrRot) * hrLength;
                 canvas.drawLine(centerX, centerY, centerX + hrX, centerY + hrY, mHourHandPaint);
             }
+
+            long drawNanos = System.nanoTime() - drawStartNanos;
+            mDrawTime.record(drawNanos);
+            TraceRing.event(TraceRing.Event.watchDrawn, (long) mBatteryPercent, drawNanos / 1000);
+            if (mVisibleNanos != 0 && mBatteryPercent > 0) {
+                mVisibleToValue.recordSince(mVisibleNanos);
+                mVisibleNanos = 0;
+            }
+            SystemTrace.endSection(traced);
         }
 
         @Override
@@ -414,10 +476,19 @@ public class XtremeWatchFace extends CanvasWatchFaceService {
                 mTime.clear(TimeZone.getDefault().getID());
                 mTime.setToNow();
 
+                // The latest reading is already here; draw it right away.
+                mVisibleNanos = System.nanoTime();
+                invalidate();
 
             } else {
                 unregisterReceiver();
+
+                mVisibleNanos = 0;
+                Log.i(TAG, mReceiveToDraw.toString());
+                Log.i(TAG, mDrawTime.toString());
+                Log.i(TAG, mVisibleToValue.toString());
             }
+            reportMode();
 
             // Whether the timer should be running depends on whether we're visible (as well as
             // whether we're in ambient mode), so we may need to start or stop the timer.
@@ -433,8 +504,6 @@ public class XtremeWatchFace extends CanvasWatchFaceService {
             mRegisteredTimeZoneReceiver = true;
             IntentFilter filter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
             XtremeWatchFace.this.registerReceiver(mTimeZoneReceiver, filter);
-
-            initGoogleApiClient();
         }
 
         private void unregisterReceiver() {
@@ -445,8 +514,6 @@ public class XtremeWatchFace extends CanvasWatchFaceService {
             }
             mRegisteredTimeZoneReceiver = false;
             XtremeWatchFace.this.unregisterReceiver(mTimeZoneReceiver);
-
-            closeGoogleApiClient();
         }
 
         /**
@@ -462,11 +529,11 @@ public class XtremeWatchFace extends CanvasWatchFaceService {
 
         /**
          * Returns whether the {@link #mUpdateTimeHandler} timer should be running. The timer should
-         * only run when we're visible and in interactive mode.
+         * only run when we're visible and in interactive mode; in ambient mode onTimeTick()
+         * redraws once a minute.
          */
         private boolean shouldTimerBeRunning() {
-            return isVisible();
-            //return isVisible() && !isInAmbientMode();
+            return isVisible() && !isInAmbientMode();
         }
 
         /**
@@ -478,49 +545,37 @@ public class XtremeWatchFace extends CanvasWatchFaceService {
                 long timeMs = System.currentTimeMillis();
                 long delayMs = INTERACTIVE_UPDATE_RATE_MS
                         - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
-                if (isInAmbientMode())
-                    delayMs = 10 * INTERACTIVE_UPDATE_RATE_MS;
                 mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
             }
         }
 
 
-        private void DrawLedSegments(Canvas canvas, int centerX, int centerY,
-                                     Path ptsSegments, float segmentAngle) {
-
-            canvas.save();
-
-            final int numSegments = 100;
-            int red, green, blue;
-            int alpha;
-            float scale = (255.0f/numSegments);
-
-           // Log.d(TAG, "");
-
-            for(int i=numSegments; i >= 0; i--)
-            {
-
-                alpha = 0xFF;
-
-                red = 255 - (int)(i * scale);
-                green = (int)(i * scale);
-                blue = 0;
+        // Rebuilds the segment outlines when the size changes, and only then.
+        private void updateGeometry(float centerX, float centerY, float outerRadius,
+                                    float segmentWidth) {
+            if (!mGeometry.update(centerX, centerY, outerRadius, segmentWidth, 0))
+                return;
 
-                if(i > mBatteryPercent)
-                {
-                    red = 40;
-                    green = 40;
-                    blue = 40;
+            float[] points = mGeometry.getSegmentPoints();
+            for (int i = 0; i < GaugeGeometry.SEGMENT_COUNT; i++) {
+                int p = i * GaugeGeometry.POINTS_PER_SEGMENT * 2;
+                Path path = mSegmentPaths[i];
+                path.rewind();
+                path.moveTo(points[p], points[p + 1]);
+                for (int k = 1; k < GaugeGeometry.POINTS_PER_SEGMENT; k++) {
+                    path.lineTo(points[p + k * 2], points[p + k * 2 + 1]);
                 }
+                path.close();
+            }
+        }
 
-                Log.d(TAG, String.format("i=%d rga=[%2x][%2x]%2x", i, red, green, alpha));
-
-                arcPaintBatteryFill.setColor(Color.argb(alpha, red, green, blue));
-                canvas.drawPath(ptsSegments, arcPaintBatteryFill);
-
-                canvas.rotate(-segmentAngle, centerX, centerY);
+        // Every segment from 100 down, lit up to the level.
+        private void DrawLedSegments(Canvas canvas) {
+            int level = GaugeGeometry.getLevel(mBatteryPercent);
+            for (int i = GaugeGeometry.SEGMENT_COUNT - 1; i >= 0; i--) {
+                arcPaintBatteryFill.setColor(i > level ? SEGMENT_UNLIT_COLOR : mSegmentColors[i]);
+                canvas.drawPath(mSegmentPaths[i], arcPaintBatteryFill);
             }
-            canvas.restore();
         }
 
         public int Lighten(int red, int green, int blue, double inAmount)
@@ -563,77 +618,4 @@ public class XtremeWatchFace extends CanvasWatchFaceService {
 //		return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
 //				dp, getResources().getDisplayMetrics());
     }
-
-    private class LedSegmentData {
-        private Canvas canvas;
-        private int centerY;
-        private int centerX;
-        private RectF arcRect;
-        private float innerRadius;
-        private Path ptsSegments;
-        private float segmentArcSpan;
-
-        public LedSegmentData(Canvas canvas, int centerX, int centerY, RectF arcRect) {
-            this.canvas = canvas;
-            this.centerY = centerY;
-            this.centerX = centerX;
-            this.arcRect = arcRect;
-        }
-
-        public float getInnerRadius() {
-            return innerRadius;
-        }
-
-        public Path getPtsSegments() {
-            return ptsSegments;
-        }
-
-        public float getSegmentArcSpan() {
-            return segmentArcSpan;
-        }
-
-        public LedSegmentData invoke() {
-            ptsSegments = new Path();
-            float arcSpan = 270.f;
-            float segmentWidth = dpToPixels(20);
-            float gap = dpToPixels(10);
-
-            RectF arcRectChargeOuter = new RectF(arcRect.left + gap, arcRect.top + gap, arcRect.right - gap, arcRect.bottom - gap);
-
-            RectF arcRectChargeInner = new RectF(arcRect.left + gap + segmentWidth, arcRect.top + gap + segmentWidth, arcRect.right - gap - segmentWidth, arcRect.bottom - gap - segmentWidth);
-
-            float outerRadius = arcRectChargeOuter.right - centerX;
-            innerRadius = arcRectChargeInner.right - centerX;
-
-            //float segmentArcSpanFull = arcSpan / 100.0f;
-            //segmentArcSpan = (arcSpan - (segmentArcSpanFull / 2)) / 100;
-            segmentArcSpan = arcSpan / 100.0f;
-
-            float segmentArcRad2 = (float)Math.toRadians(segmentArcSpan / 2);
-
-            int innerOffsetX = (int)(Math.cos(segmentArcRad2) * innerRadius);
-            int innerOffsetY = (int)(Math.sin(segmentArcRad2) * innerRadius);
-
-            int outerOffsetX = (int)(Math.cos(segmentArcRad2) * outerRadius);
-            int outerOffsetY = (int)(Math.sin(segmentArcRad2) * outerRadius);
-
-            int X1 = centerX + innerOffsetX;
-            int Y1 = centerY + innerOffsetY;
-//            int X2 = centerX + innerOffsetX;
-//            int Y2 = centerY - innerOffsetY;
-            int X3 = centerX + outerOffsetX;
-            int Y3 = centerY - outerOffsetY;
-//            int X4 = centerX + outerOffsetX;
-//            int Y4 = centerY + outerOffsetY;
-
-            ptsSegments.moveTo(X1, Y1);
-            ptsSegments.arcTo(arcRectChargeInner, (segmentArcSpan / 2), -segmentArcSpan);
-            ptsSegments.lineTo(X3, Y3);
-            ptsSegments.arcTo(arcRectChargeOuter, -(segmentArcSpan / 2), segmentArcSpan);
-            ptsSegments.lineTo(X1, Y1);
-
-            ptsSegments.close();
-            return this;
-        }
-    }
 }